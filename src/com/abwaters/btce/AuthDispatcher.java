@@ -0,0 +1,364 @@
+package com.abwaters.btce;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.Callback;
+import com.abwaters.btce.BTCE.CancelOrder;
+import com.abwaters.btce.BTCE.Info;
+import com.abwaters.btce.BTCE.OrderList;
+import com.abwaters.btce.BTCE.Trade;
+import com.abwaters.btce.BTCE.TradeHistory;
+import com.abwaters.btce.BTCE.TransactionHistory;
+
+/**
+ * Runs authenticated calls one at a time in priority order: cancels, then trades, then account info and active orders, 
+ * then history.  A call is only picked once the authenticated rate limit has a permit free, so an urgent cancel submitted 
+ * behind a queue of history calls goes out on the next permit instead of waiting its turn.
+ * <p>
+ * Identical read calls waiting in the queue are merged into one call whose result goes to every caller, and calls can be 
+ * given a maximum time in the queue after which they are dropped.  Queue depth and time spent waiting are kept per priority.
+ * <p>
+ * Running the calls one at a time also keeps the nonces arriving at the exchange in order.  A call that is already in 
+ * flight is not interrupted, so a cancel can still wait for one call to complete.
+ * <pre>
+ * AuthDispatcher dispatcher = new AuthDispatcher(btce) ;
+ * dispatcher.setMaxAge(AuthDispatcher.Priority.HISTORY,30000) ;
+ * dispatcher.cancelOrder(order_id,callback) ;
+ * </pre>
+ */
+public class AuthDispatcher implements Closeable {
+
+	/**
+	 * Priorities in order, most urgent first.
+	 */
+	public enum Priority {
+		CANCEL, TRADE, INFO, HISTORY
+	}
+	
+	private static final int PRIORITIES = Priority.values().length ;
+	
+	private final BTCE btce ;
+	private final PriorityBlockingQueue<Task<?>> queue = new PriorityBlockingQueue<Task<?>>() ;
+	private final ConcurrentMap<String,Task<?>> pending = new ConcurrentHashMap<String,Task<?>>() ;
+	private final AtomicLong sequence = new AtomicLong() ;
+	private final long[] max_ages = new long[PRIORITIES] ;	// nanoseconds, 0 for none
+	private final AtomicIntegerArray depths = new AtomicIntegerArray(PRIORITIES) ;
+	private final AtomicLongArray counts = new AtomicLongArray(PRIORITIES) ;
+	private final AtomicLongArray total_waits = new AtomicLongArray(PRIORITIES) ;
+	private final AtomicLongArray max_waits = new AtomicLongArray(PRIORITIES) ;
+	private final AtomicLongArray merged = new AtomicLongArray(PRIORITIES) ;
+	private final AtomicLongArray dropped = new AtomicLongArray(PRIORITIES) ;
+	private final Thread worker ;
+	private final Task<Void> stop ;	// wakes the worker on close
+	private volatile boolean closed ;
+	
+	public AuthDispatcher(BTCE btce) {
+		this.btce = btce ;
+		stop = new Task<Void>(Priority.CANCEL,null,new Callable<Void>() {
+			public Void call() {
+				return null ;
+			}
+		},null) ;
+		worker = new Thread(new Runnable() {
+			public void run() {
+				dispatch() ;
+			}
+		},"btce-auth-dispatcher") ;
+		worker.setDaemon(true) ;
+		worker.start() ;
+	}
+	
+	/**
+	 * Sets how long calls of the priority can wait in the queue before they are dropped.  Dropped calls fail with a 
+	 * {@link BTCEException}.
+	 * 
+	 * @param max_age milliseconds, 0 to never drop.
+	 */
+	public void setMaxAge(Priority priority,long max_age) {
+		synchronized(max_ages) {
+			max_ages[priority.ordinal()] = TimeUnit.MILLISECONDS.toNanos(max_age) ;
+		}
+	}
+	
+	public Future<CancelOrder> cancelOrder(final long order_id,Callback<CancelOrder> callback) {
+		return submit(Priority.CANCEL,"CancelOrder:"+order_id,new Callable<CancelOrder>() {
+			public CancelOrder call() throws BTCEException {
+				return btce.cancelOrder(order_id) ;
+			}
+		},callback) ;
+	}
+	
+	public Future<Trade> trade(final String pair,final String type,final double rate,final double amount,Callback<Trade> callback) {
+		return submit(Priority.TRADE,null,new Callable<Trade>() {
+			public Trade call() throws BTCEException {
+				return btce.trade(pair,type,rate,amount) ;
+			}
+		},callback) ;
+	}
+	
+	public Future<Info> getInfo(Callback<Info> callback) {
+		return submit(Priority.INFO,"getInfo",new Callable<Info>() {
+			public Info call() throws BTCEException {
+				return btce.getInfo() ;
+			}
+		},callback) ;
+	}
+	
+	public Future<OrderList> getActiveOrders(final String pair,Callback<OrderList> callback) {
+		return submit(Priority.INFO,"ActiveOrders:"+pair,new Callable<OrderList>() {
+			public OrderList call() throws BTCEException {
+				return btce.getActiveOrders(pair) ;
+			}
+		},callback) ;
+	}
+	
+	public Future<TradeHistory> getTradeHistory(final int from,final int count,final long from_id,final long end_id,final String order,
+			final long since,final long end,final String pair,Callback<TradeHistory> callback) {
+		String key = "TradeHistory:"+from+":"+count+":"+from_id+":"+end_id+":"+order+":"+since+":"+end+":"+pair ;
+		return submit(Priority.HISTORY,key,new Callable<TradeHistory>() {
+			public TradeHistory call() throws BTCEException {
+				return btce.getTradeHistory(from,count,from_id,end_id,order,since,end,pair) ;
+			}
+		},callback) ;
+	}
+	
+	public Future<TransactionHistory> getTransactionHistory(final int from,final int count,final long from_id,final long end_id,final String order,
+			final long since,final long end,Callback<TransactionHistory> callback) {
+		String key = "TransHistory:"+from+":"+count+":"+from_id+":"+end_id+":"+order+":"+since+":"+end ;
+		return submit(Priority.HISTORY,key,new Callable<TransactionHistory>() {
+			public TransactionHistory call() throws BTCEException {
+				return btce.getTransactionHistory(from,count,from_id,end_id,order,since,end) ;
+			}
+		},callback) ;
+	}
+	
+	/**
+	 * Queues a call.  The call should make exactly one authenticated request through the {@link BTCE} of the dispatcher.
+	 * 
+	 * @param key calls with the same key waiting in the queue are merged into one, null to never merge.
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the result, shared by merged calls.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Future<T> submit(Priority priority,String key,Callable<T> call,Callback<T> callback) {
+		Task<T> task = new Task<T>(priority,key,call,callback) ;
+		if( closed ) {
+			task.fail(btce.new BTCEException("Dispatcher closed.")) ;
+			return task ;
+		}
+		if( key != null ) {
+			for(;;) {
+				Task<?> queued = pending.putIfAbsent(key,task) ;
+				if( queued == null ) break ;
+				if( queued.priority == priority && ((Task<T>)queued).merge(callback) ) {
+					merged.incrementAndGet(priority.ordinal()) ;
+					return (Task<T>)queued ;
+				}
+				// the queued call has started or has another priority, this one takes its place for later calls
+				if( pending.replace(key,queued,task) ) break ;
+			}
+		}
+		depths.incrementAndGet(priority.ordinal()) ;
+		queue.add(task) ;
+		if( closed && queue.remove(task) ) {
+			// closed while queueing and missed by close, which fails everything it finds in the queue
+			depths.decrementAndGet(priority.ordinal()) ;
+			if( key != null ) pending.remove(key,task) ;
+			task.fail(btce.new BTCEException("Dispatcher closed.")) ;
+		}
+		return task ;
+	}
+	
+	/**
+	 * Returns the number of calls of the priority waiting in the queue.
+	 */
+	public int getQueueDepth(Priority priority) {
+		return depths.get(priority.ordinal()) ;
+	}
+	
+	/**
+	 * Returns the number of calls waiting in the queue.
+	 */
+	public int getQueueDepth() {
+		int depth = 0 ;
+		for(int i=0;i<PRIORITIES;i++) depth += depths.get(i) ;
+		return depth ;
+	}
+	
+	/**
+	 * Returns the number of calls of the priority that have been started.
+	 */
+	public long getCallCount(Priority priority) {
+		return counts.get(priority.ordinal()) ;
+	}
+	
+	/**
+	 * Returns the average time calls of the priority waited in the queue, in milliseconds.
+	 */
+	public double getAverageWait(Priority priority) {
+		long count = counts.get(priority.ordinal()) ;
+		return count == 0 ? 0 : total_waits.get(priority.ordinal())/1e6/count ;
+	}
+	
+	/**
+	 * Returns the longest time a call of the priority waited in the queue, in milliseconds.
+	 */
+	public double getMaxWait(Priority priority) {
+		return max_waits.get(priority.ordinal())/1e6 ;
+	}
+	
+	/**
+	 * Returns the number of calls of the priority that were merged into a call already in the queue.
+	 */
+	public long getMergedCount(Priority priority) {
+		return merged.get(priority.ordinal()) ;
+	}
+	
+	/**
+	 * Returns the number of calls of the priority dropped for waiting longer than their maximum age.
+	 */
+	public long getDroppedCount(Priority priority) {
+		return dropped.get(priority.ordinal()) ;
+	}
+	
+	/**
+	 * Stops the dispatcher.  The call in flight completes, calls still in the queue fail.
+	 */
+	public void close() {
+		closed = true ;
+		failQueued() ;
+		// the worker isn't interrupted, that would also interrupt the call in flight
+		queue.add(stop) ;
+	}
+	
+	private void failQueued() {
+		Task<?> task ;
+		while( (task = queue.poll()) != null ) {
+			if( task == stop ) continue ;
+			depths.decrementAndGet(task.priority.ordinal()) ;
+			if( task.key != null ) pending.remove(task.key,task) ;
+			task.fail(btce.new BTCEException("Dispatcher closed.")) ;
+		}
+	}
+	
+	private void dispatch() {
+		try {
+			while( !closed ) {
+				Task<?> task = queue.take() ;
+				if( task == stop ) break ;
+				long wait = btce.getAuthRequestLimiter().getWait() ;
+				if( wait > 0 ) {
+					// put it back and look again once a permit is free, something more urgent may have come in by then
+					queue.add(task) ;
+					TimeUnit.NANOSECONDS.sleep(wait) ;
+					continue ;
+				}
+				int p = task.priority.ordinal() ;
+				depths.decrementAndGet(p) ;
+				if( task.key != null ) pending.remove(task.key,task) ;
+				if( !task.start() ) continue ;
+				long waited = System.nanoTime()-task.queued ;
+				long max_age ;
+				synchronized(max_ages) {
+					max_age = max_ages[p] ;
+				}
+				if( max_age > 0 && waited > max_age ) {
+					dropped.incrementAndGet(p) ;
+					task.fail(btce.new BTCEException("Call dropped after waiting "+TimeUnit.NANOSECONDS.toMillis(waited)+"ms in the queue.")) ;
+					continue ;
+				}
+				counts.incrementAndGet(p) ;
+				total_waits.addAndGet(p,waited) ;
+				for(long max=max_waits.get(p);waited > max && !max_waits.compareAndSet(p,max,waited);max=max_waits.get(p)) ;
+				task.run() ;
+			}
+		} catch (InterruptedException e) {
+			// the thread was interrupted from outside, stop as if closed
+			closed = true ;
+		}
+		// a call put back to wait for a permit may have gone in after close emptied the queue
+		failQueued() ;
+	}
+	
+	/**
+	 * A queued call.  Orders by priority and then by when it was submitted.
+	 */
+	private class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+		private final Priority priority ;
+		private final String key ;
+		private final long seq = sequence.getAndIncrement() ;
+		private final long queued = System.nanoTime() ;
+		private final List<Callback<T>> callbacks = new ArrayList<Callback<T>>(1) ;
+		private boolean started ;
+		
+		private Task(Priority priority,String key,Callable<T> call,Callback<T> callback) {
+			super(call) ;
+			this.priority = priority ;
+			this.key = key ;
+			if( callback != null ) callbacks.add(callback) ;
+		}
+		
+		/**
+		 * Adds the callback of a merged call, unless this call has already started.
+		 */
+		private synchronized boolean merge(Callback<T> callback) {
+			if( started || isDone() ) return false ;
+			if( callback != null ) callbacks.add(callback) ;
+			return true ;
+		}
+		
+		private synchronized boolean start() {
+			started = true ;
+			return !isDone() ;
+		}
+		
+		private void fail(BTCEException e) {
+			setException(e) ;
+		}
+		
+		public int compareTo(Task<?> other) {
+			if( priority != other.priority ) return priority.compareTo(other.priority) ;
+			return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1) ;
+		}
+		
+		@Override
+		protected void done() {
+			List<Callback<T>> notify ;
+			synchronized(this) {
+				notify = new ArrayList<Callback<T>>(callbacks) ;
+			}
+			if( notify.isEmpty() ) return ;
+			if( isCancelled() ) {
+				for(Callback<T> callback:notify) callback.failed(btce.new BTCEException("Call cancelled.")) ;
+				return ;
+			}
+			T result ;
+			try {
+				result = get() ;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt() ;
+				return ;
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause() ;
+				BTCEException failure = cause instanceof BTCEException?(BTCEException)cause:btce.new BTCEException("Internal error.",cause) ;
+				for(Callback<T> callback:notify) callback.failed(failure) ;
+				return ;
+			}
+			for(Callback<T> callback:notify) callback.completed(result) ;
+		}
+	}
+}
@@ -13,38 +13,60 @@
  */
 package com.abwaters.btce;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Type;
-import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.URL;
-import java.net.URLConnection;
-import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * This is the only class required to connect to the BTC-E bitcoin exchange.  This class allows you to execute API calls on your account to obtain information and create and cancel trades.
@@ -57,39 +79,83 @@ import com.google.gson.annotations.SerializedName;
  * Info info = btce.getInfo() ;
  * System.out.println(info.toString()) ; 
  * </pre>
+ * <p>
+ * Every call also has an asynchronous variant ending in <code>Async</code> which returns immediately with a {@link Future}.  The
+ * rate limit wait is scheduled on an executor instead of sleeping in the calling thread and the optional {@link Callback} is 
+ * invoked when the call completes.
+ * <pre>
+ * btce.getTickerAsync(BTCE.Pairs.BTC_USD,new BTCE.Callback&lt;Ticker&gt;() {
+ *     public void completed(Ticker ticker) { System.out.println(ticker) ; }
+ *     public void failed(BTCEException e) { e.printStackTrace() ; }
+ * }) ;
+ * </pre>
  * 
  */
 public class BTCE {
 	
 	// https://btc-e.com/api/2/btc_usd/ticker
 	// https://btc-e.com/api/2/btc_usd/trades
-	// https://btc-e.com/api/2/btc_usd/depth  TODO: implement depth call...
+	// https://btc-e.com/api/2/btc_usd/depth
+	// https://btc-e.com/api/3/ticker/btc_usd-ltc_usd (also trades and depth, for several pairs at once)
 
 	private static final String USER_AGENT = "Mozilla/5.0 (compatible; BTCE-API/1.0; MSIE 6.0 compatible; +https://github.com/abwaters/btce-api)" ;
-	private static final String TICKER_TRADES_URL = "https://btc-e.com/api/2/" ;
-	private static final String API_URL = "https://btc-e.com/tapi" ;
+	private static final String DEFAULT_BASE_URL = "https://btc-e.com" ;
+	private static final Charset UTF_8 = Charset.forName("UTF-8") ;
+	private static final int DEFAULT_ASYNC_THREADS = 4 ;
+	private static final int BODY_POOL_SIZE = 8 ;
+	private static final long DEFAULT_AUTH_REQUEST_LIMIT = 1000 ;	// request limit in milliseconds
+	private static final long DEFAULT_REQUEST_LIMIT = 15000 ;	// request limit in milliseconds for non-auth calls...defaults to 15 seconds
 	
-	private static long auth_last_request = 0 ;
-	private static long auth_request_limit = 1000 ;	// request limit in milliseconds
-	private static long last_request = 0 ;
-	private static long request_limit = 15000 ;	// request limit in milliseconds for non-auth calls...defaults to 15 seconds
-	private static long nonce = 0, last_nonce = 0 ;
+	// the exchange enforces the auth limit and the nonces per key so every instance using a key shares its limiter and 
+	// nonce source, a key is dropped once no instance uses it
+	private static final ConcurrentMap<String,KeyRef> key_states = new ConcurrentHashMap<String,KeyRef>() ;
+	private static final ReferenceQueue<KeyState> key_queue = new ReferenceQueue<KeyState>() ;
+	// e.g. "invalid nonce parameter; on key:1391446522, you sent:1391446520"
+	private static final Pattern INVALID_NONCE = Pattern.compile("invalid nonce.*on key:\\s*(\\d+)") ;
 	
 	private boolean initialized = false;
 	private String secret, key ;
-	private Mac mac ;
+	private Signer signer ;
 	private Gson gson ;
+	private ScheduledExecutorService executor ;
+	private RateLimiter request_limiter = new RateLimiter(DEFAULT_REQUEST_LIMIT,1) ;
+	private RateLimiter auth_limiter = new RateLimiter(DEFAULT_AUTH_REQUEST_LIMIT,1) ;	// used until the keys are set
+	private boolean auth_limit_set, auth_limiter_set ;
+	private volatile KeyState key_state ;
+	private NonceSource nonce_source ;	// set before the keys
+	private volatile CallListener call_listener ;
+	private volatile FundsListener funds_listener ;
+	private volatile String base_url = DEFAULT_BASE_URL ;
+	private volatile String ticker_trades_url = DEFAULT_BASE_URL+"/api/2/" ;
+	private volatile String public_api_url = DEFAULT_BASE_URL+"/api/3/" ;
+	private volatile String api_url = DEFAULT_BASE_URL+"/tapi" ;
+	private ConnectionManager connections = new ConnectionManager() ;
+	private final AtomicReferenceArray<RequestBody> body_pool = new AtomicReferenceArray<RequestBody>(BODY_POOL_SIZE) ;
+	private final ConcurrentMap<String,OrderBook> order_books = new ConcurrentHashMap<String,OrderBook>() ;
 
 	/**
 	 * Constructor
 	 */
 	public BTCE() {
 		GsonBuilder gson_builder = new GsonBuilder();
-		gson_builder.registerTypeAdapter(TransactionHistoryReturn.class, new TransactionHistoryReturnDeserializer());
-		gson_builder.registerTypeAdapter(TradeHistoryReturn.class, new TradeHistoryReturnDeserializer());
-		gson_builder.registerTypeAdapter(OrderListReturn.class, new OrderListReturnDeserializer());
+		gson_builder.registerTypeAdapter(TransactionHistoryReturn.class, new TransactionHistoryReturnAdapter());
+		gson_builder.registerTypeAdapter(TradeHistoryReturn.class, new TradeHistoryReturnAdapter());
+		gson_builder.registerTypeAdapter(OrderListReturn.class, new OrderListReturnAdapter());
+		gson_builder.registerTypeAdapter(Depth.class, new DepthAdapter());
+		gson_builder.registerTypeAdapter(TransactionColumns.class, new TransactionColumnsAdapter());
+		gson_builder.registerTypeAdapter(TradeColumns.class, new TradeColumnsAdapter());
+		gson_builder.registerTypeAdapter(OrderColumns.class, new OrderColumnsAdapter());
+		gson_builder.registerTypeAdapter(Funds.class, new FundsAdapter());
+		gson_builder.registerTypeAdapter(TickerMap.class, new PairMapAdapter<Ticker>(Ticker.class) {
+			Map<String,Ticker> newMap() { return new TickerMap() ; }
+		});
+		gson_builder.registerTypeAdapter(TradesMap.class, new PairMapAdapter<TradesDetail[]>(TradesDetail[].class) {
+			Map<String,TradesDetail[]> newMap() { return new TradesMap() ; }
+		});
+		gson_builder.registerTypeAdapter(DepthMap.class, new PairMapAdapter<Depth>(Depth.class) {
+			Map<String,Depth> newMap() { return new DepthMap() ; }
+		});
 		gson = gson_builder.create() ;
-		if( nonce == 0 ) nonce = System.currentTimeMillis()/1000 ; 
 	}
 
 	/**
@@ -98,7 +164,17 @@ public class BTCE {
 	 * @return the account info.
 	 */
 	public Info getInfo() throws BTCEException {
-		return gson.fromJson(authrequest("getInfo",null),Info.class) ;
+		return authrequest(body("getInfo"),Info.class) ;
+	}
+
+	/**
+	 * Asynchronous version of {@link #getInfo()}.
+	 * 
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the account info.
+	 */
+	public Future<Info> getInfoAsync(Callback<Info> callback) {
+		return authrequestAsync(body("getInfo"),Info.class,callback) ;
 	}
 	
 	/**
@@ -124,16 +200,55 @@ public class BTCE {
 	 * @param end ending time frame to include results in unix time stamp format. 
 	 * @return the transaction history.
 	 */
+	public TransactionHistory getTransactionHistory(int from,int count,long from_id,long end_id,String order,long since,long end) throws BTCEException {
+		RequestBody body = historyArgs(body("TransHistory"),from,count,from_id,end_id,order,since,end) ;
+		return authrequest(body,TransactionHistory.class) ;
+	}
+
+	/**
+	 * Same as {@link #getTransactionHistory(int, int, long, long, String, long, long)} with int ids, 
+	 * kept so code compiled against the int version still links.
+	 */
 	public TransactionHistory getTransactionHistory(int from,int count,int from_id,int end_id,String order,long since,long end) throws BTCEException {
-		Map<String,String> args = new HashMap<String,String>() ;		
-		if( from > 0 ) args.put("from", Integer.toString(from)) ;
-		if( count > 0 ) args.put("count", Integer.toString(count)) ;
-		if( from_id > 0 ) args.put("from_id", Integer.toString(from_id)) ;
-		if( end_id > 0 ) args.put("end_id", Integer.toString(end_id)) ;
-		if( order != null && order.length() > 0 ) args.put("order", order) ;
-		if( since > 0 ) args.put("since", Long.toString(since)) ;
-		if( end > 0 ) args.put("end", Long.toString(end)) ;
-		return gson.fromJson(authrequest("TransHistory",args),TransactionHistory.class) ;
+		return getTransactionHistory(from,count,(long)from_id,(long)end_id,order,since,end) ;
+	}
+
+	/**
+	 * Asynchronous version of {@link #getTransactionHistory(int, int, long, long, String, long, long)}.
+	 * 
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the transaction history.
+	 */
+	public Future<TransactionHistory> getTransactionHistoryAsync(int from,int count,long from_id,long end_id,String order,long since,long end,Callback<TransactionHistory> callback) {
+		RequestBody body = historyArgs(body("TransHistory"),from,count,from_id,end_id,order,since,end) ;
+		return authrequestAsync(body,TransactionHistory.class,callback) ;
+	}
+
+	/**
+	 * Same as {@link #getTransactionHistoryAsync(int, int, long, long, String, long, long, Callback)} with int ids, 
+	 * kept so code compiled against the int version still links.
+	 */
+	public Future<TransactionHistory> getTransactionHistoryAsync(int from,int count,int from_id,int end_id,String order,long since,long end,Callback<TransactionHistory> callback) {
+		return getTransactionHistoryAsync(from,count,(long)from_id,(long)end_id,order,since,end,callback) ;
+	}
+
+	/**
+	 * Columnar version of {@link #getTransactionHistory(int, int, long, long, String, long, long)}.  The transactions are 
+	 * decoded straight into parallel arrays, which is faster and far smaller for long histories.
+	 * 
+	 * @return the transaction history as columns.
+	 */
+	public TransactionColumns getTransactionHistoryColumns(int from,int count,long from_id,long end_id,String order,long since,long end) throws BTCEException {
+		RequestBody body = historyArgs(body("TransHistory"),from,count,from_id,end_id,order,since,end) ;
+		return authrequest(body,TransactionColumns.class) ;
+	}
+
+	/**
+	 * Same as {@link #getTransactionHistoryColumns(int, int, long, long, String, long, long)} with int ids, 
+	 * kept so code compiled against the int version still links.
+	 */
+	public TransactionColumns getTransactionHistoryColumns(int from,int count,int from_id,int end_id,String order,long since,long end) throws BTCEException {
+		return getTransactionHistoryColumns(from,count,(long)from_id,(long)end_id,order,since,end) ;
 	}
 
 	/**
@@ -159,17 +274,69 @@ public class BTCE {
 	 * @param pair the pair to include in the trade history. 
 	 * @return the trade history.
 	 */
+	public TradeHistory getTradeHistory(int from,int count,long from_id,long end_id,String order,long since,long end,String pair) throws BTCEException {
+		RequestBody body = historyArgs(body("TradeHistory"),from,count,from_id,end_id,order,since,end) ;
+		body.addOptional("pair", pair) ;
+		return authrequest(body,TradeHistory.class) ;
+	}
+
+	/**
+	 * Same as {@link #getTradeHistory(int, int, long, long, String, long, long, String)} with int ids, 
+	 * kept so code compiled against the int version still links.
+	 */
 	public TradeHistory getTradeHistory(int from,int count,int from_id,int end_id,String order,long since,long end,String pair) throws BTCEException {
-		Map<String,String> args = new HashMap<String,String>() ;		
-		if( from > 0 ) args.put("from", Integer.toString(from)) ;
-		if( count > 0 ) args.put("count", Integer.toString(count)) ;
-		if( from_id > 0 ) args.put("from_id", Integer.toString(from_id)) ;
-		if( end_id > 0 ) args.put("end_id", Integer.toString(end_id)) ;
-		if( order != null && order.length() > 0 ) args.put("order", order) ;
-		if( since > 0 ) args.put("since", Long.toString(since)) ;
-		if( end > 0 ) args.put("end", Long.toString(end)) ;
-		if( pair != null && pair.length() > 0 ) args.put("pair", pair) ;
-		return gson.fromJson(authrequest("TradeHistory",args),TradeHistory.class) ;
+		return getTradeHistory(from,count,(long)from_id,(long)end_id,order,since,end,pair) ;
+	}
+
+	/**
+	 * Asynchronous version of {@link #getTradeHistory(int, int, long, long, String, long, long, String)}.
+	 * 
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the trade history.
+	 */
+	public Future<TradeHistory> getTradeHistoryAsync(int from,int count,long from_id,long end_id,String order,long since,long end,String pair,Callback<TradeHistory> callback) {
+		RequestBody body = historyArgs(body("TradeHistory"),from,count,from_id,end_id,order,since,end) ;
+		body.addOptional("pair", pair) ;
+		return authrequestAsync(body,TradeHistory.class,callback) ;
+	}
+
+	/**
+	 * Same as {@link #getTradeHistoryAsync(int, int, long, long, String, long, long, String, Callback)} with int ids, 
+	 * kept so code compiled against the int version still links.
+	 */
+	public Future<TradeHistory> getTradeHistoryAsync(int from,int count,int from_id,int end_id,String order,long since,long end,String pair,Callback<TradeHistory> callback) {
+		return getTradeHistoryAsync(from,count,(long)from_id,(long)end_id,order,since,end,pair,callback) ;
+	}
+
+	/**
+	 * Columnar version of {@link #getTradeHistory(int, int, long, long, String, long, long, String)}.  The trades are 
+	 * decoded straight into parallel arrays, which is faster and far smaller for long histories.
+	 * 
+	 * @return the trade history as columns.
+	 */
+	public TradeColumns getTradeHistoryColumns(int from,int count,long from_id,long end_id,String order,long since,long end,String pair) throws BTCEException {
+		RequestBody body = historyArgs(body("TradeHistory"),from,count,from_id,end_id,order,since,end) ;
+		body.addOptional("pair", pair) ;
+		return authrequest(body,TradeColumns.class) ;
+	}
+
+	/**
+	 * Same as {@link #getTradeHistoryColumns(int, int, long, long, String, long, long, String)} with int ids, 
+	 * kept so code compiled against the int version still links.
+	 */
+	public TradeColumns getTradeHistoryColumns(int from,int count,int from_id,int end_id,String order,long since,long end,String pair) throws BTCEException {
+		return getTradeHistoryColumns(from,count,(long)from_id,(long)end_id,order,since,end,pair) ;
+	}
+	
+	private static RequestBody historyArgs(RequestBody body,int from,int count,long from_id,long end_id,String order,long since,long end) {
+		body.addOptional("from", from) ;
+		body.addOptional("count", count) ;
+		body.addOptional("from_id", from_id) ;
+		body.addOptional("end_id", end_id) ;
+		body.addOptional("order", order) ;
+		body.addOptional("since", since) ;
+		body.addOptional("end", end) ;
+		return body ;
 	}
 	
 	/**
@@ -200,18 +367,20 @@ public class BTCE {
 	 * @param active include only active orders in the order list. 
 	 */
 	@Deprecated
+	public OrderList getOrderList(int from,int count,long from_id,long end_id,String order,long since,long end,String pair,int active) throws BTCEException {
+		RequestBody body = historyArgs(body("OrderList"),from,count,from_id,end_id,order,since,end) ;
+		body.addOptional("pair", pair) ;
+		body.addOptional("active", active) ;
+		return authrequest(body,OrderList.class) ;
+	}
+
+	/**
+	 * Same as {@link #getOrderList(int, int, long, long, String, long, long, String, int)} with int ids, 
+	 * kept so code compiled against the int version still links.
+	 */
+	@Deprecated
 	public OrderList getOrderList(int from,int count,int from_id,int end_id,String order,long since,long end,String pair,int active) throws BTCEException {
-		Map<String,String> args = new HashMap<String,String>() ;		
-		if( from > 0 ) args.put("from", Integer.toString(from)) ;
-		if( count > 0 ) args.put("count", Integer.toString(count)) ;
-		if( from_id > 0 ) args.put("from_id", Integer.toString(from_id)) ;
-		if( end_id > 0 ) args.put("end_id", Integer.toString(end_id)) ;
-		if( order != null && order.length() > 0 ) args.put("order", order) ;
-		if( since > 0 ) args.put("since", Long.toString(since)) ;
-		if( end > 0 ) args.put("end", Long.toString(end)) ;
-		if( pair != null && pair.length() > 0 ) args.put("pair", pair) ;
-		if( active > 0 ) args.put("active", Long.toString(active)) ;
-		return gson.fromJson(authrequest("OrderList",args),OrderList.class) ;
+		return getOrderList(from,count,(long)from_id,(long)end_id,order,since,end,pair,active) ;
 	}
 	
 	/**
@@ -226,9 +395,28 @@ public class BTCE {
 	}
 	
 	public OrderList getActiveOrders(String pair) throws BTCEException {
-		Map<String,String> args = new HashMap<String,String>() ;		
-		if( pair != null && pair.length() > 0 ) args.put("pair", pair) ;
-		return gson.fromJson(authrequest("ActiveOrders",args),OrderList.class) ;
+		return authrequest(body("ActiveOrders").addOptional("pair", pair),OrderList.class) ;
+	}
+
+	/**
+	 * Asynchronous version of {@link #getActiveOrders(String)}.
+	 * 
+	 * @param pair the pair to return orders for, null or empty for all pairs.
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the order list.
+	 */
+	public Future<OrderList> getActiveOrdersAsync(String pair,Callback<OrderList> callback) {
+		return authrequestAsync(body("ActiveOrders").addOptional("pair", pair),OrderList.class,callback) ;
+	}
+
+	/**
+	 * Columnar version of {@link #getActiveOrders(String)}.
+	 * 
+	 * @param pair the pair to return orders for, null or empty for all pairs.
+	 * @return the active orders as columns.
+	 */
+	public OrderColumns getActiveOrderColumns(String pair) throws BTCEException {
+		return authrequest(body("ActiveOrders").addOptional("pair", pair),OrderColumns.class) ;
 	}
 	
 	/**
@@ -241,12 +429,57 @@ public class BTCE {
 	 * @return the trade results.
 	 */
 	public Trade trade(String pair,String type,double rate,double amount) throws BTCEException {
-		Map<String,String> args = new HashMap<String,String>() ;		
-		args.put("pair", pair) ;
-		args.put("type", type) ;
-		args.put("rate", Double.toString(rate)) ;
-		args.put("amount", Double.toString(amount)) ;
-		return gson.fromJson(authrequest("Trade",args),Trade.class) ;
+		RequestBody body = body("Trade") ;
+		body.add("pair", pair) ;
+		body.add("type", type) ;
+		body.add("rate", rate) ;
+		body.add("amount", amount) ;
+		return authrequest(body,Trade.class) ;
+	}
+
+	/**
+	 * Asynchronous version of {@link #trade(String, String, double, double)}.
+	 * 
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the trade results.
+	 */
+	public Future<Trade> tradeAsync(String pair,String type,double rate,double amount,Callback<Trade> callback) {
+		RequestBody body = body("Trade") ;
+		body.add("pair", pair) ;
+		body.add("type", type) ;
+		body.add("rate", rate) ;
+		body.add("amount", amount) ;
+		return authrequestAsync(body,Trade.class,callback) ;
+	}
+	
+	/**
+	 * Fixed point version of {@link #trade(String, String, double, double)}.  It has its own name rather than being an
+	 * overload so that existing calls with whole number arguments don't silently change meaning.
+	 * 
+	 * @param rate the rate in the price format of the pair, see {@link FixedPoint#forPrice(String)}.
+	 * @param amount the amount in the {@link FixedPoint#AMOUNT} format.
+	 */
+	public Trade tradeFixed(String pair,String type,long rate,long amount) throws BTCEException {
+		return authrequest(fixedTrade(pair,type,rate,amount),Trade.class) ;
+	}
+	
+	/**
+	 * Asynchronous version of {@link #tradeFixed(String, String, long, long)}.
+	 * 
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the trade results.
+	 */
+	public Future<Trade> tradeFixedAsync(String pair,String type,long rate,long amount,Callback<Trade> callback) {
+		return authrequestAsync(fixedTrade(pair,type,rate,amount),Trade.class,callback) ;
+	}
+	
+	private RequestBody fixedTrade(String pair,String type,long rate,long amount) {
+		RequestBody body = body("Trade") ;
+		body.add("pair", pair) ;
+		body.add("type", type) ;
+		body.add("rate", rate, FixedPoint.forPrice(pair)) ;
+		body.add("amount", amount, FixedPoint.AMOUNT) ;
+		return body ;
 	}
 	
 	/**
@@ -254,10 +487,32 @@ public class BTCE {
 	 * 
 	 * @param order_id the id of the order to cancel.
 	 */
+	public CancelOrder cancelOrder(long order_id) throws BTCEException {
+		return authrequest(body("CancelOrder").add("order_id", order_id),CancelOrder.class) ;
+	}
+
+	/**
+	 * Same as {@link #cancelOrder(long)} with an int id, kept so code compiled against the int version still links.
+	 */
 	public CancelOrder cancelOrder(int order_id) throws BTCEException {
-		Map<String,String> args = new HashMap<String,String>() ;		
-		args.put("order_id", Integer.toString(order_id)) ;
-		return gson.fromJson(authrequest("CancelOrder",args),CancelOrder.class) ;
+		return cancelOrder((long)order_id) ;
+	}
+
+	/**
+	 * Asynchronous version of {@link #cancelOrder(long)}.
+	 * 
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the cancel results.
+	 */
+	public Future<CancelOrder> cancelOrderAsync(long order_id,Callback<CancelOrder> callback) {
+		return authrequestAsync(body("CancelOrder").add("order_id", order_id),CancelOrder.class,callback) ;
+	}
+
+	/**
+	 * Same as {@link #cancelOrderAsync(long, Callback)} with an int id, kept so code compiled against the int version still links.
+	 */
+	public Future<CancelOrder> cancelOrderAsync(int order_id,Callback<CancelOrder> callback) {
+		return cancelOrderAsync((long)order_id,callback) ;
 	}
 	
 	/**
@@ -271,7 +526,31 @@ public class BTCE {
 	 * @param request_limit call limit in milliseconds
 	 */
 	public void setRequestLimit(long request_limit) {
-		BTCE.request_limit = request_limit ; 
+		setRequestLimit(request_limit,request_limiter.getBurst()) ;
+	}
+	
+	/**
+	 * Same as {@link #setRequestLimit(long)} but allows up to <code>burst</code> calls to be made back to back 
+	 * after the API has been idle.
+	 * 
+	 * @param request_limit call limit in milliseconds
+	 * @param burst the number of calls that can be made without waiting.
+	 */
+	public void setRequestLimit(long request_limit,int burst) {
+		request_limiter.setRate(request_limit,burst) ; 
+	}
+	
+	/**
+	 * Replaces the limiter used for calls to the open API.  Use this to share one budget between several BTCE objects.
+	 * 
+	 * @param request_limiter the limiter for non-auth calls.
+	 */
+	public void setRequestLimiter(RateLimiter request_limiter) {
+		this.request_limiter = request_limiter ;
+	}
+	
+	public RateLimiter getRequestLimiter() {
+		return request_limiter ;
 	}
 	
 	/**
@@ -284,39 +563,195 @@ public class BTCE {
 	 * @param auth_request_limit call limit in milliseconds
 	 */
 	public void setAuthRequestLimit(long auth_request_limit) {
-		BTCE.auth_request_limit = auth_request_limit ; 
+		setAuthRequestLimit(auth_request_limit,getAuthRequestLimiter().getBurst()) ;
+	}
+	
+	/**
+	 * Same as {@link #setAuthRequestLimit(long)} but allows up to <code>burst</code> calls to be made back to back 
+	 * after the API has been idle.
+	 * <p>
+	 * The limit applies to the API key so all BTCE objects using the same key are affected.  A limit set before 
+	 * {@link #setAuthKeys(String, String)} is applied to the key when the keys are set.
+	 * 
+	 * @param auth_request_limit call limit in milliseconds
+	 * @param burst the number of calls that can be made without waiting.
+	 */
+	public synchronized void setAuthRequestLimit(long auth_request_limit,int burst) {
+		if( key_state == null ) {
+			auth_limiter.setRate(auth_request_limit,burst) ;
+			auth_limit_set = true ;
+		} else key_state.limiter.setRate(auth_request_limit,burst) ; 
+	}
+	
+	/**
+	 * Replaces the limiter used for authenticated calls.  By default every API key has its own limiter which is shared 
+	 * by all BTCE objects using that key.
+	 * <p>
+	 * The limiter replaces the one of the current key, so the other BTCE objects using the key switch to it as well.  
+	 * A limiter set before {@link #setAuthKeys(String, String)} replaces the one of the key when the keys are set.
+	 * 
+	 * @param auth_limiter the limiter for authenticated calls.
+	 */
+	public synchronized void setAuthRequestLimiter(RateLimiter auth_limiter) {
+		if( key_state == null ) {
+			this.auth_limiter = auth_limiter ;
+			auth_limiter_set = true ;
+		} else key_state.limiter = auth_limiter ;
+	}
+	
+	public RateLimiter getAuthRequestLimiter() {
+		KeyState state = key_state ;
+		return state == null ? auth_limiter : state.limiter ;
+	}
+	
+	/**
+	 * Sets the source of the nonces sent with authenticated calls.  By default every API key has an {@link AtomicNonceSource} 
+	 * which is shared by all BTCE objects using that key.  Use a {@link MappedNonceSource} to carry the nonce over restarts.
+	 * <p>
+	 * The source replaces the one of the current key, so the other BTCE objects using the key switch to it as well, and a 
+	 * source set before {@link #setAuthKeys(String, String)} replaces the one of the key when the keys are set.  Either way 
+	 * the key keeps a single source: the new one is first moved past the nonces of the one it replaces.  A call in flight 
+	 * while the source is replaced may have its nonce rejected, and is then retried as usual.
+	 * 
+	 * @param nonce_source the nonce source for authenticated calls.
+	 */
+	public synchronized void setNonceSource(NonceSource nonce_source) {
+		if( key_state == null ) this.nonce_source = nonce_source ;
+		else key_state.setNonces(nonce_source) ;
+	}
+	
+	public NonceSource getNonceSource() {
+		KeyState state = key_state ;
+		return state == null ? nonce_source : state.nonces ;
+	}
+	
+	/**
+	 * Sets the listener told about every HTTP request the client makes, with the time spent in each phase of the request.
+	 * When no listener is set nothing is measured.
+	 * 
+	 * @param call_listener the listener, null to turn measuring off.
+	 */
+	public void setCallListener(CallListener call_listener) {
+		this.call_listener = call_listener ;
+	}
+	
+	public CallListener getCallListener() {
+		return call_listener ;
+	}
+	
+	/**
+	 * Sets the listener given the funds carried by the results of getInfo, trade and cancelOrder, so balances can be 
+	 * kept without spending calls on getInfo.  See {@link BalanceCache}.
+	 * 
+	 * @param funds_listener the listener, null for none.
+	 */
+	public void setFundsListener(FundsListener funds_listener) {
+		this.funds_listener = funds_listener ;
+	}
+	
+	public FundsListener getFundsListener() {
+		return funds_listener ;
+	}
+	
+	/**
+	 * Points the client at another server, a local stand-in for the exchange for example.  The public API is expected 
+	 * under <code>/api/2/</code> and <code>/api/3/</code> and the trade API at <code>/tapi</code>.
+	 * 
+	 * @param base_url the scheme, host and port, for example "http://localhost:8080".  The default is "https://btc-e.com".
+	 */
+	public void setBaseUrl(String base_url) {
+		while( base_url.endsWith("/") ) base_url = base_url.substring(0,base_url.length()-1) ;
+		this.ticker_trades_url = base_url+"/api/2/" ;
+		this.public_api_url = base_url+"/api/3/" ;
+		this.api_url = base_url+"/tapi" ;
+		this.base_url = base_url ;
+	}
+	
+	public String getBaseUrl() {
+		return base_url ;
+	}
+	
+	/**
+	 * Replaces the connection manager used for all calls.  Use this to share connection settings and statistics between
+	 * several BTCE objects.
+	 * 
+	 * @param connections the connection manager.
+	 */
+	public void setConnectionManager(ConnectionManager connections) {
+		this.connections = connections ;
+	}
+	
+	/**
+	 * Returns the connection manager used for all calls, which holds the connection settings and statistics.
+	 */
+	public ConnectionManager getConnectionManager() {
+		return connections ;
+	}
+	
+	/**
+	 * Sets the executor used to run the asynchronous calls.  Rate limit waits are scheduled on this executor so a thread is only 
+	 * occupied while a call is actually on the wire.  If this is never set, a small pool of daemon threads is created on first use.
+	 * 
+	 * @param executor the executor for asynchronous calls.
+	 */
+	public synchronized void setExecutor(ScheduledExecutorService executor) {
+		this.executor = executor ;
 	}
 	
 	/**
 	 * Sets the account API keys to use for calling methods that require access to a BTC-E account.
+	 * <p>
+	 * The authenticated rate limit and the nonces belong to the key: objects using the same key share them and objects 
+	 * using different keys never hold each other up.  See {@link MultiAccount} for working with several accounts at once.
+	 * <p>
+	 * A limiter or nonce source set on this object before the keys replaces the one of the key, and a limit set before them 
+	 * is applied to it.
+	 * Otherwise this object picks up what the key already has.  A key that no BTCE object uses any more is forgotten, and 
+	 * starts over with a new limiter and {@link AtomicNonceSource} when it is next set.
 	 * 
 	 * @param key the key obtained from Profile->API Keys in your BTC-E account.
 	 * @param secret the secret obtained from Profile->API Keys in your BTC-E account.
 	 */
-	public void setAuthKeys(String key,String secret) throws BTCEException {
+	public synchronized void setAuthKeys(String key,String secret) throws BTCEException {
+		if( this.key != null && !this.key.equals(key) ) {
+			// the limiter and nonce source of the old key stay with it, the new key gets its own
+			RateLimiter old = key_state.limiter ;
+			auth_limiter = new RateLimiter(old.getInterval(),old.getBurst()) ;
+			auth_limit_set = auth_limiter_set = false ;
+			key_state = null ;
+		}
 		this.key = key ;
 		this.secret = secret ;
-		SecretKeySpec keyspec = null ;
-		try {
-			keyspec = new SecretKeySpec(secret.getBytes("UTF-8"), "HmacSHA512") ;
-		} catch (UnsupportedEncodingException uee) {
-			throw new BTCEException("HMAC-SHA512 doesn't seem to be installed",uee) ;
-		}
-
 		try {
-			mac = Mac.getInstance("HmacSHA512") ;
+			signer = new Signer(secret.getBytes(UTF_8)) ;
 		} catch (NoSuchAlgorithmException nsae) {
 			throw new BTCEException("HMAC-SHA512 doesn't seem to be installed",nsae) ;
-		}
-
-		try {
-			mac.init(keyspec) ;
 		} catch (InvalidKeyException ike) {
 			throw new BTCEException("Invalid key for signing request",ike) ;
 		}
+		if( key_state == null ) {
+			KeyState state = new KeyState(auth_limiter,nonce_source != null ? nonce_source : new AtomicNonceSource()) ;
+			KeyState shared = register(key,state) ;
+			if( shared != state ) {
+				// the key is in use, what was set on this object before the keys applies to the key
+				if( auth_limiter_set ) shared.limiter = auth_limiter ;
+				else if( auth_limit_set ) shared.limiter.setRate(auth_limiter.getInterval(),auth_limiter.getBurst()) ;
+				if( nonce_source != null ) shared.setNonces(nonce_source) ;
+			}
+			key_state = shared ;
+			auth_limit_set = auth_limiter_set = false ;
+			nonce_source = null ;
+		}
 		initialized = true ;
 	}
 	
+	/**
+	 * Returns the API key set with {@link #setAuthKeys(String, String)}, null if none has been set.
+	 */
+	public synchronized String getKey() {
+		return key ;
+	}
+	
 	/**
 	 * Get the current ticker for the specified currency pair.
 	 * <p>
@@ -328,9 +763,26 @@ public class BTCE {
 	 * @throws BTCEException
 	 */
 	public Ticker getTicker(String pair) throws BTCEException {
-		TickerWrapper tw = gson.fromJson(request(TICKER_TRADES_URL+pair+"/ticker"),TickerWrapper.class) ; 
+		TickerWrapper tw = request(ticker_trades_url+pair+"/ticker",TickerWrapper.class) ; 
 		return tw.ticker ;
 	}
+
+	/**
+	 * Asynchronous version of {@link #getTicker(String)}.
+	 * 
+	 * @param pair
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the Ticker of the specified pair.
+	 */
+	public Future<Ticker> getTickerAsync(final String pair,Callback<Ticker> callback) {
+		final long wait = request_limiter.reserve() ;
+		return schedule(wait,new Callable<Ticker>() {
+			public Ticker call() throws BTCEException {
+				TickerWrapper tw = fetch(ticker_trades_url+pair+"/ticker",TickerWrapper.class,wait) ; 
+				return tw.ticker ;
+			}
+		},callback) ;
+	}
 	
 	/**
 	 * Get the current rade book for the specified currency pair.
@@ -343,385 +795,2110 @@ public class BTCE {
 	 * @throws BTCEException
 	 */
 	public TradesDetail[] getTrades(String pair) throws BTCEException {
-		return gson.fromJson(request(TICKER_TRADES_URL+pair+"/trades"),TradesDetail[].class) ;
+		return request(ticker_trades_url+pair+"/trades",TradesDetail[].class) ;
 	}
 
-	private final void preCall() {
-		while(nonce==last_nonce) nonce++ ;
-		long elapsed = System.currentTimeMillis()-last_request ;
-		if( elapsed < request_limit ) {
-			try {
-				Thread.currentThread().sleep(request_limit-elapsed) ;
-			} catch (InterruptedException e) {
-				
+	/**
+	 * Asynchronous version of {@link #getTrades(String)}.
+	 * 
+	 * @param pair
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the TradeDetail objects of the specified pair.
+	 */
+	public Future<TradesDetail[]> getTradesAsync(final String pair,Callback<TradesDetail[]> callback) {
+		final long wait = request_limiter.reserve() ;
+		return schedule(wait,new Callable<TradesDetail[]>() {
+			public TradesDetail[] call() throws BTCEException {
+				return fetch(ticker_trades_url+pair+"/trades",TradesDetail[].class,wait) ;
 			}
-		}
-		last_request = System.currentTimeMillis() ;
+		},callback) ;
 	}
-	
-	private final String request(String urlstr) throws BTCEException {
-		
-		// handle precall logic
-		preCall() ;
 
-		// create connection
-		URLConnection conn = null ;
-		StringBuffer response = new StringBuffer() ;
-		try {
-			URL url = new URL(urlstr);
-			conn = url.openConnection() ;
-			conn.setUseCaches(false) ;
-			conn.setRequestProperty("User-Agent",USER_AGENT) ;
-		
-			// read response
-			BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-			String line = null ;
-			while ((line = in.readLine()) != null)
-				response.append(line) ;
-			in.close() ;
-		} catch (MalformedURLException e) {
-			throw new BTCEException("Internal error.",e) ;
-		} catch (IOException e) {
-			throw new BTCEException("Error connecting to BTC-E.",e) ;
-		}
-		return response.toString() ;
+	/**
+	 * Get the current market depth (the open asks and bids) for the specified currency pair.
+	 * <p>
+	 * Since this call doesn't use authorization, the request
+	 * limit is typically set higher (10-15 seconds) to avoid abuse. 
+	 * 
+	 * @param pair
+	 * @return the asks sorted by ascending price and the bids sorted by descending price.
+	 * @throws BTCEException
+	 */
+	public Depth getDepth(String pair) throws BTCEException {
+		return request(ticker_trades_url+pair+"/depth",Depth.class) ;
 	}
-	
-	private final void preAuth() {
-		while(nonce==last_nonce) nonce++ ;
-		long elapsed = System.currentTimeMillis()-auth_last_request ;
-		if( elapsed < auth_request_limit ) {
-			try {
-				Thread.currentThread().sleep(auth_request_limit-elapsed) ;
-			} catch (InterruptedException e) {
-				
+
+	/**
+	 * Asynchronous version of {@link #getDepth(String)}.
+	 * 
+	 * @param pair
+	 * @param callback notified when the call completes, can be null.
+	 * @return a future for the depth of the specified pair.
+	 */
+	public Future<Depth> getDepthAsync(final String pair,Callback<Depth> callback) {
+		final long wait = request_limiter.reserve() ;
+		return schedule(wait,new Callable<Depth>() {
+			public Depth call() throws BTCEException {
+				return fetch(ticker_trades_url+pair+"/depth",Depth.class,wait) ;
 			}
-		}
-		auth_last_request = System.currentTimeMillis() ;
+		},callback) ;
 	}
 	
-	private final String authrequest(String method, Map<String,String> args) throws BTCEException {
-		if( !initialized ) throw new BTCEException("BTCE not initialized.") ;
-		
-		// prep the call
-		preAuth() ;
-
-		// add method and nonce to args
-		if (args == null) args = new HashMap<String,String>() ;
-		args.put("method", method) ;
-		args.put("nonce",Long.toString(nonce)) ;
-		last_nonce = nonce ;
-		
-		// create url form encoded post data
-		String postData = "" ;
-		for (Iterator<String> iter = args.keySet().iterator(); iter.hasNext();) {
-			String arg = iter.next() ;
-			if (postData.length() > 0) postData += "&" ;
-			postData += arg + "=" + URLEncoder.encode(args.get(arg)) ;
-		}
-		
-		// create connection
-		URLConnection conn = null ;
-		StringBuffer response = new StringBuffer() ;
-		try {
-			URL url = new URL(API_URL);
-			conn = url.openConnection() ;
-			conn.setUseCaches(false) ;
-			conn.setDoOutput(true) ;
-			conn.setRequestProperty("Key",key) ;
-			conn.setRequestProperty("Sign",toHex(mac.doFinal(postData.getBytes("UTF-8")))) ;
-			conn.setRequestProperty("Content-Type","application/x-www-form-urlencoded") ;
-			conn.setRequestProperty("User-Agent",USER_AGENT) ;
-		
-			// write post data
-			OutputStreamWriter out = new OutputStreamWriter(conn.getOutputStream());
-			out.write(postData) ;
-			out.close() ;
-	
-			// read response
-			BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-			String line = null ;
-			while ((line = in.readLine()) != null)
-				response.append(line) ;
-			in.close() ;
-		} catch (MalformedURLException e) {
-			throw new BTCEException("Internal error.",e) ;
-		} catch (IOException e) {
-			throw new BTCEException("Error connecting to BTC-E.",e) ;
-		}
-		return response.toString() ;
+	/**
+	 * Gets the current depth for the specified currency pair and applies it to the order book kept for the pair.
+	 * 
+	 * @param pair
+	 * @return the updated order book.
+	 * @throws BTCEException
+	 */
+	public OrderBook updateOrderBook(String pair) throws BTCEException {
+		OrderBook book = getOrderBook(pair) ;
+		book.update(getDepth(pair)) ;
+		return book ;
 	}
 	
-	private String toHex(byte[] b) throws UnsupportedEncodingException {
-	    return String.format("%040x", new BigInteger(1,b));
+	/**
+	 * Get the current tickers for several currency pairs with a single call.
+	 * <p>
+	 * This uses version 3 of the public API which takes the pairs joined by hyphens, so it costs the same 
+	 * request limit as {@link #getTicker(String)} for a single pair.
+	 * 
+	 * @param pairs the pairs to get.
+	 * @return the tickers keyed by pair, in the order the exchange returned them.
+	 * @throws BTCEException
+	 */
+	public Map<String,Ticker> getTickers(String... pairs) throws BTCEException {
+		return request(public_api_url+"ticker/"+join(pairs),TickerMap.class) ;
+	}
+
+	/**
+	 * Asynchronous version of {@link #getTickers(String...)}.
+	 * 
+	 * @param callback notified when the call completes, can be null.
+	 * @param pairs the pairs to get.
+	 * @return a future for the tickers keyed by pair.
+	 */
+	public Future<Map<String,Ticker>> getTickersAsync(Callback<Map<String,Ticker>> callback,String... pairs) {
+		return fetchAsync(public_api_url+"ticker/"+join(pairs),TickerMap.class,callback) ;
 	}
 	
 	/**
-	 * Displays the amounts of various currencies associated with an account or an order.
+	 * Get the recent trades for several currency pairs with a single call.  See {@link #getTickers(String...)}.
+	 * 
+	 * @param pairs the pairs to get.
+	 * @return the trades keyed by pair, newest first.
+	 * @throws BTCEException
 	 */
-	public class Funds {
-		public double usd ;
-		public double btc ;
-		public double ltc ;
-		public double nmc ;
-		public double rur ;
-		public double eur ;
-		public double nvc ;
-		public double trc ;
-		public double ppc ;
-		public double ftc ;
-		public double cnc ;
+	public Map<String,TradesDetail[]> getTradesMap(String... pairs) throws BTCEException {
+		return request(public_api_url+"trades/"+join(pairs),TradesMap.class) ;
+	}
 
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "[usd=" + usd + ", btc=" + btc + ", ltc=" + ltc + ", nmc="
-					+ nmc + ", rur=" + rur + ", eur=" + eur + ", nvc=" + nvc
-					+ ", trc=" + trc + ", ppc=" + ppc + ", ftc=" + ftc + ", cnc="
-					+ cnc + "]";
-		}
+	/**
+	 * Asynchronous version of {@link #getTradesMap(String...)}.
+	 * 
+	 * @param callback notified when the call completes, can be null.
+	 * @param pairs the pairs to get.
+	 * @return a future for the trades keyed by pair.
+	 */
+	public Future<Map<String,TradesDetail[]>> getTradesMapAsync(Callback<Map<String,TradesDetail[]>> callback,String... pairs) {
+		return fetchAsync(public_api_url+"trades/"+join(pairs),TradesMap.class,callback) ;
 	}
 	
 	/**
-	 * returned by the {@link #getInfo() getInfo} method. Note that due to a java name collision the JSON field return is named info.
+	 * Get the current depth for several currency pairs with a single call.  See {@link #getTickers(String...)}.
+	 * 
+	 * @param pairs the pairs to get.
+	 * @return the depth keyed by pair.
+	 * @throws BTCEException
 	 */
-	public static class Info extends Results {
-		@SerializedName("return")
-		public InfoReturn info ;
-
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "Info [success=" + success + ", error=" + error + ", return=" + info + "]";
-		}
-
-	}	
+	public Map<String,Depth> getDepths(String... pairs) throws BTCEException {
+		return request(public_api_url+"depth/"+join(pairs),DepthMap.class) ;
+	}
 
 	/**
-	 * base class for all data structures returned by the API.
+	 * Asynchronous version of {@link #getDepths(String...)}.
+	 * 
+	 * @param callback notified when the call completes, can be null.
+	 * @param pairs the pairs to get.
+	 * @return a future for the depth keyed by pair.
 	 */
-	public static class Results {
-		/**
-		 * can be either 0 or 1 depending on whether API was successful.
-		 */
-		public int success ;
-		
-		/**
-		 * if success is 0 then this will contain the details of the error.
-		 */
-		public String error = "" ;
-		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "[success=" + success + ", error=" + error + "]";
+	public Future<Map<String,Depth>> getDepthsAsync(Callback<Map<String,Depth>> callback,String... pairs) {
+		return fetchAsync(public_api_url+"depth/"+join(pairs),DepthMap.class,callback) ;
+	}
+	
+	private static String join(String[] pairs) {
+		if( pairs == null || pairs.length == 0 ) throw new IllegalArgumentException("No pairs specified.") ;
+		StringBuilder sb = new StringBuilder() ;
+		for(String pair:pairs) {
+			if( sb.length() > 0 ) sb.append('-') ;
+			sb.append(pair) ;
 		}
+		return sb.toString() ;
 	}
-
+	
+	private <T> Future<T> fetchAsync(final String urlstr,final Class<? extends T> type,Callback<T> callback) {
+		final long wait = request_limiter.reserve() ;
+		return schedule(wait,new Callable<T>() {
+			public T call() throws BTCEException {
+				return fetch(urlstr,type,wait) ;
+			}
+		},callback) ;
+	}
+	
 	/**
+	 * Returns the order book kept for the specified currency pair.  The book is empty until {@link #updateOrderBook(String)} 
+	 * is called for the pair and the same object is updated from then on.
 	 * 
+	 * @param pair
+	 * @return the order book for the pair.
 	 */
-	public class InfoReturn {
-		public Funds funds ;
-		public Rights rights ;
-		public int transaction_count ;
-		public int open_orders ;
-		public long server_time ;
-
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "[funds=" + funds + ", rights=" + rights
-					+ ", transaction_count=" + transaction_count + ", open_orders="
-					+ open_orders + ", server_time=" + server_time + "]";
+	public OrderBook getOrderBook(String pair) {
+		OrderBook book = order_books.get(pair) ;
+		if( book == null ) {
+			OrderBook existing = order_books.putIfAbsent(pair,book = new OrderBook(pair)) ;
+			if( existing != null ) book = existing ;
 		}
+		return book ;
 	}
 
 	/**
+	 * Waits for a permit from the limiter.
 	 * 
+	 * @return how long the wait was in nanoseconds if a call listener is set, otherwise 0.
 	 */
-	public class Rights {
-		public int info, trade, withdraw ;
-
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "[info=" + info + ", trade=" + trade + ", withdraw="
-					+ withdraw + "]";
+	private long acquire(RateLimiter limiter) throws BTCEException {
+		long start = call_listener != null ? System.nanoTime() : 0 ;
+		try {
+			limiter.acquire() ;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt() ;
+			throw new BTCEException("Interrupted while waiting for the request limit.",e) ;
 		}
+		return start != 0 ? System.nanoTime()-start : 0 ;
 	}
-
+	
+	private final <T> T request(String urlstr, Class<T> type) throws BTCEException {
+		long wait = acquire(request_limiter) ;
+		return fetch(urlstr,type,wait) ;
+	}
+	
+	private final <T> T fetch(String urlstr, Class<T> type, long wait) throws BTCEException {
+		CallListener listener = call_listener ;
+		CallEvent event = listener == null ? null : new CallEvent(publicEndpoint(urlstr),wait) ;
+		// create connection
+		HttpURLConnection conn = null ;
+		try {
+			conn = connections.open(urlstr) ;
+			if( event != null ) {
+				conn.connect() ;
+				event.connected() ;
+			}
+			return decode(conn,type,event) ;
+		} catch (MalformedURLException e) {
+			throw new BTCEException("Internal error.",e) ;
+		} catch (IOException e) {
+			if( event != null ) event.failed(conn) ;
+			connections.release(conn) ;
+			throw new BTCEException("Error connecting to BTC-E.",e) ;
+		} finally {
+			if( event != null ) event.report(listener) ;
+		}
+	}
+	
+	private final <T extends Results> T authrequest(RequestBody body, Class<T> type) throws BTCEException {
+		try {
+			if( !initialized ) throw new BTCEException("BTCE not initialized.") ;
+			long wait = acquire(getAuthRequestLimiter()) ;
+			return authcall(body,type,wait) ;
+		} finally {
+			release(body) ;
+		}
+	}
+	
+	private final <T extends Results> Future<T> authrequestAsync(final RequestBody body, final Class<T> type, Callback<T> callback) {
+		final long wait = initialized?getAuthRequestLimiter().reserve():0 ;
+		return schedule(wait,new Callable<T>() {
+			public T call() throws BTCEException {
+				try {
+					if( !initialized ) throw new BTCEException("BTCE not initialized.") ;
+					return authcall(body,type,wait) ;
+				} finally {
+					release(body) ;
+				}
+			}
+		},callback) ;
+	}
+	
 	/**
-	 * returned by the {@link #getTransactionHistory() getTransactionHistory} method. Note that due to a java name collision the JSON field return is named info.
+	 * Makes the call once the rate limit has been satisfied.  If the exchange rejects the nonce, the nonce source is moved 
+	 * past the last nonce the exchange has seen for the key and the call is made one more time.
 	 */
-	public static class TransactionHistory extends Results {
-		@SerializedName("return")
-		public TransactionHistoryReturn info ;
-		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "TransactionHistory [success=" + success + ", error=" + error + ", return=" + info + "]";
+	private final <T extends Results> T authcall(RequestBody body, Class<T> type, long wait) throws BTCEException {
+		String key = this.key ;
+		long nonce = key_state.nonces.next() ;
+		T results = authfetch(body,type,wait,nonce) ;
+		long onKey = rejectedNonce(results) ;
+		if( onKey >= 0 ) {
+			NonceSource nonces = key_state.nonces ;
+			nonces.advanceTo(onKey) ;
+			wait = acquire(getAuthRequestLimiter()) ;
+			nonce = nonces.next() ;
+			results = authfetch(body,type,wait,nonce) ;
 		}
+		fundsReceived(results,key,nonce) ;
+		return results ;
 	}
-
+	
 	/**
-	 * 
+	 * Hands the funds in successful getInfo, trade and cancelOrder results to the funds listener.
 	 */
-	public class TransactionHistoryReturn {
-		public TransactionHistoryOrder[] transactions ;
-
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "[transactions="+ Arrays.toString(transactions) + "]";
-		}
+	private void fundsReceived(Results results,String key,long nonce) {
+		FundsListener listener = funds_listener ;
+		if( listener == null || results.success == 0 ) return ;
+		Funds funds = null ;
+		if( results instanceof Info && ((Info)results).info != null ) funds = ((Info)results).info.funds ;
+		else if( results instanceof Trade && ((Trade)results).info != null ) funds = ((Trade)results).info.funds ;
+		else if( results instanceof CancelOrder && ((CancelOrder)results).info != null ) funds = ((CancelOrder)results).info.funds ;
+		if( funds != null ) listener.fundsReceived(funds,key,nonce) ;
 	}
 	
 	/**
-	 * 
+	 * Returns the last nonce the exchange has seen for the key if the results are an invalid nonce error, otherwise -1.
 	 */
-	public class TransactionHistoryOrder {
-		public long trans_id ;
-		public TransactionHistoryOrderDetails trans_details ;
+	private static long rejectedNonce(Object results) {
+		if( !(results instanceof Results) ) return -1 ;
+		Results r = (Results)results ;
+		if( r.success != 0 || r.error == null ) return -1 ;
+		Matcher m = INVALID_NONCE.matcher(r.error) ;
+		return m.find() ? Long.parseLong(m.group(1)) : -1 ;
+	}
+	
+	private final <T> T authfetch(RequestBody body, Class<T> type, long wait, long nonce) throws BTCEException {
+		CallListener listener = call_listener ;
+		CallEvent event = listener == null ? null : new CallEvent(body.method(),wait) ;
+		// the nonce goes last so it can be replaced if the call has to be repeated
+		int mark = body.length() ;
+		body.add("nonce",nonce) ;
 		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "[trans_id=" + trans_id + ", trans_details="+ trans_details + "]";
+		// create connection
+		HttpURLConnection conn = null ;
+		try {
+			conn = connections.open(api_url) ;
+			conn.setDoOutput(true) ;
+			conn.setRequestProperty("Key",key) ;
+			conn.setRequestProperty("Sign",signer.sign(body.buffer(),0,body.length())) ;
+			conn.setRequestProperty("Content-Type","application/x-www-form-urlencoded") ;
+			conn.setFixedLengthStreamingMode(body.length()) ;
+		
+			// write post data
+			OutputStream out = conn.getOutputStream() ;
+			if( event != null ) event.connected() ;
+			out.write(body.buffer(),0,body.length()) ;
+			out.close() ;
+			if( event != null ) event.bytes_out = body.length() ;
+	
+			return decode(conn,type,event) ;
+		} catch (MalformedURLException e) {
+			throw new BTCEException("Internal error.",e) ;
+		} catch (IOException e) {
+			if( event != null ) event.failed(conn) ;
+			connections.release(conn) ;
+			throw new BTCEException("Error connecting to BTC-E.",e) ;
+		} finally {
+			body.truncate(mark) ;
+			if( event != null ) event.report(listener) ;
 		}
 	}
 	
 	/**
-	 * 
+	 * Names a public call for the call listener by its method, "ticker" for both versions of the ticker for example.
 	 */
-	public class TransactionHistoryOrderDetails {
-		public int type ;
-		public double amount ;
-		public String currency ;
-		public String desc ;
-		public int status ;
-		public long timestamp ;
-		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "[type=" + type + ", amount="
-					+ amount + ", currency=" + currency + ", desc=" + desc
-					+ ", status=" + status + ", timestamp=" + timestamp + "]";
+	private String publicEndpoint(String urlstr) {
+		if( urlstr.startsWith(public_api_url) ) {
+			int end = urlstr.indexOf('/',public_api_url.length()) ;
+			return urlstr.substring(public_api_url.length(),end < 0 ? urlstr.length() : end) ;
 		}
+		return urlstr.substring(urlstr.lastIndexOf('/')+1) ;
 	}
-
+	
 	/**
-	 * 
+	 * Takes a request body from the pool and starts it with the method name.
 	 */
-	private class TransactionHistoryReturnDeserializer implements JsonDeserializer<TransactionHistoryReturn> {
-		  public TransactionHistoryReturn deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-			  TransactionHistoryReturn thr = new TransactionHistoryReturn() ;
-			  List<TransactionHistoryOrder> transactions = new ArrayList<TransactionHistoryOrder>() ;
-			  if( json.isJsonObject() ) {
-				  JsonObject o = json.getAsJsonObject() ;
-				  Iterator<Entry<String,JsonElement>> iter = o.entrySet().iterator() ;
-				  while(iter.hasNext()) {
-					  Entry<String,JsonElement> jsonOrder = iter.next();
-					  TransactionHistoryOrder transaction = new TransactionHistoryOrder() ;
-					  transaction.trans_id = Long.parseLong(jsonOrder.getKey()) ;
-					  transaction.trans_details = context.deserialize(jsonOrder.getValue(),TransactionHistoryOrderDetails.class) ;
-					  transactions.add(transaction) ;
-				  }
-			  }
-			  thr.transactions = transactions.toArray(new TransactionHistoryOrder[0]) ;
-			  return thr ;
-		  }
+	private RequestBody body(String method) {
+		for(int i=0;i<body_pool.length();i++) {
+			RequestBody body = body_pool.getAndSet(i,null) ;
+			if( body != null ) return body.reset().add("method",method) ;
+		}
+		return new RequestBody().add("method",method) ;
 	}
 	
 	/**
-	 * returned by the {@link #getTradeHistory() getTradeHistory} method. Note that due to a java name collision the JSON field return is named info.
+	 * Returns a request body to the pool.  If the pool is full the body is left for the garbage collector.
 	 */
-	public static class TradeHistory extends Results {
-		@SerializedName("return")
-		public TradeHistoryReturn info ;
-		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "TradeHistory [success=" + success + ", error=" + error + ", return=" + info + "]";
+	private void release(RequestBody body) {
+		for(int i=0;i<body_pool.length();i++) {
+			if( body_pool.compareAndSet(i,null,body) ) return ;
 		}
-
 	}
-
+	
 	/**
-	 * 
+	 * Decodes the response straight from the connection as it arrives so the body is never held in memory as text.
 	 */
-	public class TradeHistoryReturn {
-		public TradeHistoryOrder[] trades ;
-
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "[trades="+ Arrays.toString(trades) + "]";
+	private final <T> T decode(HttpURLConnection conn, Type type, CallEvent event) throws IOException, BTCEException {
+		InputStream in = conn.getInputStream() ;
+		if( event != null ) in = event.firstByte(in) ;
+		try {
+			JsonReader reader = new JsonReader(new InputStreamReader(in,UTF_8)) ;
+			T result = gson.fromJson(reader,type) ;
+			if( event != null ) event.decoded(result) ;
+			return result ;
+		} catch (JsonParseException e) {
+			if( e.getCause() instanceof IOException ) throw (IOException)e.getCause() ;
+			if( event != null ) event.outcome = CallEvent.Outcome.INVALID_RESPONSE ;
+			throw new BTCEException("Invalid response from BTC-E.",e) ;
+		} finally {
+			try {
+				connections.close(in) ;
+			} catch (IOException e) {
+				// the stream is closed either way, a failure draining it must not hide the result or the exception above
+			}
 		}
 	}
 	
 	/**
+	 * Decodes a response that was read some other way, a recorded response for example, the same way the API calls do.
 	 * 
+	 * @param reader the response.
+	 * @param type the result type, for example {@link TradeHistory}.
+	 * @return the decoded result.
 	 */
-	public class TradeHistoryOrder {
-		public long trans_id ;
-		public TradeHistoryOrderDetails trade_details ;
-		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "[trans_id=" + trans_id + ", trade_details="+ trade_details + "]";
+	public <T> T parse(Reader reader, Class<T> type) throws BTCEException {
+		try {
+			return gson.fromJson(new JsonReader(reader),type) ;
+		} catch (JsonParseException e) {
+			throw new BTCEException("Invalid response from BTC-E.",e) ;
 		}
 	}
 	
 	/**
+	 * Encodes a result in the form the exchange sends it, so it can be recorded and read back with {@link #parse(Reader, Class)}.
 	 * 
+	 * @param result the result, for example a {@link Depth}.
+	 * @return the JSON text.
 	 */
-	public class TradeHistoryOrderDetails {
-		public String pair, type ;
-		public double amount, rate ;
-		public long order_id ;
-		public int is_your_order ;
-		public long timestamp ;
+	public String toJson(Object result) {
+		return gson.toJson(result) ;
+	}
+	
+	/**
+	 * Schedules a call to run on the executor once its rate limit slot comes up.  The delay is in nanoseconds.
+	 */
+	private <T> Future<T> schedule(long delay, Callable<T> call, final Callback<T> callback) {
+		FutureTask<T> task = new FutureTask<T>(call) {
+			@Override
+			protected void done() {
+				if( callback == null ) return ;
+				if( isCancelled() ) {
+					callback.failed(new BTCEException("Call cancelled.")) ;
+					return ;
+				}
+				T result ;
+				try {
+					result = get() ;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt() ;
+					return ;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause() ;
+					callback.failed(cause instanceof BTCEException?(BTCEException)cause:new BTCEException("Internal error.",cause)) ;
+					return ;
+				}
+				callback.completed(result) ;
+			}
+		} ;
+		executor().schedule(task,delay,TimeUnit.NANOSECONDS) ;
+		return task ;
+	}
+	
+	private synchronized ScheduledExecutorService executor() {
+		if( executor == null ) {
+			executor = Executors.newScheduledThreadPool(DEFAULT_ASYNC_THREADS,new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger() ;
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r,"btce-async-"+count.incrementAndGet()) ;
+					t.setDaemon(true) ;
+					return t ;
+				}
+			}) ;
+		}
+		return executor ;
+	}
+	
+	/**
+	 * Fixed point decimal numbers held in a <code>long</code> scaled by a power of ten, so 512.345 with 8 decimals is 
+	 * 51234500000.  Adding and subtracting values of the same format is plain <code>long</code> arithmetic and is exact; 
+	 * {@link #multiply} and {@link #rescale} round half up.  Parsing and formatting don't create any objects.
+	 * <p>
+	 * Amounts use {@link #AMOUNT}.  Prices use the format of the pair from {@link #forPrice(String)}, which defaults to 8 
+	 * decimals, the most the exchange uses, and can be narrowed per pair with {@link #setPriceDecimals(String, int)}.
+	 * <p>
+	 * Market data is still decoded to doubles; {@link #fromDouble(double)} recovers the exact decimal from those as long as 
+	 * the value has no more than 8 decimals and is below about 10<sup>7</sup>.
+	 */
+	public static final class FixedPoint {
+		private static final long[] POWERS = new long[19] ;
+		static {
+			POWERS[0] = 1 ;
+			for(int i=1;i<POWERS.length;i++) POWERS[i] = POWERS[i-1]*10 ;
+		}
+		
+		/**
+		 * The format for amounts, 8 decimals.
+		 */
+		public static final FixedPoint AMOUNT = new FixedPoint(8) ;
+		
+		private static final FixedPoint[] FORMATS = new FixedPoint[POWERS.length] ;
+		private static final ConcurrentMap<String,FixedPoint> prices = new ConcurrentHashMap<String,FixedPoint>() ;
+		
+		private final int decimals ;
+		private final long scale ;
+		
+		private FixedPoint(int decimals) {
+			this.decimals = decimals ;
+			this.scale = POWERS[decimals] ;
+		}
+		
+		/**
+		 * Returns the format with the number of decimals, 0 to 18.
+		 */
+		public static synchronized FixedPoint of(int decimals) {
+			if( decimals < 0 || decimals >= POWERS.length ) throw new IllegalArgumentException("Invalid decimals: "+decimals) ;
+			if( decimals == AMOUNT.decimals ) return AMOUNT ;
+			if( FORMATS[decimals] == null ) FORMATS[decimals] = new FixedPoint(decimals) ;
+			return FORMATS[decimals] ;
+		}
+		
+		/**
+		 * Returns the price format for the pair.
+		 */
+		public static FixedPoint forPrice(String pair) {
+			FixedPoint format = prices.get(pair) ;
+			return format == null ? AMOUNT : format ;
+		}
+		
+		/**
+		 * Sets the number of decimals in the prices of the pair.
+		 */
+		public static void setPriceDecimals(String pair,int decimals) {
+			prices.put(pair,of(decimals)) ;
+		}
+		
+		public int getDecimals() {
+			return decimals ;
+		}
+		
+		public long getScale() {
+			return scale ;
+		}
+		
+		/**
+		 * Parses a decimal number such as "512.345", "-0.01" or "1.5E-4".  Digits past the decimals of the format are 
+		 * rounded half up.
+		 * 
+		 * @throws NumberFormatException if the text isn't a number or the value doesn't fit.
+		 */
+		public long parse(CharSequence text) {
+			return parse(text,0,text.length()) ;
+		}
+		
+		/**
+		 * Parses the decimal number in <code>text[start,end)</code>.
+		 */
+		public long parse(CharSequence text,int start,int end) {
+			int i = start ;
+			boolean negative = false ;
+			if( i < end && (text.charAt(i) == '-' || text.charAt(i) == '+') ) negative = text.charAt(i++) == '-' ;
+			long digits = 0 ;
+			int exponent = 0, count = 0 ;
+			boolean point = false ;
+			for(;i<end;i++) {
+				char c = text.charAt(i) ;
+				if( c >= '0' && c <= '9' ) {
+					count++ ;
+					if( digits < Long.MAX_VALUE/10-1 ) {
+						digits = digits*10+(c-'0') ;
+						if( point ) exponent-- ;
+					} else if( !point ) exponent++ ;
+				} else if( c == '.' && !point ) {
+					point = true ;
+				} else if( (c == 'e' || c == 'E') && count > 0 ) {
+					exponent += parseExponent(text,i+1,end) ;
+					i = end ;
+				} else throw new NumberFormatException("Invalid number: "+text.subSequence(start,end)) ;
+			}
+			if( count == 0 ) throw new NumberFormatException("Invalid number: "+text.subSequence(start,end)) ;
+			int shift = exponent+decimals ;
+			long value ;
+			if( digits == 0 ) value = 0 ;
+			else if( shift >= 0 ) {
+				if( shift >= POWERS.length || digits > Long.MAX_VALUE/POWERS[shift] ) throw new NumberFormatException("Number too large: "+text.subSequence(start,end)) ;
+				value = digits*POWERS[shift] ;
+			} else if( -shift >= POWERS.length ) value = 0 ;
+			else {
+				long divisor = POWERS[-shift] ;
+				value = digits/divisor ;
+				if( digits%divisor >= divisor-digits%divisor ) value++ ;
+			}
+			return negative ? -value : value ;
+		}
+		
+		private static int parseExponent(CharSequence text,int i,int end) {
+			boolean negative = false ;
+			if( i < end && (text.charAt(i) == '-' || text.charAt(i) == '+') ) negative = text.charAt(i++) == '-' ;
+			if( i == end ) throw new NumberFormatException("Invalid exponent: "+text) ;
+			int exponent = 0 ;
+			for(;i<end;i++) {
+				char c = text.charAt(i) ;
+				if( c < '0' || c > '9' ) throw new NumberFormatException("Invalid exponent: "+text) ;
+				if( exponent < 1000 ) exponent = exponent*10+(c-'0') ;
+			}
+			return negative ? -exponent : exponent ;
+		}
+		
+		/**
+		 * Returns the value rounded to the decimals of the format.
+		 */
+		public long fromDouble(double value) {
+			double scaled = value*scale ;
+			if( Double.isNaN(scaled) || Math.abs(scaled) >= Long.MAX_VALUE ) throw new ArithmeticException("Value doesn't fit: "+value) ;
+			return Math.round(scaled) ;
+		}
+		
+		public double toDouble(long value) {
+			return (double)value/scale ;
+		}
+		
+		/**
+		 * Appends the value in plain decimal notation without trailing zeros.
+		 */
+		public StringBuilder append(long value,StringBuilder sb) {
+			long whole = value/scale, fraction = value%scale ;
+			if( value < 0 ) {
+				sb.append('-') ;
+				whole = -whole ;
+				fraction = -fraction ;
+			}
+			sb.append(whole) ;
+			if( fraction == 0 ) return sb ;
+			sb.append('.') ;
+			int digits = decimals ;
+			while( fraction%10 == 0 ) {
+				fraction /= 10 ;
+				digits-- ;
+			}
+			for(long p=POWERS[digits-1];p>0;p/=10) sb.append((char)('0'+fraction/p%10)) ;
+			return sb ;
+		}
+		
+		public String toString(long value) {
+			return append(value,new StringBuilder(24)).toString() ;
+		}
+		
+		/**
+		 * Multiplies two fixed point values, such as a price and an amount, and returns the product in this format.
+		 * 
+		 * @throws ArithmeticException if the product doesn't fit.
+		 */
+		public long multiply(long a,FixedPoint a_format,long b,FixedPoint b_format) {
+			int shift = a_format.decimals+b_format.decimals-decimals ;
+			if( shift < 0 ) return multiplyDivide(multiplyDivide(a,b,1),POWERS[-shift],1) ;
+			return multiplyDivide(a,b,POWERS[shift]) ;
+		}
+		
+		/**
+		 * Converts a value in another format to this format.
+		 */
+		public long rescale(long value,FixedPoint format) {
+			if( format.decimals <= decimals ) return multiplyDivide(value,POWERS[decimals-format.decimals],1) ;
+			return multiplyDivide(value,1,POWERS[format.decimals-decimals]) ;
+		}
+		
+		/**
+		 * Returns <code>a*b/d</code> rounded half up, with the product held in 128 bits so it can't overflow on the way.
+		 */
+		static long multiplyDivide(long a,long b,long d) {
+			boolean negative = (a < 0) != (b < 0) ;
+			long x = Math.abs(a), y = Math.abs(b) ;	// MIN_VALUE stays as its unsigned magnitude
+			long x_lo = x&0xffffffffL, x_hi = x>>>32, y_lo = y&0xffffffffL, y_hi = y>>>32 ;
+			long p0 = x_lo*y_lo, p1 = x_lo*y_hi, p2 = x_hi*y_lo ;
+			long mid = (p0>>>32)+(p1&0xffffffffL)+(p2&0xffffffffL) ;
+			long lo = (mid<<32)|(p0&0xffffffffL) ;
+			long hi = x_hi*y_hi+(p1>>>32)+(p2>>>32)+(mid>>>32) ;
+			if( hi >= d || hi < 0 ) throw new ArithmeticException("Fixed point overflow") ;
+			// long division of hi:lo by d, one bit at a time
+			long q = 0, r = hi ;
+			for(int i=63;i>=0;i--) {
+				r = (r<<1)|((lo>>>i)&1) ;
+				q <<= 1 ;
+				if( r < 0 || r >= d ) {
+					r -= d ;
+					q |= 1 ;
+				}
+			}
+			if( r >= d-r ) q++ ;
+			if( q < 0 ) throw new ArithmeticException("Fixed point overflow") ;
+			return negative ? -q : q ;
+		}
+	}
+	
+	/**
+	 * The url form encoded body of an authenticated call.  Parameters are encoded straight into a byte array that is reused 
+	 * from call to call, and the same bytes are signed and written to the connection.
+	 * <p>
+	 * Numbers are written without going through strings.  Doubles are written in plain decimal notation with up to 8 decimal 
+	 * places, which is the most the exchange accepts, so <code>1.0E-4</code> is sent as <code>0.0001</code>.
+	 */
+	public static class RequestBody {
+		private static final byte[] DIGITS = "0123456789ABCDEF".getBytes(UTF_8) ;
+		private static final int DECIMALS = 8 ;
+		private static final long DECIMAL_SCALE = 100000000L ;
+		
+		private byte[] buf = new byte[256] ;
+		private int len ;
+		
+		/**
+		 * Clears the body so it can be used for another call.
+		 */
+		public RequestBody reset() {
+			len = 0 ;
+			return this ;
+		}
+		
+		public byte[] buffer() {
+			return buf ;
+		}
+		
+		public int length() {
+			return len ;
+		}
+		
+		/**
+		 * Returns the value of the first parameter, which is the method name for the bodies made by the client.
+		 */
+		public String method() {
+			int start = 0 ;
+			while( start < len && buf[start] != '=' ) start++ ;
+			int end = ++start ;
+			while( end < len && buf[end] != '&' ) end++ ;
+			return start < len ? new String(buf,start,end-start,UTF_8) : "" ;
+		}
+		
+		/**
+		 * Drops everything after the first <code>length</code> bytes.
+		 */
+		public void truncate(int length) {
+			len = length ;
+		}
+		
+		public RequestBody add(String name,String value) {
+			name(name) ;
+			encode(value) ;
+			return this ;
+		}
+		
+		public RequestBody add(String name,long value) {
+			name(name) ;
+			writeLong(value) ;
+			return this ;
+		}
+		
+		public RequestBody add(String name,double value) {
+			name(name) ;
+			writeDouble(value) ;
+			return this ;
+		}
+		
+		/**
+		 * Adds a fixed point value, written in plain decimal notation with the decimals of the format.
+		 */
+		public RequestBody add(String name,long value,FixedPoint format) {
+			name(name) ;
+			writeFixed(value,format.decimals) ;
+			return this ;
+		}
+		
+		/**
+		 * Adds the parameter only if the value isn't null or empty.
+		 */
+		public RequestBody addOptional(String name,String value) {
+			if( value != null && value.length() > 0 ) add(name,value) ;
+			return this ;
+		}
+		
+		/**
+		 * Adds the parameter only if the value is greater than 0.
+		 */
+		public RequestBody addOptional(String name,long value) {
+			if( value > 0 ) add(name,value) ;
+			return this ;
+		}
+		
+		@Override
+		public String toString() {
+			return new String(buf,0,len,UTF_8) ;
+		}
+		
+		private void name(String name) {
+			if( len > 0 ) write('&') ;
+			for(int i=0;i<name.length();i++) write(name.charAt(i)) ;
+			write('=') ;
+		}
+		
+		private void encode(String value) {
+			for(int i=0;i<value.length();i++) {
+				char c = value.charAt(i) ;
+				if( (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == '*' ) {
+					write(c) ;
+				} else if( c == ' ' ) {
+					write('+') ;
+				} else if( c < 0x80 ) {
+					escape(c) ;
+				} else {
+					// rare enough that going through a string is fine
+					int end = Character.isHighSurrogate(c) && i+1 < value.length() ? i+2 : i+1 ;
+					byte[] b = value.substring(i,end).getBytes(UTF_8) ;
+					for(int j=0;j<b.length;j++) escape(b[j]&0xff) ;
+					i = end-1 ;
+				}
+			}
+		}
+		
+		private void escape(int b) {
+			write('%') ;
+			write(DIGITS[b>>>4]) ;
+			write(DIGITS[b&0x0f]) ;
+		}
+		
+		private void writeLong(long value) {
+			if( value == Long.MIN_VALUE ) {
+				for(byte b:Long.toString(value).getBytes(UTF_8)) write(b) ;
+				return ;
+			}
+			if( value < 0 ) {
+				write('-') ;
+				value = -value ;
+			}
+			int start = len ;
+			do {
+				write(DIGITS[(int)(value%10)]) ;
+				value /= 10 ;
+			} while( value > 0 ) ;
+			reverse(start,len-1) ;
+		}
+		
+		private void writeDouble(double value) {
+			if( Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= Long.MAX_VALUE/DECIMAL_SCALE ) {
+				encode(Double.toString(value)) ;
+				return ;
+			}
+			writeFixed(Math.round(value*DECIMAL_SCALE),DECIMALS) ;
+		}
+		
+		private void writeFixed(long value,int decimals) {
+			long scale = FixedPoint.POWERS[decimals] ;
+			long whole = value/scale, fraction = value%scale ;
+			if( value < 0 ) {
+				write('-') ;
+				whole = -whole ;
+				fraction = -fraction ;
+			}
+			writeLong(whole) ;
+			if( fraction == 0 ) return ;
+			write('.') ;
+			int digits = decimals ;
+			while( fraction%10 == 0 ) {
+				fraction /= 10 ;
+				digits-- ;
+			}
+			int start = len ;
+			for(int i=0;i<digits;i++) {
+				write(DIGITS[(int)(fraction%10)]) ;
+				fraction /= 10 ;
+			}
+			reverse(start,len-1) ;
+		}
+		
+		private void reverse(int i,int j) {
+			for(;i<j;i++,j--) {
+				byte t = buf[i] ;
+				buf[i] = buf[j] ;
+				buf[j] = t ;
+			}
+		}
+		
+		private void write(int b) {
+			if( len == buf.length ) buf = Arrays.copyOf(buf,buf.length*2) ;
+			buf[len++] = (byte)b ;
+		}
+	}
+	
+	/**
+	 * Signs the post data of authenticated calls with HMAC-SHA512.
+	 * <p>
+	 * <code>Mac</code> isn't thread safe so every thread signing with this object gets its own initialized instance along with
+	 * the buffers for the digest and its hex encoding.  After the first call on a thread, signing doesn't allocate anything 
+	 * except the returned string.
+	 */
+	public static class Signer {
+		private static final String ALGORITHM = "HmacSHA512" ;
+		private static final char[] HEX = "0123456789abcdef".toCharArray() ;
+		
+		private final SecretKeySpec keyspec ;
+		private final ThreadLocal<State> state = new ThreadLocal<State>() {
+			@Override
+			protected State initialValue() {
+				try {
+					return new State(keyspec) ;
+				} catch (GeneralSecurityException e) {
+					// already checked by the constructor
+					throw new IllegalStateException(e) ;
+				}
+			}
+		} ;
+		
+		/**
+		 * @param secret the API secret.
+		 */
+		public Signer(byte[] secret) throws NoSuchAlgorithmException, InvalidKeyException {
+			keyspec = new SecretKeySpec(secret,ALGORITHM) ;
+			new State(keyspec) ;
+		}
+		
+		/**
+		 * Returns the signature of the data as a lower case hex string.
+		 */
+		public String sign(byte[] data,int off,int len) {
+			State s = state.get() ;
+			s.mac.update(data,off,len) ;
+			try {
+				s.mac.doFinal(s.digest,0) ;
+			} catch (ShortBufferException e) {
+				throw new IllegalStateException(e) ;
+			}
+			toHex(s.digest,0,s.digest.length,s.hex,0) ;
+			return new String(s.hex) ;
+		}
+		
+		/**
+		 * Writes the bytes as lower case hex, two characters per byte, including leading zeros.
+		 */
+		public static void toHex(byte[] b,int off,int len,char[] out,int pos) {
+			for(int i=off;i<off+len;i++) {
+				int v = b[i]&0xff ;
+				out[pos++] = HEX[v>>>4] ;
+				out[pos++] = HEX[v&0x0f] ;
+			}
+		}
+		
+		private static class State {
+			private final Mac mac ;
+			private final byte[] digest ;
+			private final char[] hex ;
+			
+			private State(SecretKeySpec keyspec) throws NoSuchAlgorithmException, InvalidKeyException {
+				mac = Mac.getInstance(ALGORITHM) ;
+				mac.init(keyspec) ;
+				digest = new byte[mac.getMacLength()] ;
+				hex = new char[digest.length*2] ;
+			}
+		}
+	}
+	
+	/**
+	 * A token bucket used to limit how frequently calls can be made.  Permits are handed out every <code>interval</code> 
+	 * milliseconds and up to <code>burst</code> unused permits can be saved up while the API is idle.
+	 * <p>
+	 * The limiter is lock-free.  The only state is the time at which the bucket will next be empty (the theoretical arrival time 
+	 * of the generic cell rate algorithm) which is advanced with a compare and set on every permit handed out.
+	 */
+	public static class RateLimiter {
+		private final AtomicLong tat = new AtomicLong(System.nanoTime()) ;
+		private volatile long interval ;	// nanoseconds per permit
+		private volatile long tolerance ;	// how far ahead of now the bucket can be booked, interval*(burst-1)
+		private volatile int burst ;
+
+		/**
+		 * @param interval_millis milliseconds between permits.
+		 * @param burst the number of permits that can be saved up while idle, must be at least 1.
+		 */
+		public RateLimiter(long interval_millis,int burst) {
+			setRate(interval_millis,burst) ;
+		}
+
+		/**
+		 * Changes the rate of the limiter.  Permits already handed out are not affected.
+		 * 
+		 * @param interval_millis milliseconds between permits.
+		 * @param burst the number of permits that can be saved up while idle, must be at least 1.
+		 */
+		public void setRate(long interval_millis,int burst) {
+			if( interval_millis < 0 || burst < 1 ) throw new IllegalArgumentException("Invalid rate: "+interval_millis+"ms burst "+burst) ;
+			this.interval = TimeUnit.MILLISECONDS.toNanos(interval_millis) ;
+			this.tolerance = this.interval*(burst-1) ;
+			this.burst = burst ;
+		}
+		
+		public long getInterval() {
+			return TimeUnit.NANOSECONDS.toMillis(interval) ;
+		}
+		
+		public int getBurst() {
+			return burst ;
+		}
+		
+		/**
+		 * Takes the next permit and returns how long the caller has to wait before using it.
+		 * 
+		 * @return the wait in nanoseconds, 0 if the permit can be used immediately.
+		 */
+		public long reserve() {
+			for(;;) {
+				long now = System.nanoTime() ;
+				long t = tat.get() ;
+				long start = t-now > 0 ? t : now ;
+				if( tat.compareAndSet(t,start+interval) ) {
+					long wait = start-tolerance-now ;
+					return wait > 0 ? wait : 0 ;
+				}
+			}
+		}
+		
+		/**
+		 * Returns how long until a permit is available, without taking it.
+		 * 
+		 * @return the wait in nanoseconds, 0 if a permit is available now.
+		 */
+		public long getWait() {
+			long wait = tat.get()-tolerance-System.nanoTime() ;
+			return wait > 0 ? wait : 0 ;
+		}
+		
+		/**
+		 * Takes a permit only if one is available right now.
+		 * 
+		 * @return true if a permit was taken.
+		 */
+		public boolean tryAcquire() {
+			for(;;) {
+				long now = System.nanoTime() ;
+				long t = tat.get() ;
+				long start = t-now > 0 ? t : now ;
+				if( start-tolerance-now > 0 ) return false ;
+				if( tat.compareAndSet(t,start+interval) ) return true ;
+			}
+		}
+		
+		/**
+		 * Takes a permit, waiting for it if necessary.  If the wait is interrupted the permit is given back.
+		 */
+		public void acquire() throws InterruptedException {
+			long wait = reserve() ;
+			if( wait <= 0 ) return ;
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait) ;
+			} catch (InterruptedException e) {
+				tat.addAndGet(-interval) ;
+				throw e ;
+			}
+		}
+	}
+	
+	/**
+	 * Opens the HTTP connections used by the API and keeps statistics on them.
+	 * <p>
+	 * Connections are kept alive and pooled by the JDK between calls as long as every response is read to the end and closed, 
+	 * which this class takes care of, including the error responses that would otherwise leave the connection unusable.  All 
+	 * secure connections are created through a single socket factory so they share one pool and one TLS session cache, which 
+	 * lets the JDK reuse a socket, or at least resume the TLS session, instead of doing a full handshake on every call.
+	 * <p>
+	 * The size of the pool is controlled by the JDK with the <code>http.keepAlive</code> and <code>http.maxConnections</code> 
+	 * system properties and idle connections are closed after the time given in the server's <code>Keep-Alive</code> header.
+	 * HTTP/2 isn't available to <code>HttpURLConnection</code>.
+	 */
+	public static class ConnectionManager {
+		private final CountingSocketFactory socket_factory = new CountingSocketFactory((SSLSocketFactory)SSLSocketFactory.getDefault()) ;
+		private final AtomicLong requests = new AtomicLong() ;
+		private final AtomicLong failures = new AtomicLong() ;
+		private volatile int connect_timeout = 0 ;
+		private volatile int read_timeout = 0 ;
+		
+		/**
+		 * Sets the connect timeout for new connections.  0, the default, waits as long as the operating system allows.
+		 * 
+		 * @param connect_timeout timeout in milliseconds.
+		 */
+		public void setConnectTimeout(int connect_timeout) {
+			this.connect_timeout = connect_timeout ;
+		}
+		
+		public int getConnectTimeout() {
+			return connect_timeout ;
+		}
+		
+		/**
+		 * Sets the timeout for reading a response.  0, the default, waits forever.
+		 * 
+		 * @param read_timeout timeout in milliseconds.
+		 */
+		public void setReadTimeout(int read_timeout) {
+			this.read_timeout = read_timeout ;
+		}
+		
+		public int getReadTimeout() {
+			return read_timeout ;
+		}
+		
+		/**
+		 * Returns the number of requests made.
+		 */
+		public long getRequestCount() {
+			return requests.get() ;
+		}
+		
+		/**
+		 * Returns the number of secure connections opened.
+		 */
+		public long getConnectionCount() {
+			return socket_factory.sockets.get() ;
+		}
+		
+		/**
+		 * Returns the number of secure requests that were sent over a pooled connection instead of a new one.
+		 */
+		public long getReusedCount() {
+			return Math.max(0,socket_factory.requests.get()-socket_factory.sockets.get()) ;
+		}
+		
+		/**
+		 * Returns the number of requests that failed with an I/O error.
+		 */
+		public long getFailureCount() {
+			return failures.get() ;
+		}
+		
+		/**
+		 * Opens a connection to the specified url with the connection settings applied.
+		 */
+		public HttpURLConnection open(String urlstr) throws IOException {
+			URL url = new URL(urlstr) ;
+			HttpURLConnection conn = (HttpURLConnection)url.openConnection() ;
+			if( conn instanceof HttpsURLConnection ) {
+				((HttpsURLConnection)conn).setSSLSocketFactory(socket_factory) ;
+				socket_factory.requests.incrementAndGet() ;
+			}
+			requests.incrementAndGet() ;
+			conn.setUseCaches(false) ;
+			conn.setConnectTimeout(connect_timeout) ;
+			conn.setReadTimeout(read_timeout) ;
+			conn.setRequestProperty("User-Agent",USER_AGENT) ;
+			return conn ;
+		}
+		
+		/**
+		 * Reads whatever is left of a response to the end and closes it so the connection can go back to the pool.
+		 */
+		public void close(InputStream in) throws IOException {
+			try {
+				byte[] buf = new byte[256] ;
+				while( in.read(buf) >= 0 ) ;
+			} finally {
+				in.close() ;
+			}
+		}
+		
+		/**
+		 * Cleans up after a failed request.  The error response, if any, is read to the end so the connection can still 
+		 * go back to the pool.
+		 */
+		public void release(HttpURLConnection conn) {
+			failures.incrementAndGet() ;
+			if( conn == null ) return ;
+			InputStream err = conn.getErrorStream() ;
+			if( err == null ) return ;
+			try {
+				close(err) ;
+			} catch (IOException e) {
+				conn.disconnect() ;
+			}
+		}
+	}
+	
+	/**
+	 * Counts the secure sockets opened for the connection statistics.  Since the JDK only pools connections that were created by
+	 * the same factory, one instance is used for every connection.
+	 */
+	private static class CountingSocketFactory extends SSLSocketFactory {
+		private final SSLSocketFactory factory ;
+		private final AtomicLong sockets = new AtomicLong() ;
+		private final AtomicLong requests = new AtomicLong() ;
+		
+		private CountingSocketFactory(SSLSocketFactory factory) {
+			this.factory = factory ;
+		}
+		
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return factory.getDefaultCipherSuites() ;
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return factory.getSupportedCipherSuites() ;
+		}
+		
+		@Override
+		public Socket createSocket() throws IOException {
+			sockets.incrementAndGet() ;
+			return factory.createSocket() ;
+		}
+
+		@Override
+		public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+			sockets.incrementAndGet() ;
+			return factory.createSocket(s,host,port,autoClose) ;
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			sockets.incrementAndGet() ;
+			return factory.createSocket(host,port) ;
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			sockets.incrementAndGet() ;
+			return factory.createSocket(host,port,localHost,localPort) ;
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			sockets.incrementAndGet() ;
+			return factory.createSocket(host,port) ;
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			sockets.incrementAndGet() ;
+			return factory.createSocket(address,port,localAddress,localPort) ;
+		}
+	}
+	
+	/**
+	 * Supplies the nonces for authenticated calls.  The exchange requires every call made with a key to have a larger nonce 
+	 * than the one before it, so implementations must be thread safe and never return the same value twice.
+	 */
+	public interface NonceSource {
+		/**
+		 * Returns the nonce for the next call.
+		 */
+		long next() ;
+		
+		/**
+		 * Makes sure that every nonce returned after this call is larger than <code>nonce</code>.
+		 */
+		void advanceTo(long nonce) ;
+	}
+	
+	/**
+	 * The default nonce source.  Nonces are allocated from an atomic counter that starts at the current unix time in seconds. 
+	 */
+	public static class AtomicNonceSource implements NonceSource {
+		private final AtomicLong nonce ;
+		
+		public AtomicNonceSource() {
+			this(System.currentTimeMillis()/1000) ;
+		}
+		
+		/**
+		 * @param last the last nonce used, the first nonce returned will be one larger.
+		 */
+		public AtomicNonceSource(long last) {
+			nonce = new AtomicLong(last) ;
+		}
+		
+		public long next() {
+			return nonce.incrementAndGet() ;
+		}
+		
+		public void advanceTo(long last) {
+			for(;;) {
+				long n = nonce.get() ;
+				if( n >= last || nonce.compareAndSet(n,last) ) return ;
+			}
+		}
+	}
+	
+	/**
+	 * What the BTCE objects using one API key share.
+	 */
+	private static final class KeyState {
+		volatile RateLimiter limiter ;
+		volatile NonceSource nonces ;
+		
+		KeyState(RateLimiter limiter,NonceSource nonces) {
+			this.limiter = limiter ;
+			this.nonces = nonces ;
+		}
+		
+		/**
+		 * Replaces the nonce source with one that carries on from it.
+		 */
+		synchronized void setNonces(NonceSource source) {
+			if( source != nonces ) source.advanceTo(nonces.next()) ;
+			nonces = source ;
+		}
+	}
+	
+	/**
+	 * The entry for a key in {@link BTCE#key_states}, cleared once no BTCE object holds the key's state.
+	 */
+	private static final class KeyRef extends WeakReference<KeyState> {
+		final String key ;
+		
+		KeyRef(String key,KeyState state) {
+			super(state,key_queue) ;
+			this.key = key ;
+		}
+	}
+	
+	/**
+	 * Returns the state of the key, which is <code>state</code> if the key isn't in use.
+	 */
+	private static KeyState register(String key,KeyState state) {
+		for(Reference<? extends KeyState> ref;(ref = key_queue.poll()) != null;) key_states.remove(((KeyRef)ref).key,ref) ;
+		KeyRef entry = new KeyRef(key,state) ;
+		for(;;) {
+			KeyRef ref = key_states.putIfAbsent(key,entry) ;
+			if( ref == null ) return state ;
+			KeyState shared = ref.get() ;
+			if( shared != null ) return shared ;
+			if( key_states.replace(key,ref,entry) ) return state ;
+		}
+	}
+	
+	/**
+	 * Receives the result of an asynchronous call.  Callbacks are invoked on the executor thread that completed the call 
+	 * so they should return quickly.
+	 */
+	public interface Callback<T> {
+		/**
+		 * Called with the results of a successful call.
+		 */
+		void completed(T result) ;
+		
+		/**
+		 * Called when the call could not be completed.
+		 */
+		void failed(BTCEException e) ;
+	}
+	
+	/**
+	 * Told about every HTTP request made by a client, see {@link BTCE#setCallListener(CallListener)}.  It is called on the 
+	 * thread that made the request, after the response has been decoded, so it should return quickly.
+	 */
+	public interface CallListener {
+		void requestCompleted(CallEvent event) ;
+	}
+	
+	/**
+	 * Given the funds carried by authenticated results, see {@link BTCE#setFundsListener(FundsListener)}.  It is called on 
+	 * the thread that made the call.  Concurrent calls can complete in any order, but the exchange only accepts increasing 
+	 * nonces for a key, so of the funds for one key those with the highest nonce are the latest.  Nonces of different keys 
+	 * can't be compared.
+	 */
+	public interface FundsListener {
+		/**
+		 * @param funds the balances after the call.
+		 * @param key the API key the call was made with.
+		 * @param nonce the nonce the call was accepted with.
+		 */
+		void fundsReceived(Funds funds,String key,long nonce) ;
+	}
+	
+	/**
+	 * The measurements of one HTTP request.  A call retried after a rejected nonce is two requests.  Times are in 
+	 * nanoseconds and are 0 for the phases the request didn't reach.
+	 */
+	public static class CallEvent {
+		
+		public enum Phase {
+			/** waiting for the rate limiter */
+			LIMITER_WAIT,
+			/** opening or reusing the connection */
+			CONNECT,
+			/** sending the request until the response headers arrive */
+			FIRST_BYTE,
+			/** reading the response body */
+			READ,
+			/** decoding the response, less the time spent reading */
+			DECODE
+		}
+		
+		public enum Outcome {
+			OK, API_ERROR, NONCE_REJECTED, HTTP_ERROR, IO_ERROR, INVALID_RESPONSE
+		}
+		
+		/**
+		 * The method of an authenticated call, for example "getInfo", or the method of a public call, for example "ticker".
+		 */
+		public final String endpoint ;
+		public long limiter_wait, connect, first_byte, read, decode ;
+		public long bytes_in, bytes_out ;
+		public Outcome outcome = Outcome.IO_ERROR ;
+		/**
+		 * The HTTP status of a failed request, 0 if there wasn't one.
+		 */
+		public int status ;
+		private long mark = System.nanoTime() ;
+		
+		private CallEvent(String endpoint,long limiter_wait) {
+			this.endpoint = endpoint ;
+			this.limiter_wait = limiter_wait ;
+		}
+		
+		public long get(Phase phase) {
+			switch( phase ) {
+			case LIMITER_WAIT: return limiter_wait ;
+			case CONNECT: return connect ;
+			case FIRST_BYTE: return first_byte ;
+			case READ: return read ;
+			default: return decode ;
+			}
+		}
+		
+		private void connected() {
+			long now = System.nanoTime() ;
+			connect = now-mark ;
+			mark = now ;
+		}
+		
+		private InputStream firstByte(InputStream in) {
+			long now = System.nanoTime() ;
+			first_byte = now-mark ;
+			mark = now ;
+			return new MeteredInputStream(in,this) ;
+		}
+		
+		private void decoded(Object result) {
+			decode = System.nanoTime()-mark-read ;
+			if( rejectedNonce(result) >= 0 ) outcome = Outcome.NONCE_REJECTED ;
+			else if( result instanceof Results && ((Results)result).success == 0 ) outcome = Outcome.API_ERROR ;
+			else outcome = Outcome.OK ;
+		}
+		
+		private void failed(HttpURLConnection conn) {
+			if( conn == null ) return ;
+			try {
+				status = conn.getResponseCode() ;
+				if( status >= 400 ) outcome = Outcome.HTTP_ERROR ;
+			} catch (IOException e) {
+				// no response at all
+			}
+		}
+		
+		private void report(CallListener listener) {
+			try {
+				listener.requestCompleted(this) ;
+			} catch (RuntimeException e) {
+				// a broken listener mustn't break the call
+			}
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "CallEvent [endpoint=" + endpoint + ", outcome=" + outcome + ", status=" + status + ", limiter_wait=" + limiter_wait
+					+ ", connect=" + connect + ", first_byte=" + first_byte + ", read=" + read + ", decode=" + decode
+					+ ", bytes_in=" + bytes_in + ", bytes_out=" + bytes_out + "]";
+		}
+	}
+	
+	/**
+	 * Counts the bytes of a response and the time spent waiting for them.
+	 */
+	private static class MeteredInputStream extends FilterInputStream {
+		private final CallEvent event ;
+		
+		private MeteredInputStream(InputStream in,CallEvent event) {
+			super(in) ;
+			this.event = event ;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime() ;
+			int b = super.read() ;
+			event.read += System.nanoTime()-start ;
+			if( b >= 0 ) event.bytes_in++ ;
+			return b ;
+		}
+		
+		@Override
+		public int read(byte[] b,int off,int len) throws IOException {
+			long start = System.nanoTime() ;
+			int n = super.read(b,off,len) ;
+			event.read += System.nanoTime()-start ;
+			if( n > 0 ) event.bytes_in += n ;
+			return n ;
+		}
+	}
+	
+	/**
+	 * Balances by currency, indexed by the {@link Currencies} code of the currency.  Currencies the exchange adds show up here 
+	 * without any change to this class.
+	 */
+	public static class Balances {
+		private final int[] currencies ;
+		private final double[] amounts ;
+		
+		private Balances(int[] currencies,double[] amounts) {
+			this.currencies = currencies ;
+			this.amounts = amounts ;
+		}
+		
+		/**
+		 * Returns the balance for the currency code, 0 if the currency isn't in the response.
+		 */
+		public double get(int currency) {
+			return currency >= 0 && currency < amounts.length ? amounts[currency] : 0 ;
+		}
+		
+		/**
+		 * Returns the balance for the currency, 0 if the currency isn't in the response.
+		 */
+		public double get(String currency) {
+			Integer code = Currencies.registry.find(currency.toLowerCase()) ;
+			return code == null ? 0 : get(code) ;
+		}
+		
+		/**
+		 * Returns the number of currencies in the response.
+		 */
+		public int size() {
+			return currencies.length ;
+		}
+		
+		/**
+		 * Returns the code of the nth currency in the response.
+		 */
+		public int getCurrency(int n) {
+			return currencies[n] ;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder("[") ;
+			for(int n=0;n<currencies.length;n++) {
+				if( n > 0 ) sb.append(", ") ;
+				sb.append(Currencies.name(currencies[n])).append('=').append(amounts[currencies[n]]) ;
+			}
+			return sb.append(']').toString() ;
+		}
+	}
+	
+	/**
+	 * Displays the amounts of various currencies associated with an account or an order.
+	 */
+	public class Funds {
+		public double usd ;
+		public double btc ;
+		public double ltc ;
+		public double nmc ;
+		public double rur ;
+		public double eur ;
+		public double nvc ;
+		public double trc ;
+		public double ppc ;
+		public double ftc ;
+		public double cnc ;
+		
+		/**
+		 * All the balances in the response, including currencies without a field above.
+		 */
+		public Balances balances ;
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[usd=" + usd + ", btc=" + btc + ", ltc=" + ltc + ", nmc="
+					+ nmc + ", rur=" + rur + ", eur=" + eur + ", nvc=" + nvc
+					+ ", trc=" + trc + ", ppc=" + ppc + ", ftc=" + ftc + ", cnc="
+					+ cnc + "]";
+		}
+	}
+	
+	/**
+	 * returned by the {@link #getInfo() getInfo} method. Note that due to a java name collision the JSON field return is named info.
+	 */
+	public static class Info extends Results {
+		@SerializedName("return")
+		public InfoReturn info ;
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Info [success=" + success + ", error=" + error + ", return=" + info + "]";
+		}
+
+	}	
+
+	/**
+	 * base class for all data structures returned by the API.
+	 */
+	public static class Results {
+		/**
+		 * can be either 0 or 1 depending on whether API was successful.
+		 */
+		public int success ;
+		
+		/**
+		 * if success is 0 then this will contain the details of the error.
+		 */
+		public String error = "" ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[success=" + success + ", error=" + error + "]";
+		}
+	}
+
+	/**
+	 * 
+	 */
+	public class InfoReturn {
+		public Funds funds ;
+		public Rights rights ;
+		public int transaction_count ;
+		public int open_orders ;
+		public long server_time ;
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[funds=" + funds + ", rights=" + rights
+					+ ", transaction_count=" + transaction_count + ", open_orders="
+					+ open_orders + ", server_time=" + server_time + "]";
+		}
+	}
+
+	/**
+	 * 
+	 */
+	public class Rights {
+		public int info, trade, withdraw ;
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[info=" + info + ", trade=" + trade + ", withdraw="
+					+ withdraw + "]";
+		}
+	}
+
+	/**
+	 * returned by the {@link #getTransactionHistory() getTransactionHistory} method. Note that due to a java name collision the JSON field return is named info.
+	 */
+	public static class TransactionHistory extends Results {
+		@SerializedName("return")
+		public TransactionHistoryReturn info ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "TransactionHistory [success=" + success + ", error=" + error + ", return=" + info + "]";
+		}
+	}
+
+	/**
+	 * 
+	 */
+	public class TransactionHistoryReturn {
+		public TransactionHistoryOrder[] transactions ;
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[transactions="+ Arrays.toString(transactions) + "]";
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public class TransactionHistoryOrder {
+		public long trans_id ;
+		public TransactionHistoryOrderDetails trans_details ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[trans_id=" + trans_id + ", trans_details="+ trans_details + "]";
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public class TransactionHistoryOrderDetails {
+		public int type ;
+		public double amount ;
+		public String currency ;
+		public String desc ;
+		public int status ;
+		public long timestamp ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[type=" + type + ", amount="
+					+ amount + ", currency=" + currency + ", desc=" + desc
+					+ ", status=" + status + ", timestamp=" + timestamp + "]";
+		}
+	}
+
+	/**
+	 * Decodes the transactions keyed by id in one pass.
+	 */
+	private class TransactionHistoryReturnAdapter extends IdMapAdapter<TransactionHistoryReturn,TransactionHistoryOrder> {
+		@Override
+		protected TransactionHistoryOrder readEntry(long id, JsonReader in) throws IOException {
+			TransactionHistoryOrder transaction = new TransactionHistoryOrder() ;
+			TransactionHistoryOrderDetails details = transaction.trans_details = new TransactionHistoryOrderDetails() ;
+			transaction.trans_id = id ;
+			in.beginObject() ;
+			while( in.hasNext() ) {
+				String name = in.nextName() ;
+				if( name.equals("type") ) details.type = in.nextInt() ;
+				else if( name.equals("amount") ) details.amount = in.nextDouble() ;
+				else if( name.equals("currency") ) details.currency = nextString(in) ;
+				else if( name.equals("desc") ) details.desc = nextString(in) ;
+				else if( name.equals("status") ) details.status = in.nextInt() ;
+				else if( name.equals("timestamp") ) details.timestamp = in.nextLong() ;
+				else in.skipValue() ;
+			}
+			in.endObject() ;
+			return transaction ;
+		}
+		
+		@Override
+		protected TransactionHistoryReturn create(List<TransactionHistoryOrder> transactions) {
+			TransactionHistoryReturn thr = new TransactionHistoryReturn() ;
+			thr.transactions = transactions.toArray(new TransactionHistoryOrder[transactions.size()]) ;
+			return thr ;
+		}
+		
+		@Override
+		protected TransactionHistoryOrder[] entries(TransactionHistoryReturn thr) {
+			return thr.transactions ;
+		}
+		
+		@Override
+		protected long id(TransactionHistoryOrder transaction) {
+			return transaction.trans_id ;
+		}
+		
+		@Override
+		protected void writeEntry(JsonWriter out,TransactionHistoryOrder transaction) throws IOException {
+			TransactionHistoryOrderDetails details = transaction.trans_details ;
+			out.beginObject() ;
+			if( details != null ) {
+				out.name("type").value(details.type) ;
+				out.name("amount").value(details.amount) ;
+				out.name("currency").value(details.currency) ;
+				out.name("desc").value(details.desc) ;
+				out.name("status").value(details.status) ;
+				out.name("timestamp").value(details.timestamp) ;
+			}
+			out.endObject() ;
+		}
+	}
+	
+	/**
+	 * returned by the {@link #getTradeHistory() getTradeHistory} method. Note that due to a java name collision the JSON field return is named info.
+	 */
+	public static class TradeHistory extends Results {
+		@SerializedName("return")
+		public TradeHistoryReturn info ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "TradeHistory [success=" + success + ", error=" + error + ", return=" + info + "]";
+		}
+
+	}
+
+	/**
+	 * 
+	 */
+	public class TradeHistoryReturn {
+		public TradeHistoryOrder[] trades ;
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[trades="+ Arrays.toString(trades) + "]";
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public class TradeHistoryOrder {
+		public long trans_id ;
+		public TradeHistoryOrderDetails trade_details ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[trans_id=" + trans_id + ", trade_details="+ trade_details + "]";
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public class TradeHistoryOrderDetails {
+		public String pair, type ;
+		public double amount, rate ;
+		public long order_id ;
+		public int is_your_order ;
+		public long timestamp ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[pair=" + pair + ", type=" + type
+					+ ", amount=" + amount + ", rate=" + rate + ", order_id="
+					+ order_id + ", is_your_order=" + is_your_order
+					+ ", timestamp=" + timestamp + "]";
+		}
+	}
+
+	/**
+	 * Decodes the trades keyed by id in one pass.
+	 */
+	private class TradeHistoryReturnAdapter extends IdMapAdapter<TradeHistoryReturn,TradeHistoryOrder> {
+		@Override
+		protected TradeHistoryOrder readEntry(long id, JsonReader in) throws IOException {
+			TradeHistoryOrder trade = new TradeHistoryOrder() ;
+			TradeHistoryOrderDetails details = trade.trade_details = new TradeHistoryOrderDetails() ;
+			trade.trans_id = id ;
+			in.beginObject() ;
+			while( in.hasNext() ) {
+				String name = in.nextName() ;
+				if( name.equals("pair") ) details.pair = nextString(in) ;
+				else if( name.equals("type") ) details.type = nextString(in) ;
+				else if( name.equals("amount") ) details.amount = in.nextDouble() ;
+				else if( name.equals("rate") ) details.rate = in.nextDouble() ;
+				else if( name.equals("order_id") ) details.order_id = in.nextLong() ;
+				else if( name.equals("is_your_order") ) details.is_your_order = in.nextInt() ;
+				else if( name.equals("timestamp") ) details.timestamp = in.nextLong() ;
+				else in.skipValue() ;
+			}
+			in.endObject() ;
+			return trade ;
+		}
+		
+		@Override
+		protected TradeHistoryReturn create(List<TradeHistoryOrder> trades) {
+			TradeHistoryReturn thr = new TradeHistoryReturn() ;
+			thr.trades = trades.toArray(new TradeHistoryOrder[trades.size()]) ;
+			return thr ;
+		}
+		
+		@Override
+		protected TradeHistoryOrder[] entries(TradeHistoryReturn thr) {
+			return thr.trades ;
+		}
+		
+		@Override
+		protected long id(TradeHistoryOrder trade) {
+			return trade.trans_id ;
+		}
+		
+		@Override
+		protected void writeEntry(JsonWriter out,TradeHistoryOrder trade) throws IOException {
+			TradeHistoryOrderDetails details = trade.trade_details ;
+			out.beginObject() ;
+			if( details != null ) {
+				out.name("pair").value(details.pair) ;
+				out.name("type").value(details.type) ;
+				out.name("amount").value(details.amount) ;
+				out.name("rate").value(details.rate) ;
+				out.name("order_id").value(details.order_id) ;
+				out.name("is_your_order").value(details.is_your_order) ;
+				out.name("timestamp").value(details.timestamp) ;
+			}
+			out.endObject() ;
+		}
+	}
+	
+	/**
+	 * returned by the {@link #getOrderList() getOrderList} method. Note that due to a java name collision the JSON field return is named info.
+	 */
+	public static class OrderList extends Results {
+		@SerializedName("return")
+		public OrderListReturn info ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			 return "OrderList [success=" + success + ", error=" + error + ", return=" + info + "]";			
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public class OrderListReturn {
+		public OrderListOrder[] orders ;
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[orders="+ Arrays.toString(orders) + "]";
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public class OrderListOrder {
+		public long order_id ;
+		public OrderListOrderDetails order_details ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[order_id=" + order_id + ", order_details="	+ order_details + "]";
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public class OrderListOrderDetails {
+		public String pair ;
+		public String type ;
+		public double amount ;
+		public double rate ;
+		public int status ;
+		public long timestamp ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[pair=" + pair + ", type=" + type
+					+ ", amount=" + amount + ", rate=" + rate + ", status="
+					+ status + ", timestamp=" + timestamp + "]";
+		}
+	}
+	
+	/**
+	 * Decodes the orders keyed by id in one pass.
+	 */
+	private class OrderListReturnAdapter extends IdMapAdapter<OrderListReturn,OrderListOrder> {
+		@Override
+		protected OrderListOrder readEntry(long id, JsonReader in) throws IOException {
+			OrderListOrder order = new OrderListOrder() ;
+			OrderListOrderDetails details = order.order_details = new OrderListOrderDetails() ;
+			order.order_id = id ;
+			in.beginObject() ;
+			while( in.hasNext() ) {
+				String name = in.nextName() ;
+				if( name.equals("pair") ) details.pair = nextString(in) ;
+				else if( name.equals("type") ) details.type = nextString(in) ;
+				else if( name.equals("amount") ) details.amount = in.nextDouble() ;
+				else if( name.equals("rate") ) details.rate = in.nextDouble() ;
+				else if( name.equals("status") ) details.status = in.nextInt() ;
+				else if( name.equals("timestamp") || name.equals("timestamp_created") ) details.timestamp = in.nextLong() ;
+				else in.skipValue() ;
+			}
+			in.endObject() ;
+			return order ;
+		}
+		
+		@Override
+		protected OrderListReturn create(List<OrderListOrder> orders) {
+			OrderListReturn olr = new OrderListReturn() ;
+			olr.orders = orders.toArray(new OrderListOrder[orders.size()]) ;
+			return olr ;
+		}
+		
+		@Override
+		protected OrderListOrder[] entries(OrderListReturn olr) {
+			return olr.orders ;
+		}
+		
+		@Override
+		protected long id(OrderListOrder order) {
+			return order.order_id ;
+		}
+		
+		@Override
+		protected void writeEntry(JsonWriter out,OrderListOrder order) throws IOException {
+			OrderListOrderDetails details = order.order_details ;
+			out.beginObject() ;
+			if( details != null ) {
+				out.name("pair").value(details.pair) ;
+				out.name("type").value(details.type) ;
+				out.name("amount").value(details.amount) ;
+				out.name("rate").value(details.rate) ;
+				out.name("timestamp_created").value(details.timestamp) ;
+				out.name("status").value(details.status) ;
+			}
+			out.endObject() ;
+		}
+	}
+	
+	/**
+	 * Base of the adapters for the authenticated results that are objects keyed by id.  Anything other than an object 
+	 * decodes to an empty result, as the exchange sends an empty array when there is nothing to return.  Results are written 
+	 * back as an object keyed by id.
+	 */
+	private static abstract class IdMapAdapter<T,O> extends TypeAdapter<T> {
+		
+		protected abstract O readEntry(long id, JsonReader in) throws IOException ;
+		
+		protected abstract T create(List<O> entries) ;
+		
+		protected abstract O[] entries(T value) ;
+		
+		protected abstract long id(O entry) ;
+		
+		/**
+		 * Writes the object the entry's id maps to.
+		 */
+		protected abstract void writeEntry(JsonWriter out,O entry) throws IOException ;
+		
+		@Override
+		public T read(JsonReader in) throws IOException {
+			List<O> entries = new ArrayList<O>() ;
+			if( in.peek() == JsonToken.BEGIN_OBJECT ) {
+				in.beginObject() ;
+				while( in.hasNext() ) entries.add(readEntry(Long.parseLong(in.nextName()),in)) ;
+				in.endObject() ;
+			} else in.skipValue() ;
+			return create(entries) ;
+		}
+		
+		protected static String nextString(JsonReader in) throws IOException {
+			if( in.peek() != JsonToken.NULL ) return in.nextString() ;
+			in.nextNull() ;
+			return null ;
+		}
+		
+		@Override
+		public void write(JsonWriter out, T value) throws IOException {
+			if( value == null ) {
+				out.nullValue() ;
+				return ;
+			}
+			out.beginObject() ;
+			O[] entries = entries(value) ;
+			for(int i=0;entries != null && i<entries.length;i++) {
+				out.name(Long.toString(id(entries[i]))) ;
+				writeEntry(out,entries[i]) ;
+			}
+			out.endObject() ;
+		}
+	}
+	
+	/**
+	 * returned by the {@link #trade(String,String,double,double) trade} method. Note that due to a java name collision the JSON field return is named info.
+	 */
+	public static class Trade extends Results {
+		@SerializedName("return")
+		public TradeReturn info ;
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Trade [success=" + success + ", error=" + error + ", return=" + info + "]";
+		}
+	}
+	
+	/**
+	 * 
+	 */
+	public class TradeReturn {
+		public double received ;
+		public double remains ;
+		public long order_id ;
+		public Funds funds ;
 		
 		/*
 		 * (non-Javadoc)
@@ -729,186 +2906,900 @@ public class BTCE {
 		 */
 		@Override
 		public String toString() {
-			return "[pair=" + pair + ", type=" + type
-					+ ", amount=" + amount + ", rate=" + rate + ", order_id="
-					+ order_id + ", is_your_order=" + is_your_order
-					+ ", timestamp=" + timestamp + "]";
+			return "[received=" + received + ", remains=" + remains	+ ", order_id=" + order_id + ", funds=" + funds + "]";
 		}
 	}
+	
+	/**
+	 * returned by the {@link #cancelOrder(long) cancelOrder} method. Note that due to a java name collision the JSON field return is named info.
+	 */
+	public static class CancelOrder extends Results {
+		
+		@SerializedName("return")
+		public CancelOrderReturn info ;
 
-	private class TradeHistoryReturnDeserializer implements JsonDeserializer<TradeHistoryReturn> {
-		  public TradeHistoryReturn deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-			  TradeHistoryReturn thr = new TradeHistoryReturn() ;
-			  List<TradeHistoryOrder> trades = new ArrayList<TradeHistoryOrder>() ;
-			  if( json.isJsonObject() ) {
-				  JsonObject o = json.getAsJsonObject() ;
-				  Iterator<Entry<String,JsonElement>> iter = o.entrySet().iterator() ;
-				  while(iter.hasNext()) {
-					  Entry<String,JsonElement> jsonOrder = iter.next();
-					  TradeHistoryOrder trade = new TradeHistoryOrder() ;
-					  trade.trans_id = Long.parseLong(jsonOrder.getKey()) ;
-					  trade.trade_details = context.deserialize(jsonOrder.getValue(),TradeHistoryOrderDetails.class) ;
-					  trades.add(trade) ;
-				  }
-			  }
-			  thr.trades = trades.toArray(new TradeHistoryOrder[0]) ;
-			  return thr ;
-		  }
+		/*
+		 * (non-Javadoc)
+		 * @see com.abwaters.btce.BTCE.Results#toString()
+		 */
+		@Override
+		public String toString() {
+			return "CancelOrder [success=" + success + ", error=" + error + ", return=" + info + "]";
+		}
 	}
 	
 	/**
-	 * returned by the {@link #getOrderList() getOrderList} method. Note that due to a java name collision the JSON field return is named info.
+	 * 
 	 */
-	public static class OrderList extends Results {
-		@SerializedName("return")
-		public OrderListReturn info ;
+	public class CancelOrderReturn {
+		public long order_id ;
+		public Funds funds ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "[order_id=" + order_id + ", funds="
+					+ funds + "]";
+		}
+	}
+
+	/**
+	 * Currency pair helper class.
+	 */
+	public static final class Pairs {
+		public static final String BTC_USD = "btc_usd" ;
+		public static final String BTC_RUR = "btc_rur" ;
+		public static final String BTC_EUR = "btc_eur" ;
+		public static final String LTC_BTC = "ltc_btc" ;
+		public static final String LTC_USD = "ltc_usd" ;
+		public static final String LTC_RUR = "ltc_rur" ;
+		public static final String LTC_EUR = "ltc_eur" ;
+		public static final String NMC_BTC = "nmc_btc" ;
+		public static final String NMC_USD = "nmc_usd" ;
+		public static final String NVC_BTC = "nvc_btc" ;
+		public static final String NVC_USD = "nvc_usd" ;
+		public static final String TRC_BTC = "trc_btc" ;
+		public static final String PPC_BTC = "ppc_btc" ;
+		public static final String FTC_BTC = "ftc_btc" ;
+		public static final String USD_RUR = "usd_rur" ;
+		public static final String EUR_USD = "eur_usd" ;
+	}
+
+	/**
+	 * Trade type helper class.
+	 *
+	 */
+	public static class TradeType {
+		public static final String BUY = "buy" ;
+		public static final String SELL = "sell" ;
+	}
+	
+	/**
+	 * 
+	 */
+	public static class TransactionType {
+		public static final int DEPOSIT = 0 ;
+		public static final int WITHDRAW = 1 ;	// ?
+		public static final int ORDER_CANCEL = 4 ;
+		public static final int ORDER_SELL = 5 ;
+	}
+	
+	/**
+	 * 
+	 */
+	public static class OrderStatus {
+		public static final int ACTIVE = 0 ;
+		public static final int FILLED = 1 ;
+		public static final int CANCELED = 2 ;
+		public static final int PARTIALLY_FILLED = 3 ;
+	}
+
+	/**
+	 * returned by the {@link #getDepth(String) getDepth} method.  Each side is held in parallel arrays of prices and amounts,
+	 * the asks sorted by ascending price and the bids by descending price, so the best prices are at index 0.
+	 */
+	public static class Depth {
+		public double[] ask_prices, ask_amounts ;
+		public double[] bid_prices, bid_amounts ;
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Depth [asks=" + ask_prices.length + ", bids=" + bid_prices.length 
+					+ ", ask=" + (ask_prices.length > 0 ? ask_amounts[0] + "@" + ask_prices[0] : "none")
+					+ ", bid=" + (bid_prices.length > 0 ? bid_amounts[0] + "@" + bid_prices[0] : "none") + "]";
+		}
+	}
+	
+	/**
+	 * Sorts the first <code>n</code> levels by price, best first, keeping each amount with its price.  The levels normally 
+	 * arrive sorted, so this is a single pass unless some are out of place.
+	 * 
+	 * @param direction 1 for asks, whose prices ascend, -1 for bids, whose prices descend.
+	 */
+	private static void sortLevels(double[] prices,double[] amounts,int n,int direction) {
+		for(int i=1;i<n;i++) {
+			double price = prices[i], amount = amounts[i] ;
+			int j = i ;
+			for(;j > 0 && Double.compare(prices[j-1],price)*direction > 0;j--) {
+				prices[j] = prices[j-1] ;
+				amounts[j] = amounts[j-1] ;
+			}
+			prices[j] = price ;
+			amounts[j] = amount ;
+		}
+	}
+	
+	/**
+	 * Decodes the depth straight into primitive arrays, with the asks ascending and the bids descending in price.
+	 */
+	private static class DepthAdapter extends TypeAdapter<Depth> {
+		private static final double[] EMPTY = new double[0] ;
+		
+		@Override
+		public Depth read(JsonReader in) throws IOException {
+			if( in.peek() == JsonToken.NULL ) {
+				in.nextNull() ;
+				return null ;
+			}
+			Depth depth = new Depth() ;
+			depth.ask_prices = depth.ask_amounts = depth.bid_prices = depth.bid_amounts = EMPTY ;
+			in.beginObject() ;
+			while( in.hasNext() ) {
+				String name = in.nextName() ;
+				if( name.equals("asks") ) {
+					double[][] side = readLevels(in,1) ;
+					depth.ask_prices = side[0] ;
+					depth.ask_amounts = side[1] ;
+				} else if( name.equals("bids") ) {
+					double[][] side = readLevels(in,-1) ;
+					depth.bid_prices = side[0] ;
+					depth.bid_amounts = side[1] ;
+				} else in.skipValue() ;
+			}
+			in.endObject() ;
+			return depth ;
+		}
+		
+		private double[][] readLevels(JsonReader in,int direction) throws IOException {
+			double[] prices = new double[64], amounts = new double[64] ;
+			int n = 0 ;
+			if( in.peek() != JsonToken.BEGIN_ARRAY ) {
+				in.skipValue() ;
+				return new double[][] { EMPTY, EMPTY } ;
+			}
+			in.beginArray() ;
+			while( in.hasNext() ) {
+				if( n == prices.length ) {
+					prices = Arrays.copyOf(prices,n*2) ;
+					amounts = Arrays.copyOf(amounts,n*2) ;
+				}
+				in.beginArray() ;
+				prices[n] = in.nextDouble() ;
+				amounts[n] = in.nextDouble() ;
+				while( in.hasNext() ) in.skipValue() ;
+				in.endArray() ;
+				n++ ;
+			}
+			in.endArray() ;
+			sortLevels(prices,amounts,n,direction) ;
+			return new double[][] { Arrays.copyOf(prices,n), Arrays.copyOf(amounts,n) } ;
+		}
+
+		@Override
+		public void write(JsonWriter out, Depth depth) throws IOException {
+			if( depth == null ) {
+				out.nullValue() ;
+				return ;
+			}
+			out.beginObject() ;
+			out.name("asks") ;
+			writeLevels(out,depth.ask_prices,depth.ask_amounts) ;
+			out.name("bids") ;
+			writeLevels(out,depth.bid_prices,depth.bid_amounts) ;
+			out.endObject() ;
+		}
+		
+		private void writeLevels(JsonWriter out,double[] prices,double[] amounts) throws IOException {
+			out.beginArray() ;
+			for(int i=0;prices != null && i<prices.length;i++) {
+				out.beginArray() ;
+				out.value(prices[i]) ;
+				out.value(amounts[i]) ;
+				out.endArray() ;
+			}
+			out.endArray() ;
+		}
+	}
+	
+	/**
+	 * Hands out codes for names, counting up from 0 in the order the names are first seen.
+	 */
+	private static final class Registry {
+		private final ConcurrentMap<String,Integer> codes = new ConcurrentHashMap<String,Integer>() ;
+		private volatile String[] names = new String[0] ;
+		
+		private int code(String name) {
+			Integer code = codes.get(name) ;
+			if( code != null ) return code ;
+			synchronized(this) {
+				code = codes.get(name) ;
+				if( code != null ) return code ;
+				String[] n = Arrays.copyOf(names,names.length+1) ;
+				n[names.length] = name ;
+				names = n ;
+				codes.put(name,names.length-1) ;
+				return names.length-1 ;
+			}
+		}
+		
+		/**
+		 * Returns the code for the name, null if it hasn't been seen.
+		 */
+		private Integer find(String name) {
+			return codes.get(name) ;
+		}
+		
+		private String name(int code) {
+			return names[code] ;
+		}
+	}
+	
+	/**
+	 * Interned codes for the pairs and order types in the columnar results.  A code stays the same for the life 
+	 * of the process, so codes from different results can be compared directly.
+	 */
+	public static final class Symbols {
+		private static final Registry registry = new Registry() ;
+		
+		private Symbols() {
+		}
+		
+		/**
+		 * Returns the code for the name, assigning the next code if the name hasn't been seen before.
+		 */
+		public static int code(String name) {
+			return registry.code(name) ;
+		}
+		
+		/**
+		 * Returns the name for a code returned by {@link #code(String)}.
+		 */
+		public static String name(int code) {
+			return registry.name(code) ;
+		}
+	}
+	
+	/**
+	 * Interned codes for the currencies, kept apart from the {@link Symbols} so they stay dense and can index the 
+	 * {@link Balances} directly.  Like the symbols, a code stays the same for the life of the process.
+	 */
+	public static final class Currencies {
+		private static final Registry registry = new Registry() ;
+		
+		private Currencies() {
+		}
+		
+		/**
+		 * Returns the code for the currency, assigning the next code if the currency hasn't been seen before.
+		 */
+		public static int code(String name) {
+			return registry.code(name) ;
+		}
+		
+		/**
+		 * Returns the currency for a code returned by {@link #code(String)}.
+		 */
+		public static String name(int code) {
+			return registry.name(code) ;
+		}
+	}
+	
+	/**
+	 * Base of the columnar results.  Row i of the result is made up of element i of each of the arrays, and every array has 
+	 * exactly {@link #size} elements.
+	 */
+	public static abstract class Columns extends Results {
+		public int size ;
+		public long[] ids = EMPTY_LONGS ;
+		
+		protected abstract void resize(int capacity) ;
+		
+		void ensureCapacity(int capacity) {
+			if( capacity > ids.length ) resize(Math.max(16,ids.length*2)) ;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return getClass().getSimpleName()+" [success=" + success + ", error=" + error + ", size=" + size + "]";
+		}
+	}
+	
+	private static final long[] EMPTY_LONGS = new long[0] ;
+	private static final int[] EMPTY_INTS = new int[0] ;
+	private static final double[] EMPTY_DOUBLES = new double[0] ;
+	
+	/**
+	 * Columnar form of the transaction history returned by {@link #getTransactionHistoryColumns(int, int, long, long, String, long, long) getTransactionHistoryColumns}.
+	 * The ids are the transaction ids and the currencies are {@link Currencies} codes.
+	 */
+	public static class TransactionColumns extends Columns {
+		public int[] types = EMPTY_INTS ;
+		public double[] amounts = EMPTY_DOUBLES ;
+		public int[] currencies = EMPTY_INTS ;
+		public String[] descs = new String[0] ;
+		public int[] statuses = EMPTY_INTS ;
+		public long[] timestamps = EMPTY_LONGS ;
+		
+		public String getCurrency(int row) {
+			return Currencies.name(currencies[row]) ;
+		}
+		
+		@Override
+		protected void resize(int capacity) {
+			ids = Arrays.copyOf(ids,capacity) ;
+			types = Arrays.copyOf(types,capacity) ;
+			amounts = Arrays.copyOf(amounts,capacity) ;
+			currencies = Arrays.copyOf(currencies,capacity) ;
+			descs = Arrays.copyOf(descs,capacity) ;
+			statuses = Arrays.copyOf(statuses,capacity) ;
+			timestamps = Arrays.copyOf(timestamps,capacity) ;
+		}
+	}
+	
+	/**
+	 * Columnar form of the trade history returned by {@link #getTradeHistoryColumns(int, int, long, long, String, long, long, String) getTradeHistoryColumns}.
+	 * The ids are the transaction ids and the pairs and types are {@link Symbols} codes.
+	 */
+	public static class TradeColumns extends Columns {
+		public int[] pairs = EMPTY_INTS ;
+		public int[] types = EMPTY_INTS ;
+		public double[] amounts = EMPTY_DOUBLES ;
+		public double[] rates = EMPTY_DOUBLES ;
+		public long[] order_ids = EMPTY_LONGS ;
+		public boolean[] your_orders = new boolean[0] ;
+		public long[] timestamps = EMPTY_LONGS ;
+		
+		public String getPair(int row) {
+			return Symbols.name(pairs[row]) ;
+		}
+		
+		public String getType(int row) {
+			return Symbols.name(types[row]) ;
+		}
+		
+		@Override
+		protected void resize(int capacity) {
+			ids = Arrays.copyOf(ids,capacity) ;
+			pairs = Arrays.copyOf(pairs,capacity) ;
+			types = Arrays.copyOf(types,capacity) ;
+			amounts = Arrays.copyOf(amounts,capacity) ;
+			rates = Arrays.copyOf(rates,capacity) ;
+			order_ids = Arrays.copyOf(order_ids,capacity) ;
+			your_orders = Arrays.copyOf(your_orders,capacity) ;
+			timestamps = Arrays.copyOf(timestamps,capacity) ;
+		}
+	}
+	
+	/**
+	 * Columnar form of the orders returned by {@link #getActiveOrderColumns(String) getActiveOrderColumns}.  The ids are 
+	 * the order ids and the pairs and types are {@link Symbols} codes.
+	 */
+	public static class OrderColumns extends Columns {
+		public int[] pairs = EMPTY_INTS ;
+		public int[] types = EMPTY_INTS ;
+		public double[] amounts = EMPTY_DOUBLES ;
+		public double[] rates = EMPTY_DOUBLES ;
+		public int[] statuses = EMPTY_INTS ;
+		public long[] timestamps = EMPTY_LONGS ;
+		
+		public String getPair(int row) {
+			return Symbols.name(pairs[row]) ;
+		}
+		
+		public String getType(int row) {
+			return Symbols.name(types[row]) ;
+		}
+		
+		@Override
+		protected void resize(int capacity) {
+			ids = Arrays.copyOf(ids,capacity) ;
+			pairs = Arrays.copyOf(pairs,capacity) ;
+			types = Arrays.copyOf(types,capacity) ;
+			amounts = Arrays.copyOf(amounts,capacity) ;
+			rates = Arrays.copyOf(rates,capacity) ;
+			statuses = Arrays.copyOf(statuses,capacity) ;
+			timestamps = Arrays.copyOf(timestamps,capacity) ;
+		}
+	}
+	
+	/**
+	 * Decodes a whole authenticated response into columns in one pass.  The rows of the return object are keyed by id and 
+	 * each field of a row is handed to {@link #readField} as it is reached.  Writing gives back the response in the same form.
+	 */
+	private static abstract class ColumnsAdapter<T extends Columns> extends TypeAdapter<T> {
+		
+		protected abstract T create() ;
+		
+		protected abstract void readField(JsonReader in,T columns,int row,String name) throws IOException ;
+		
+		/**
+		 * Writes the fields of the row, without the id.
+		 */
+		protected abstract void writeFields(JsonWriter out,T columns,int row) throws IOException ;
+		
+		@Override
+		public T read(JsonReader in) throws IOException {
+			if( in.peek() == JsonToken.NULL ) {
+				in.nextNull() ;
+				return null ;
+			}
+			T columns = create() ;
+			in.beginObject() ;
+			while( in.hasNext() ) {
+				String name = in.nextName() ;
+				if( name.equals("success") ) columns.success = in.nextInt() ;
+				else if( name.equals("error") ) columns.error = in.nextString() ;
+				else if( name.equals("return") && in.peek() == JsonToken.BEGIN_OBJECT ) readRows(in,columns) ;
+				else in.skipValue() ;
+			}
+			in.endObject() ;
+			if( columns.ids.length != columns.size ) columns.resize(columns.size) ;
+			return columns ;
+		}
+		
+		private void readRows(JsonReader in,T columns) throws IOException {
+			in.beginObject() ;
+			while( in.hasNext() ) {
+				int row = columns.size ;
+				columns.ensureCapacity(row+1) ;
+				columns.ids[row] = Long.parseLong(in.nextName()) ;
+				in.beginObject() ;
+				while( in.hasNext() ) readField(in,columns,row,in.nextName()) ;
+				in.endObject() ;
+				columns.size++ ;
+			}
+			in.endObject() ;
+		}
+		
+		@Override
+		public void write(JsonWriter out,T columns) throws IOException {
+			if( columns == null ) {
+				out.nullValue() ;
+				return ;
+			}
+			out.beginObject() ;
+			out.name("success").value(columns.success) ;
+			if( columns.error != null && columns.error.length() > 0 ) out.name("error").value(columns.error) ;
+			if( columns.success != 0 ) {
+				out.name("return").beginObject() ;
+				for(int row=0;row<columns.size;row++) {
+					out.name(Long.toString(columns.ids[row])).beginObject() ;
+					writeFields(out,columns,row) ;
+					out.endObject() ;
+				}
+				out.endObject() ;
+			}
+			out.endObject() ;
+		}
+	}
+	
+	private static class TransactionColumnsAdapter extends ColumnsAdapter<TransactionColumns> {
+		@Override
+		protected TransactionColumns create() {
+			return new TransactionColumns() ;
+		}
+		
+		@Override
+		protected void readField(JsonReader in,TransactionColumns c,int row,String name) throws IOException {
+			if( name.equals("type") ) c.types[row] = in.nextInt() ;
+			else if( name.equals("amount") ) c.amounts[row] = in.nextDouble() ;
+			else if( name.equals("currency") ) c.currencies[row] = Currencies.code(in.nextString()) ;
+			else if( name.equals("desc") ) c.descs[row] = in.nextString() ;
+			else if( name.equals("status") ) c.statuses[row] = in.nextInt() ;
+			else if( name.equals("timestamp") ) c.timestamps[row] = in.nextLong() ;
+			else in.skipValue() ;
+		}
 		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
 		@Override
-		public String toString() {
-			 return "OrderList [success=" + success + ", error=" + error + ", return=" + info + "]";			
+		protected void writeFields(JsonWriter out,TransactionColumns c,int row) throws IOException {
+			out.name("type").value(c.types[row]) ;
+			out.name("amount").value(c.amounts[row]) ;
+			out.name("currency").value(c.getCurrency(row)) ;
+			out.name("desc").value(c.descs[row]) ;
+			out.name("status").value(c.statuses[row]) ;
+			out.name("timestamp").value(c.timestamps[row]) ;
 		}
 	}
 	
-	/**
-	 * 
-	 */
-	public class OrderListReturn {
-		public OrderListOrder[] orders ;
-
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
+	private static class TradeColumnsAdapter extends ColumnsAdapter<TradeColumns> {
 		@Override
-		public String toString() {
-			return "[orders="+ Arrays.toString(orders) + "]";
+		protected TradeColumns create() {
+			return new TradeColumns() ;
+		}
+		
+		@Override
+		protected void readField(JsonReader in,TradeColumns c,int row,String name) throws IOException {
+			if( name.equals("pair") ) c.pairs[row] = Symbols.code(in.nextString()) ;
+			else if( name.equals("type") ) c.types[row] = Symbols.code(in.nextString()) ;
+			else if( name.equals("amount") ) c.amounts[row] = in.nextDouble() ;
+			else if( name.equals("rate") ) c.rates[row] = in.nextDouble() ;
+			else if( name.equals("order_id") ) c.order_ids[row] = in.nextLong() ;
+			else if( name.equals("is_your_order") ) c.your_orders[row] = in.nextInt() != 0 ;
+			else if( name.equals("timestamp") ) c.timestamps[row] = in.nextLong() ;
+			else in.skipValue() ;
+		}
+		
+		@Override
+		protected void writeFields(JsonWriter out,TradeColumns c,int row) throws IOException {
+			out.name("pair").value(c.getPair(row)) ;
+			out.name("type").value(c.getType(row)) ;
+			out.name("amount").value(c.amounts[row]) ;
+			out.name("rate").value(c.rates[row]) ;
+			out.name("order_id").value(c.order_ids[row]) ;
+			out.name("is_your_order").value(c.your_orders[row] ? 1 : 0) ;
+			out.name("timestamp").value(c.timestamps[row]) ;
 		}
 	}
 	
-	/**
-	 * 
-	 */
-	public class OrderListOrder {
-		public long order_id ;
-		public OrderListOrderDetails order_details ;
+	private static class OrderColumnsAdapter extends ColumnsAdapter<OrderColumns> {
+		@Override
+		protected OrderColumns create() {
+			return new OrderColumns() ;
+		}
 		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
 		@Override
-		public String toString() {
-			return "[order_id=" + order_id + ", order_details="	+ order_details + "]";
+		protected void readField(JsonReader in,OrderColumns c,int row,String name) throws IOException {
+			if( name.equals("pair") ) c.pairs[row] = Symbols.code(in.nextString()) ;
+			else if( name.equals("type") ) c.types[row] = Symbols.code(in.nextString()) ;
+			else if( name.equals("amount") ) c.amounts[row] = in.nextDouble() ;
+			else if( name.equals("rate") ) c.rates[row] = in.nextDouble() ;
+			else if( name.equals("status") ) c.statuses[row] = in.nextInt() ;
+			else if( name.equals("timestamp_created") || name.equals("timestamp") ) c.timestamps[row] = in.nextLong() ;
+			else in.skipValue() ;
+		}
+		
+		@Override
+		protected void writeFields(JsonWriter out,OrderColumns c,int row) throws IOException {
+			out.name("pair").value(c.getPair(row)) ;
+			out.name("type").value(c.getType(row)) ;
+			out.name("amount").value(c.amounts[row]) ;
+			out.name("rate").value(c.rates[row]) ;
+			out.name("timestamp_created").value(c.timestamps[row]) ;
+			out.name("status").value(c.statuses[row]) ;
 		}
 	}
 	
 	/**
-	 * 
+	 * Decodes the funds into {@link Balances} and fills in the fields of the currencies {@link Funds} knows about.
 	 */
-	public class OrderListOrderDetails {
-		public String pair ;
-		public String type ;
-		public double amount ;
-		public double rate ;
-		public int status ;
-		public long timestamp ;
+	private class FundsAdapter extends TypeAdapter<Funds> {
+		@Override
+		public Funds read(JsonReader in) throws IOException {
+			if( in.peek() == JsonToken.NULL ) {
+				in.nextNull() ;
+				return null ;
+			}
+			Funds funds = new Funds() ;
+			int[] currencies = new int[16] ;
+			double[] amounts = new double[16] ;
+			int n = 0 ;
+			in.beginObject() ;
+			while( in.hasNext() ) {
+				String name = in.nextName() ;
+				double amount = in.nextDouble() ;
+				int currency = Currencies.code(name) ;
+				if( n == currencies.length ) currencies = Arrays.copyOf(currencies,n*2) ;
+				if( currency >= amounts.length ) amounts = Arrays.copyOf(amounts,Math.max(currency+1,amounts.length*2)) ;
+				currencies[n++] = currency ;
+				amounts[currency] = amount ;
+				switch( name ) {
+				case "usd": funds.usd = amount ; break ;
+				case "btc": funds.btc = amount ; break ;
+				case "ltc": funds.ltc = amount ; break ;
+				case "nmc": funds.nmc = amount ; break ;
+				case "rur": funds.rur = amount ; break ;
+				case "eur": funds.eur = amount ; break ;
+				case "nvc": funds.nvc = amount ; break ;
+				case "trc": funds.trc = amount ; break ;
+				case "ppc": funds.ppc = amount ; break ;
+				case "ftc": funds.ftc = amount ; break ;
+				case "cnc": funds.cnc = amount ; break ;
+				}
+			}
+			in.endObject() ;
+			funds.balances = new Balances(Arrays.copyOf(currencies,n),amounts) ;
+			return funds ;
+		}
 		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
 		@Override
-		public String toString() {
-			return "[pair=" + pair + ", type=" + type
-					+ ", amount=" + amount + ", rate=" + rate + ", status="
-					+ status + ", timestamp=" + timestamp + "]";
+		public void write(JsonWriter out,Funds funds) throws IOException {
+			if( funds == null ) {
+				out.nullValue() ;
+				return ;
+			}
+			out.beginObject() ;
+			Balances balances = funds.balances ;
+			if( balances != null ) {
+				for(int n=0;n<balances.size();n++) {
+					int currency = balances.getCurrency(n) ;
+					out.name(Currencies.name(currency)).value(balances.get(currency)) ;
+				}
+			} else {
+				// built by hand, only the fields are set
+				out.name("usd").value(funds.usd) ;
+				out.name("btc").value(funds.btc) ;
+				out.name("ltc").value(funds.ltc) ;
+				out.name("nmc").value(funds.nmc) ;
+				out.name("rur").value(funds.rur) ;
+				out.name("eur").value(funds.eur) ;
+				out.name("nvc").value(funds.nvc) ;
+				out.name("trc").value(funds.trc) ;
+				out.name("ppc").value(funds.ppc) ;
+				out.name("ftc").value(funds.ftc) ;
+				out.name("cnc").value(funds.cnc) ;
+			}
+			out.endObject() ;
 		}
 	}
 	
-	private class OrderListReturnDeserializer implements JsonDeserializer<OrderListReturn> {
-		  public OrderListReturn deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-			  OrderListReturn olr = new OrderListReturn() ;
-			  List<OrderListOrder> orders = new ArrayList<OrderListOrder>() ;
-			  if( json.isJsonObject() ) {
-				  JsonObject o = json.getAsJsonObject() ;
-				  Iterator<Entry<String,JsonElement>> iter = o.entrySet().iterator() ;
-				  while(iter.hasNext()) {
-					  Entry<String,JsonElement> jsonOrder = iter.next();
-					  OrderListOrder order = new OrderListOrder() ;
-					  order.order_id = Long.parseLong(jsonOrder.getKey()) ;
-					  order.order_details = context.deserialize(jsonOrder.getValue(),OrderListOrderDetails.class) ;
-					  orders.add(order) ;
-				  }
-			  }
-			  olr.orders = orders.toArray(new OrderListOrder[0]) ;
-			  return olr ;
-		  }
+	private static class TickerMap extends LinkedHashMap<String,Ticker> {
+		private static final long serialVersionUID = 1L;
 	}
 	
-	/**
-	 * returned by the {@link #trade(String,String,double,double) trade} method. Note that due to a java name collision the JSON field return is named info.
-	 */
-	public static class Trade extends Results {
-		@SerializedName("return")
-		public TradeReturn info ;
-
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
-		 */
-		@Override
-		public String toString() {
-			return "Trade [success=" + success + ", error=" + error + ", return=" + info + "]";
-		}
+	private static class TradesMap extends LinkedHashMap<String,TradesDetail[]> {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	private static class DepthMap extends LinkedHashMap<String,Depth> {
+		private static final long serialVersionUID = 1L;
 	}
 	
 	/**
-	 * 
+	 * Decodes the version 3 public API results, which are objects keyed by pair, in one pass.  Each value is handed to the 
+	 * adapter for its type as it is reached.  Trades are decoded here since version 3 names their fields differently.
 	 */
-	public class TradeReturn {
-		public double received ;
-		public double remains ;
-		public long order_id ;
-		public Funds funds ;
+	private abstract class PairMapAdapter<T> extends TypeAdapter<Map<String,T>> {
+		private final Class<T> value_type ;
 		
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Object#toString()
+		private PairMapAdapter(Class<T> value_type) {
+			this.value_type = value_type ;
+		}
+		
+		/**
+		 * Creates the map the pairs are read into, of the type the adapter is registered for.
 		 */
+		abstract Map<String,T> newMap() ;
+		
 		@Override
-		public String toString() {
-			return "[received=" + received + ", remains=" + remains	+ ", order_id=" + order_id + ", funds=" + funds + "]";
+		@SuppressWarnings("unchecked")
+		public Map<String,T> read(JsonReader in) throws IOException {
+			if( in.peek() == JsonToken.NULL ) {
+				in.nextNull() ;
+				return null ;
+			}
+			Map<String,T> map = newMap() ;
+			in.beginObject() ;
+			while( in.hasNext() ) {
+				String pair = in.nextName() ;
+				if( pair.equals("error") ) throw new JsonParseException(in.nextString()) ;
+				if( in.peek() != JsonToken.BEGIN_OBJECT && in.peek() != JsonToken.BEGIN_ARRAY ) {
+					in.skipValue() ;
+					continue ;
+				}
+				T value = value_type == TradesDetail[].class ? (T)readTrades(in,pair) : gson.getAdapter(value_type).read(in) ;
+				map.put(pair,value) ;
+			}
+			in.endObject() ;
+			return map ;
 		}
-	}
-	
-	/**
-	 * returned by the {@link #cancelOrder(int) cancelOrder} method. Note that due to a java name collision the JSON field return is named info.
-	 */
-	public static class CancelOrder extends Results {
 		
-		@SerializedName("return")
-		public CancelOrderReturn info ;
+		private TradesDetail[] readTrades(JsonReader in,String pair) throws IOException {
+			int sep = pair.indexOf('_') ;
+			String item = sep > 0 ? pair.substring(0,sep) : pair ;
+			String price_currency = sep > 0 ? pair.substring(sep+1) : "" ;
+			List<TradesDetail> trades = new ArrayList<TradesDetail>() ;
+			in.beginArray() ;
+			while( in.hasNext() ) {
+				TradesDetail trade = new TradesDetail() ;
+				trade.item = item ;
+				trade.price_currency = price_currency ;
+				in.beginObject() ;
+				while( in.hasNext() ) {
+					String name = in.nextName() ;
+					if( name.equals("type") ) trade.trade_type = in.nextString() ;
+					else if( name.equals("price") ) trade.price = in.nextDouble() ;
+					else if( name.equals("amount") ) trade.amount = in.nextDouble() ;
+					else if( name.equals("tid") ) trade.tid = in.nextLong() ;
+					else if( name.equals("timestamp") ) trade.date = in.nextLong() ;
+					else in.skipValue() ;
+				}
+				in.endObject() ;
+				trades.add(trade) ;
+			}
+			in.endArray() ;
+			return trades.toArray(new TradesDetail[trades.size()]) ;
+		}
 
-		/*
-		 * (non-Javadoc)
-		 * @see com.abwaters.btce.BTCE.Results#toString()
-		 */
 		@Override
-		public String toString() {
-			return "CancelOrder [success=" + success + ", error=" + error + ", return=" + info + "]";
+		public void write(JsonWriter out, Map<String,T> map) throws IOException {
+			if( map == null ) {
+				out.nullValue() ;
+				return ;
+			}
+			out.beginObject() ;
+			for(Map.Entry<String,T> entry:map.entrySet()) {
+				out.name(entry.getKey()) ;
+				if( entry.getValue() instanceof TradesDetail[] ) writeTrades(out,(TradesDetail[])entry.getValue()) ;
+				else gson.getAdapter(value_type).write(out,entry.getValue()) ;
+			}
+			out.endObject() ;
+		}
+		
+		private void writeTrades(JsonWriter out,TradesDetail[] trades) throws IOException {
+			out.beginArray() ;
+			for(TradesDetail trade:trades) {
+				out.beginObject() ;
+				out.name("type").value(trade.trade_type) ;
+				out.name("price").value(trade.price) ;
+				out.name("amount").value(trade.amount) ;
+				out.name("tid").value(trade.tid) ;
+				out.name("timestamp").value(trade.date) ;
+				out.endObject() ;
+			}
+			out.endArray() ;
 		}
 	}
 	
 	/**
-	 * 
+	 * An order book for one currency pair that is updated from {@link Depth} results.
+	 * <p>
+	 * Each update compares the new levels with the previous ones and flags the levels that are new or whose amount changed, and 
+	 * counts the levels that are gone.  The cumulative amounts are computed once per update so every read is a couple of array 
+	 * lookups.  Levels that are out of price order are sorted first.
+	 * <p>
+	 * An update builds new, never changed arrays for both sides and publishes them through one volatile field, so reads don't 
+	 * lock, allocate or retry, and each read sees the book as of one whole update.  Calls made to read several values may 
+	 * straddle an update; use {@link #getUpdateCount()} before and after to tell.
 	 */
-	public class CancelOrderReturn {
-		public long order_id ;
-		public Funds funds ;
+	public static class OrderBook {
+		private final String pair ;
+		private volatile Book book = new Book(new Levels(),new Levels(),0) ;
+		
+		public OrderBook(String pair) {
+			this.pair = pair ;
+		}
+		
+		public String getPair() {
+			return pair ;
+		}
+		
+		/**
+		 * Applies new depth results to the book.
+		 * 
+		 * @return the number of levels that were added, removed or changed amount.
+		 */
+		public synchronized int update(Depth depth) {
+			Book last = book ;
+			Levels asks = new Levels(last.asks,depth.ask_prices,depth.ask_amounts,1) ;
+			Levels bids = new Levels(last.bids,depth.bid_prices,depth.bid_amounts,-1) ;
+			book = new Book(asks,bids,last.updates+1) ;
+			return asks.changes+bids.changes ;
+		}
+		
+		/**
+		 * Returns the number of updates applied to the book.
+		 */
+		public long getUpdateCount() {
+			return book.updates ;
+		}
+		
+		public double getBestAsk() {
+			return getAskPrice(0) ;
+		}
+		
+		public double getBestBid() {
+			return getBidPrice(0) ;
+		}
+		
+		public int getAskCount() {
+			return book.asks.prices.length ;
+		}
+		
+		public int getBidCount() {
+			return book.bids.prices.length ;
+		}
+		
+		/**
+		 * @return the price of the ask at the level, 0 if there is no such level.
+		 */
+		public double getAskPrice(int level) {
+			return read(book.asks.prices,level) ;
+		}
+		
+		/**
+		 * @return the amount of the ask at the level, 0 if there is no such level.
+		 */
+		public double getAskAmount(int level) {
+			return read(book.asks.amounts,level) ;
+		}
+		
+		/**
+		 * @return the price of the bid at the level, 0 if there is no such level.
+		 */
+		public double getBidPrice(int level) {
+			return read(book.bids.prices,level) ;
+		}
+		
+		/**
+		 * @return the amount of the bid at the level, 0 if there is no such level.
+		 */
+		public double getBidAmount(int level) {
+			return read(book.bids.amounts,level) ;
+		}
+		
+		/**
+		 * @return the total amount of the best <code>levels</code> asks.
+		 */
+		public double getCumulativeAskAmount(int levels) {
+			return cumulative(book.asks.cumulative,levels) ;
+		}
+		
+		/**
+		 * @return the total amount of the best <code>levels</code> bids.
+		 */
+		public double getCumulativeBidAmount(int levels) {
+			return cumulative(book.bids.cumulative,levels) ;
+		}
+		
+		/**
+		 * @return true if the ask at the level was added or changed amount in the last update.
+		 */
+		public boolean isAskChanged(int level) {
+			boolean[] changed = book.asks.changed ;
+			return level >= 0 && level < changed.length && changed[level] ;
+		}
+		
+		/**
+		 * @return true if the bid at the level was added or changed amount in the last update.
+		 */
+		public boolean isBidChanged(int level) {
+			boolean[] changed = book.bids.changed ;
+			return level >= 0 && level < changed.length && changed[level] ;
+		}
+		
+		/**
+		 * @return the number of ask levels that were removed by the last update.
+		 */
+		public int getRemovedAskCount() {
+			return book.asks.removed ;
+		}
+		
+		/**
+		 * @return the number of bid levels that were removed by the last update.
+		 */
+		public int getRemovedBidCount() {
+			return book.bids.removed ;
+		}
+		
+		private static double read(double[] a,int level) {
+			return level >= 0 && level < a.length ? a[level] : 0 ;
+		}
+		
+		private static double cumulative(double[] c,int levels) {
+			int n = Math.min(levels,c.length) ;
+			return n > 0 ? c[n-1] : 0 ;
+		}
 		
 		/*
 		 * (non-Javadoc)
@@ -916,62 +3807,78 @@ public class BTCE {
 		 */
 		@Override
 		public String toString() {
-			return "[order_id=" + order_id + ", funds="
-					+ funds + "]";
+			Book b = book ;
+			return "OrderBook [pair=" + pair + ", asks=" + b.asks.prices.length + ", bids=" + b.bids.prices.length 
+					+ ", ask=" + read(b.asks.prices,0) + ", bid=" + read(b.bids.prices,0) + "]";
+		}
+		
+		/**
+		 * Both sides of the book as of one update.
+		 */
+		private static final class Book {
+			private final Levels asks, bids ;
+			private final long updates ;
+			
+			private Book(Levels asks,Levels bids,long updates) {
+				this.asks = asks ;
+				this.bids = bids ;
+				this.updates = updates ;
+			}
+		}
+		
+		/**
+		 * The levels of one side of the book, with what changed since the levels before them.  The arrays are never changed 
+		 * once the constructor returns.
+		 */
+		private static final class Levels {
+			private final double[] prices, amounts, cumulative ;
+			private final boolean[] changed ;
+			private final int removed, changes ;
+			
+			private Levels() {
+				prices = amounts = cumulative = new double[0] ;
+				changed = new boolean[0] ;
+				removed = changes = 0 ;
+			}
+			
+			/**
+			 * @param direction 1 if prices ascend, -1 if they descend.
+			 */
+			private Levels(Levels old,double[] new_prices,double[] new_amounts,int direction) {
+				int n = new_prices.length ;
+				prices = Arrays.copyOf(new_prices,n) ;
+				amounts = Arrays.copyOf(new_amounts,n) ;
+				cumulative = new double[n] ;
+				changed = new boolean[n] ;
+				sortLevels(prices,amounts,n,direction) ;
+				
+				// merge the old and new levels, both are sorted in the same direction
+				double[] old_prices = old.prices, old_amounts = old.amounts ;
+				int old_count = old_prices.length ;
+				int changes = 0, removed = 0, i = 0, j = 0 ;
+				double total = 0 ;
+				while( i < n ) {
+					int cmp = j < old_count ? Double.compare(prices[i],old_prices[j])*direction : -1 ;
+					if( cmp > 0 ) {
+						// the old level is gone
+						removed++ ;
+						changes++ ;
+						j++ ;
+						continue ;
+					}
+					total += amounts[i] ;
+					cumulative[i] = total ;
+					changed[i] = cmp < 0 || amounts[i] != old_amounts[j] ;
+					if( changed[i] ) changes++ ;
+					if( cmp == 0 ) j++ ;
+					i++ ;
+				}
+				this.removed = removed+old_count-j ;
+				this.changes = changes+old_count-j ;
+			}
 		}
-	}
-
-	/**
-	 * Currency pair helper class.
-	 */
-	public static final class Pairs {
-		public static final String BTC_USD = "btc_usd" ;
-		public static final String BTC_RUR = "btc_rur" ;
-		public static final String BTC_EUR = "btc_eur" ;
-		public static final String LTC_BTC = "ltc_btc" ;
-		public static final String LTC_USD = "ltc_usd" ;
-		public static final String LTC_RUR = "ltc_rur" ;
-		public static final String LTC_EUR = "ltc_eur" ;
-		public static final String NMC_BTC = "nmc_btc" ;
-		public static final String NMC_USD = "nmc_usd" ;
-		public static final String NVC_BTC = "nvc_btc" ;
-		public static final String NVC_USD = "nvc_usd" ;
-		public static final String TRC_BTC = "trc_btc" ;
-		public static final String PPC_BTC = "ppc_btc" ;
-		public static final String FTC_BTC = "ftc_btc" ;
-		public static final String USD_RUR = "usd_rur" ;
-		public static final String EUR_USD = "eur_usd" ;
-	}
-
-	/**
-	 * Trade type helper class.
-	 *
-	 */
-	public static class TradeType {
-		public static final String BUY = "buy" ;
-		public static final String SELL = "sell" ;
-	}
-	
-	/**
-	 * 
-	 */
-	public static class TransactionType {
-		public static final int DEPOSIT = 0 ;
-		public static final int WITHDRAW = 1 ;	// ?
-		public static final int ORDER_CANCEL = 4 ;
-		public static final int ORDER_SELL = 5 ;
 	}
 	
-	/**
-	 * 
-	 */
-	public static class OrderStatus {
-		public static final int ACTIVE = 0 ;
-		public static final int FILLED = 1 ;
-		public static final int CANCELED = 2 ;
-		public static final int PARTIALLY_FILLED = 3 ;
-	}
-
 	/**
 	 *
 	 */
@@ -0,0 +1,170 @@
+package com.abwaters.btce;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.abwaters.btce.BTCE.Balances;
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.Funds;
+import com.abwaters.btce.BTCE.Info;
+
+/**
+ * The account balances, kept from the funds that come back with every getInfo, trade and cancelOrder call so that reading
+ * them costs no authenticated calls.
+ * <p>
+ * The cache registers itself as the {@link BTCE#setFundsListener(BTCE.FundsListener) funds listener} of the client, replacing
+ * any other.  Every update makes a new immutable {@link Snapshot} with the next version number, published behind an atomic
+ * reference, so readers never lock or wait.  Funds from a call with a lower nonce than the snapshot's are older and are
+ * ignored, whatever order the responses arrive in.  Nonces only order the calls of one key: after
+ * {@link BTCE#setAuthKeys(String, String)} switches the client to another key, the snapshot of the old key is stale, the
+ * first funds of the new key replace it, and funds still arriving for the old key are ignored.
+ * <p>
+ * The balances only go stale when they change outside the client, through deposits, withdrawals or orders filled on the
+ * exchange.  {@link #getFreshSnapshot()} calls getInfo once the snapshot is older than the maximum age or after
+ * {@link #invalidate()}.
+ * <pre>
+ * BalanceCache balances = new BalanceCache(btce) ;
+ * balances.setMaxAge(60000) ;
+ * if( balances.getFreshSnapshot().get("usd") &gt;= rate*amount ) btce.trade(BTCE.Pairs.BTC_USD,"buy",rate,amount) ;
+ * </pre>
+ */
+public class BalanceCache implements BTCE.FundsListener {
+
+	private static final long DEFAULT_MAX_AGE = 60000 ;
+
+	/**
+	 * The balances as of one call.  Never changed once published.
+	 */
+	public static class Snapshot {
+		/**
+		 * Goes up by one with every update of the cache.
+		 */
+		public final long version ;
+		/**
+		 * The API key of the call the balances came from.
+		 */
+		public final String key ;
+		/**
+		 * The nonce of the call the balances came from.
+		 */
+		public final long nonce ;
+		/**
+		 * When the balances were received, in local milliseconds.
+		 */
+		public final long received ;
+		public final Balances balances ;
+		private final long received_nanos ;
+
+		private Snapshot(long version,String key,long nonce,Balances balances) {
+			this.version = version ;
+			this.key = key ;
+			this.nonce = nonce ;
+			this.balances = balances ;
+			this.received = System.currentTimeMillis() ;
+			this.received_nanos = System.nanoTime() ;
+		}
+
+		/**
+		 * Returns the balance for the currency, 0 if the account has none.
+		 */
+		public double get(String currency) {
+			return balances.get(currency) ;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Snapshot [version=" + version + ", key=" + key + ", nonce=" + nonce + ", received=" + received + ", balances=" + balances + "]";
+		}
+	}
+
+	private final BTCE btce ;
+	private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>() ;
+	private final Object refresh_lock = new Object() ;
+	private volatile long max_age = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_AGE) ;
+	private volatile long invalidated = System.nanoTime() ;
+
+	public BalanceCache(BTCE btce) {
+		this.btce = btce ;
+		btce.setFundsListener(this) ;
+	}
+
+	/**
+	 * Sets how old the snapshot can get before {@link #getFreshSnapshot()} refreshes it.
+	 *
+	 * @param max_age milliseconds.
+	 */
+	public void setMaxAge(long max_age) {
+		this.max_age = TimeUnit.MILLISECONDS.toNanos(max_age) ;
+	}
+
+	public long getMaxAge() {
+		return TimeUnit.NANOSECONDS.toMillis(max_age) ;
+	}
+
+	/**
+	 * Returns the latest balances without making a call, null if none have been received yet.
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot.get() ;
+	}
+
+	/**
+	 * Returns the latest balances, calling getInfo first if they are stale.  When several threads find them stale only
+	 * one makes the call.
+	 *
+	 * @throws BTCEException if the call fails, or its funds didn't replace the stale balances, because the client switched 
+	 * keys while it was made for example.
+	 */
+	public Snapshot getFreshSnapshot() throws BTCEException {
+		Snapshot current = snapshot.get() ;
+		if( !isStale(current) ) return current ;
+		synchronized(refresh_lock) {
+			current = snapshot.get() ;
+			if( !isStale(current) ) return current ;
+			Info info = btce.getInfo() ;
+			if( info.success == 0 ) throw btce.new BTCEException("Unable to refresh the balances: "+info.error) ;
+			Snapshot refreshed = snapshot.get() ;
+			if( refreshed == null || refreshed == current || !refreshed.key.equals(btce.getKey()) ) 
+				throw btce.new BTCEException("The balances are still stale after getInfo.") ;
+			return refreshed ;
+		}
+	}
+
+	/**
+	 * Returns true if the snapshot is older than the maximum age, was taken before the last {@link #invalidate()}, or is 
+	 * for a key the client no longer uses.
+	 */
+	public boolean isStale() {
+		return isStale(snapshot.get()) ;
+	}
+
+	private boolean isStale(Snapshot current) {
+		if( current == null || !current.key.equals(btce.getKey()) ) return true ;
+		return current.received_nanos-invalidated <= 0 || System.nanoTime()-current.received_nanos > max_age ;
+	}
+
+	/**
+	 * Marks the balances stale, after a deposit or withdrawal for example, so the next {@link #getFreshSnapshot()} refreshes them.
+	 */
+	public void invalidate() {
+		invalidated = System.nanoTime() ;
+	}
+
+	/**
+	 * Takes the funds from a call made by the client.  Funds older than the snapshot, or for a key the client no longer 
+	 * uses, are ignored.
+	 */
+	public void fundsReceived(Funds funds,String key,long nonce) {
+		if( funds.balances == null || !key.equals(btce.getKey()) ) return ;
+		for(;;) {
+			Snapshot current = snapshot.get() ;
+			if( current != null && key.equals(current.key) && nonce <= current.nonce ) return ;
+			Snapshot next = new Snapshot(current == null ? 1 : current.version+1,key,nonce,funds.balances) ;
+			if( snapshot.compareAndSet(current,next) ) return ;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.abwaters.btce;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.abwaters.btce.BTCE.CallEvent;
+import com.abwaters.btce.BTCE.CallEvent.Outcome;
+import com.abwaters.btce.BTCE.CallEvent.Phase;
+import com.abwaters.btce.BTCE.CallListener;
+
+/**
+ * Collects the {@link CallEvent}s of a client into latency histograms per endpoint and phase, along with byte counts and 
+ * outcome counts.  Recording is lock-free and allocation free so it can stay on in production.
+ * <pre>
+ * CallMetrics metrics = new CallMetrics() ;
+ * btce.setCallListener(metrics) ;
+ * ...
+ * CallMetrics.Snapshot ticker = metrics.snapshot().get("ticker") ;
+ * double p99 = ticker.getPercentile(CallEvent.Phase.FIRST_BYTE,0.99) ;
+ * </pre>
+ * Latencies are kept in buckets a quarter of a power of two wide, so percentiles are accurate to within about 25%.
+ */
+public class CallMetrics implements CallListener {
+
+	private static final Phase[] PHASES = Phase.values() ;
+	private static final int OUTCOMES = Outcome.values().length ;
+	private static final int BUCKETS = bucket(Long.MAX_VALUE)+1 ;
+	
+	private final ConcurrentMap<String,Endpoint> endpoints = new ConcurrentHashMap<String,Endpoint>() ;
+	
+	public void requestCompleted(CallEvent event) {
+		Endpoint endpoint = endpoints.get(event.endpoint) ;
+		if( endpoint == null ) {
+			Endpoint existing = endpoints.putIfAbsent(event.endpoint,endpoint = new Endpoint()) ;
+			if( existing != null ) endpoint = existing ;
+		}
+		endpoint.record(event) ;
+	}
+	
+	/**
+	 * Returns the metrics so far for every endpoint called, by endpoint name.
+	 */
+	public Map<String,Snapshot> snapshot() {
+		Map<String,Snapshot> snapshot = new TreeMap<String,Snapshot>() ;
+		for(Map.Entry<String,Endpoint> e:endpoints.entrySet()) snapshot.put(e.getKey(),e.getValue().snapshot(e.getKey())) ;
+		return Collections.unmodifiableMap(snapshot) ;
+	}
+	
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset() {
+		endpoints.clear() ;
+	}
+	
+	/**
+	 * Returns the histogram bucket for a time in nanoseconds: values below 4 get their own bucket and every power of two
+	 * above that is split in four.
+	 */
+	static int bucket(long nanos) {
+		if( nanos < 4 ) return nanos < 0 ? 0 : (int)nanos ;
+		int exp = 63-Long.numberOfLeadingZeros(nanos) ;
+		int sub = (int)(nanos>>>(exp-2))-4 ;
+		return 4+(exp-2)*4+sub ;
+	}
+	
+	/**
+	 * Returns the largest value that falls in the bucket.
+	 */
+	static long bucketLimit(int bucket) {
+		if( bucket < 4 ) return bucket ;
+		int exp = (bucket-4)/4+2, sub = (bucket-4)%4 ;
+		return ((long)(4+sub+1)<<(exp-2))-1 ;
+	}
+	
+	private static class Endpoint {
+		private final AtomicLongArray buckets = new AtomicLongArray(PHASES.length*BUCKETS) ;
+		private final AtomicLongArray totals = new AtomicLongArray(PHASES.length) ;
+		private final AtomicLongArray maxima = new AtomicLongArray(PHASES.length) ;
+		private final AtomicLongArray outcomes = new AtomicLongArray(OUTCOMES) ;
+		private final AtomicLong requests = new AtomicLong() ;
+		private final AtomicLong bytes_in = new AtomicLong() ;
+		private final AtomicLong bytes_out = new AtomicLong() ;
+		
+		private void record(CallEvent event) {
+			requests.incrementAndGet() ;
+			for(int p=0;p<PHASES.length;p++) {
+				long nanos = event.get(PHASES[p]) ;
+				buckets.incrementAndGet(p*BUCKETS+bucket(nanos)) ;
+				totals.addAndGet(p,nanos) ;
+				for(long max=maxima.get(p);nanos > max && !maxima.compareAndSet(p,max,nanos);max=maxima.get(p)) ;
+			}
+			outcomes.incrementAndGet(event.outcome.ordinal()) ;
+			bytes_in.addAndGet(event.bytes_in) ;
+			bytes_out.addAndGet(event.bytes_out) ;
+		}
+		
+		private Snapshot snapshot(String name) {
+			long[] b = new long[PHASES.length*BUCKETS], t = new long[PHASES.length], m = new long[PHASES.length], o = new long[OUTCOMES] ;
+			for(int i=0;i<b.length;i++) b[i] = buckets.get(i) ;
+			for(int p=0;p<PHASES.length;p++) {
+				t[p] = totals.get(p) ;
+				m[p] = maxima.get(p) ;
+			}
+			for(int i=0;i<OUTCOMES;i++) o[i] = outcomes.get(i) ;
+			return new Snapshot(name,requests.get(),bytes_in.get(),bytes_out.get(),b,t,m,o) ;
+		}
+	}
+	
+	/**
+	 * The metrics of one endpoint at the time of the snapshot.  Times are in nanoseconds.
+	 */
+	public static class Snapshot {
+		private final String endpoint ;
+		private final long requests, bytes_in, bytes_out ;
+		private final long[] buckets, totals, maxima, outcomes ;
+		
+		private Snapshot(String endpoint,long requests,long bytes_in,long bytes_out,long[] buckets,long[] totals,long[] maxima,long[] outcomes) {
+			this.endpoint = endpoint ;
+			this.requests = requests ;
+			this.bytes_in = bytes_in ;
+			this.bytes_out = bytes_out ;
+			this.buckets = buckets ;
+			this.totals = totals ;
+			this.maxima = maxima ;
+			this.outcomes = outcomes ;
+		}
+		
+		public String getEndpoint() {
+			return endpoint ;
+		}
+		
+		public long getRequestCount() {
+			return requests ;
+		}
+		
+		public long getBytesIn() {
+			return bytes_in ;
+		}
+		
+		public long getBytesOut() {
+			return bytes_out ;
+		}
+		
+		public long getOutcomeCount(Outcome outcome) {
+			return outcomes[outcome.ordinal()] ;
+		}
+		
+		/**
+		 * Returns the number of requests that didn't end with {@link Outcome#OK}.
+		 */
+		public long getErrorCount() {
+			return requests-outcomes[Outcome.OK.ordinal()] ;
+		}
+		
+		public long getNonceRejections() {
+			return outcomes[Outcome.NONCE_REJECTED.ordinal()] ;
+		}
+		
+		public double getMean(Phase phase) {
+			return requests == 0 ? 0 : (double)totals[phase.ordinal()]/requests ;
+		}
+		
+		public long getMax(Phase phase) {
+			return maxima[phase.ordinal()] ;
+		}
+		
+		/**
+		 * Returns an upper bound for the given fraction of the requests, 0.99 for the 99th percentile for example.
+		 */
+		public long getPercentile(Phase phase,double fraction) {
+			long count = 0 ;
+			for(int i=0;i<BUCKETS;i++) count += buckets[phase.ordinal()*BUCKETS+i] ;
+			long target = (long)Math.ceil(fraction*count) ;
+			long seen = 0 ;
+			for(int i=0;i<BUCKETS;i++) {
+				seen += buckets[phase.ordinal()*BUCKETS+i] ;
+				if( seen >= target && seen > 0 ) return Math.min(bucketLimit(i),getMax(phase)) ;
+			}
+			return 0 ;
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(endpoint).append(" [requests=").append(requests).append(", errors=").append(getErrorCount())
+				.append(", bytes_in=").append(bytes_in).append(", bytes_out=").append(bytes_out) ;
+			for(Phase phase:Phase.values()) {
+				sb.append(", ").append(phase.name().toLowerCase()).append("=").append(String.format("%.3f/%.3f/%.3fms",
+						getMean(phase)/1e6,getPercentile(phase,0.99)/1e6,getMax(phase)/1e6)) ;
+			}
+			return sb.append(']').toString() ;
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package com.abwaters.btce;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.abwaters.btce.BTCE.Results;
+import com.abwaters.btce.BTCE.TradeHistory;
+import com.abwaters.btce.BTCE.TradeHistoryOrder;
+import com.abwaters.btce.BTCE.TransactionHistory;
+import com.abwaters.btce.BTCE.TransactionHistoryOrder;
+
+/**
+ * Iterates over the whole trade or transaction history of an account, oldest first, fetching it one page at a time.
+ * <p>
+ * Pages are requested with a <code>from_id</code> cursor so they stay consistent while new history is added.  As soon as a
+ * page arrives the next one is requested in the background with {@link BTCE#getTradeHistoryAsync getTradeHistoryAsync} or 
+ * {@link BTCE#getTransactionHistoryAsync getTransactionHistoryAsync}, so at most two pages are held in memory no matter how 
+ * long the history is.
+ * <p>
+ * It can be iterated more than once, each for-each starts again at <code>from_id</code>.  
+ * <p>
+ * Since an iterator can't throw checked exceptions, a failed call is thrown as an <code>IllegalStateException</code> with 
+ * the {@link BTCE.BTCEException} as its cause.
+ * <pre>
+ * for(TradeHistoryOrder trade:HistoryIterator.trades(btce,BTCE.Pairs.BTC_USD,0,500)) {
+ *     System.out.println(trade) ;
+ * }
+ * </pre>
+ */
+public abstract class HistoryIterator<T> implements Iterator<T>, Iterable<T> {
+
+	protected final BTCE btce ;
+	protected final int page_size ;
+	private long from_id ;
+	private boolean used ;
+	private T[] page ;
+	private int index ;
+	private Future<? extends Results> next ;
+	
+	/**
+	 * Iterates over the trade history of the account.
+	 * 
+	 * @param btce
+	 * @param pair the pair to include, null or empty for all pairs.
+	 * @param from_id the first id to include, 0 to start at the beginning.
+	 * @param page_size the number of trades requested per call.
+	 */
+	public static HistoryIterator<TradeHistoryOrder> trades(BTCE btce,final String pair,long from_id,int page_size) {
+		HistoryIterator<TradeHistoryOrder> iterator = new HistoryIterator<TradeHistoryOrder>(btce,page_size) {
+			@Override
+			protected Future<? extends Results> fetch(long from_id) {
+				return btce.getTradeHistoryAsync(0,page_size,from_id,0,"ASC",0,0,pair,null) ;
+			}
+			
+			@Override
+			protected TradeHistoryOrder[] items(Results results) {
+				TradeHistory history = (TradeHistory)results ;
+				return history.info == null ? null : history.info.trades ;
+			}
+
+			@Override
+			protected long id(TradeHistoryOrder item) {
+				return item.trans_id ;
+			}
+		} ;
+		return iterator.start(from_id) ;
+	}
+	
+	/**
+	 * Iterates over the transaction history of the account.
+	 * 
+	 * @param btce
+	 * @param from_id the first id to include, 0 to start at the beginning.
+	 * @param page_size the number of transactions requested per call.
+	 */
+	public static HistoryIterator<TransactionHistoryOrder> transactions(BTCE btce,long from_id,int page_size) {
+		HistoryIterator<TransactionHistoryOrder> iterator = new HistoryIterator<TransactionHistoryOrder>(btce,page_size) {
+			@Override
+			protected Future<? extends Results> fetch(long from_id) {
+				return btce.getTransactionHistoryAsync(0,page_size,from_id,0,"ASC",0,0,null) ;
+			}
+			
+			@Override
+			protected TransactionHistoryOrder[] items(Results results) {
+				TransactionHistory history = (TransactionHistory)results ;
+				return history.info == null ? null : history.info.transactions ;
+			}
+
+			@Override
+			protected long id(TransactionHistoryOrder item) {
+				return item.trans_id ;
+			}
+		} ;
+		return iterator.start(from_id) ;
+	}
+	
+	protected HistoryIterator(BTCE btce,int page_size) {
+		if( page_size < 1 ) throw new IllegalArgumentException("Invalid page size: "+page_size) ;
+		this.btce = btce ;
+		this.page_size = page_size ;
+	}
+	
+	/**
+	 * Starts the request for the page beginning with <code>from_id</code>.
+	 */
+	protected abstract Future<? extends Results> fetch(long from_id) ;
+	
+	/**
+	 * Returns the items in the results of a call.
+	 */
+	protected abstract T[] items(Results results) ;
+	
+	/**
+	 * Returns the id of the item used as the cursor.
+	 */
+	protected abstract long id(T item) ;
+	
+	private HistoryIterator<T> start(long from_id) {
+		this.from_id = from_id ;
+		next = fetch(from_id) ;
+		return this ;
+	}
+	
+	/**
+	 * Returns this iterator if it hasn't been used yet, otherwise a new one starting over at the same <code>from_id</code>.
+	 */
+	public Iterator<T> iterator() {
+		if( !used ) {
+			used = true ;
+			return this ;
+		}
+		final HistoryIterator<T> source = this ;
+		HistoryIterator<T> iterator = new HistoryIterator<T>(btce,page_size) {
+			@Override
+			protected Future<? extends Results> fetch(long from_id) {
+				return source.fetch(from_id) ;
+			}
+			
+			@Override
+			protected T[] items(Results results) {
+				return source.items(results) ;
+			}
+
+			@Override
+			protected long id(T item) {
+				return source.id(item) ;
+			}
+		} ;
+		iterator.used = true ;
+		return iterator.start(from_id) ;
+	}
+	
+	public boolean hasNext() {
+		used = true ;
+		while( page == null || index >= page.length ) {
+			if( next == null ) return false ;
+			page = await() ;
+			index = 0 ;
+			if( page == null ) {
+				next = null ;
+				return false ;
+			}
+			// a short page is the last one, otherwise get the next one while this one is consumed
+			next = page.length < page_size ? null : fetch(id(page[page.length-1])+1) ;
+		}
+		return true ;
+	}
+
+	public T next() {
+		if( !hasNext() ) throw new NoSuchElementException() ;
+		T item = page[index] ;
+		page[index++] = null ;
+		return item ;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException("History is read only") ;
+	}
+	
+	private T[] await() {
+		Results results ;
+		try {
+			results = next.get() ;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt() ;
+			throw new IllegalStateException("Interrupted while waiting for history.",e) ;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause().getMessage(),e.getCause()) ;
+		}
+		T[] items = results == null ? null : items(results) ;
+		if( items == null ) {
+			// the exchange reports an empty page as an error, e.g. "no trades"
+			if( results != null && results.success == 0 && results.error != null && !results.error.startsWith("no ") ) 
+				throw new IllegalStateException(results.error) ;
+			return null ;
+		}
+		Arrays.sort(items,new Comparator<T>() {
+			public int compare(T a,T b) {
+				long x = id(a), y = id(b) ;
+				return x < y ? -1 : (x == y ? 0 : 1) ;
+			}
+		}) ;
+		return items ;
+	}
+}
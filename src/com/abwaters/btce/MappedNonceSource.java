@@ -0,0 +1,92 @@
+package com.abwaters.btce;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A nonce source that survives restarts.  Nonces are handed out from an atomic counter and a high water mark is kept in a
+ * small memory mapped file.  The high water mark is moved ahead in blocks so the file is only written once every 
+ * <code>block</code> nonces and a restarted process starts above every nonce the previous process could have used.
+ * <p>
+ * Writes to the mapped file survive the process being killed.  Call {@link #force()} if they also need to survive the 
+ * machine going down.
+ * <pre>
+ * btce.setNonceSource(new MappedNonceSource(new File("btce.nonce"))) ;
+ * </pre>
+ */
+public class MappedNonceSource implements BTCE.NonceSource, Closeable {
+
+	private static final long DEFAULT_BLOCK = 1000 ;
+	
+	private final AtomicLong nonce ;
+	private final long block ;
+	private final RandomAccessFile file ;
+	private final MappedByteBuffer buffer ;
+	private volatile long reserved ;	// every nonce up to this value is covered by the file
+	
+	public MappedNonceSource(File path) throws IOException {
+		this(path,DEFAULT_BLOCK) ;
+	}
+	
+	/**
+	 * @param path the file holding the high water mark, created if it doesn't exist.
+	 * @param block how far ahead of the last nonce the high water mark is moved each time it is written.
+	 */
+	public MappedNonceSource(File path,long block) throws IOException {
+		if( block < 1 ) throw new IllegalArgumentException("Invalid block size: "+block) ;
+		this.block = block ;
+		file = new RandomAccessFile(path,"rw") ;
+		boolean created = file.length() < 8 ;
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE,0,8) ;
+		long last = created ? 0 : buffer.getLong(0) ;
+		nonce = new AtomicLong(Math.max(last,System.currentTimeMillis()/1000)) ;
+		reserved = nonce.get() ;
+		buffer.putLong(0,reserved) ;
+	}
+	
+	public long next() {
+		long n = nonce.incrementAndGet() ;
+		if( n > reserved ) checkpoint(n) ;
+		return n ;
+	}
+	
+	public void advanceTo(long last) {
+		for(;;) {
+			long n = nonce.get() ;
+			if( n >= last ) return ;
+			if( nonce.compareAndSet(n,last) ) break ;
+		}
+		if( last > reserved ) checkpoint(last) ;
+	}
+	
+	/**
+	 * Returns the high water mark currently recorded in the file.
+	 */
+	public long getReserved() {
+		return reserved ;
+	}
+	
+	/**
+	 * Forces the high water mark to the storage device.
+	 */
+	public void force() {
+		buffer.force() ;
+	}
+	
+	public void close() throws IOException {
+		force() ;
+		file.close() ;
+	}
+	
+	private synchronized void checkpoint(long n) {
+		if( n <= reserved ) return ;
+		long r = n+block ;
+		buffer.putLong(0,r) ;
+		reserved = r ;
+	}
+}
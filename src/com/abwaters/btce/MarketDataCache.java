@@ -0,0 +1,203 @@
+package com.abwaters.btce;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.Ticker;
+import com.abwaters.btce.BTCE.TradesDetail;
+
+/**
+ * A cache in front of the {@link BTCE#getTicker(String) getTicker} and {@link BTCE#getTrades(String) getTrades} calls.
+ * <p>
+ * Results are kept for a time to live that can be set per pair.  When several threads ask for the same pair while its entry
+ * is stale only one of them makes the call, the others wait for and share its result, so the open API budget is spent once
+ * per pair and time to live no matter how many threads are reading.
+ * <p>
+ * Tickers are aged by their <code>updated</code> time rather than by when they were received, so a ticker the exchange
+ * served from its own cache expires as much earlier as it was old when it arrived.  The difference between the local clock 
+ * and the exchange's is estimated from the <code>server_time</code> of the last few tickers, so the estimate follows the 
+ * clocks when either is stepped.
+ * <pre>
+ * MarketDataCache cache = new MarketDataCache(btce) ;
+ * cache.setTimeToLive(BTCE.Pairs.BTC_USD,5000) ;
+ * Ticker ticker = cache.getTicker(BTCE.Pairs.BTC_USD) ;
+ * </pre>
+ */
+public class MarketDataCache {
+
+	private static final long DEFAULT_TIME_TO_LIVE = 15000 ;
+	private static final int CLOCK_SAMPLES = 16 ;
+	
+	private final BTCE btce ;
+	private final ConcurrentMap<String,Long> ttls = new ConcurrentHashMap<String,Long>() ;
+	private final ConcurrentMap<String,Entry<Ticker>> tickers = new ConcurrentHashMap<String,Entry<Ticker>>() ;
+	private final ConcurrentMap<String,Entry<TradesDetail[]>> trades = new ConcurrentHashMap<String,Entry<TradesDetail[]>>() ;
+	private volatile long ttl = DEFAULT_TIME_TO_LIVE ;
+	private final long[] clock_samples = new long[CLOCK_SAMPLES] ;	// local time - server_time of the last tickers, in milliseconds
+	private int clock_sample_count, clock_sample_next ;
+	
+	public MarketDataCache(BTCE btce) {
+		this.btce = btce ;
+	}
+	
+	/**
+	 * Sets the time to live for pairs without their own.
+	 * 
+	 * @param ttl time to live in milliseconds.
+	 */
+	public void setTimeToLive(long ttl) {
+		this.ttl = ttl ;
+	}
+	
+	/**
+	 * Sets the time to live for one pair.
+	 * 
+	 * @param pair
+	 * @param ttl time to live in milliseconds.
+	 */
+	public void setTimeToLive(String pair,long ttl) {
+		ttls.put(pair,ttl) ;
+	}
+	
+	public long getTimeToLive(String pair) {
+		Long pair_ttl = ttls.get(pair) ;
+		return pair_ttl != null ? pair_ttl : ttl ;
+	}
+	
+	/**
+	 * Returns the ticker for the pair from the cache, calling the exchange if it is stale.
+	 */
+	public Ticker getTicker(final String pair) throws BTCEException {
+		return get(tickers,pair,new Callable<Ticker>() {
+			public Ticker call() throws BTCEException {
+				return btce.getTicker(pair) ;
+			}
+		}) ;
+	}
+	
+	/**
+	 * Returns the trades for the pair from the cache, calling the exchange if they are stale.
+	 */
+	public TradesDetail[] getTrades(final String pair) throws BTCEException {
+		return get(trades,pair,new Callable<TradesDetail[]>() {
+			public TradesDetail[] call() throws BTCEException {
+				return btce.getTrades(pair) ;
+			}
+		}) ;
+	}
+	
+	/**
+	 * Returns the estimated difference between the local clock and the exchange's, local minus exchange time in milliseconds.
+	 * The estimate includes the time the responses took to arrive and is 0 until a ticker with a <code>server_time</code> has 
+	 * been received.
+	 */
+	public synchronized long getClockOffset() {
+		return clock_sample_count == 0 ? 0 : clockOffset() ;
+	}
+	
+	/**
+	 * Drops the cached results for the pair.
+	 */
+	public void invalidate(String pair) {
+		tickers.remove(pair) ;
+		trades.remove(pair) ;
+	}
+	
+	/**
+	 * Drops all cached results.
+	 */
+	public void clear() {
+		tickers.clear() ;
+		trades.clear() ;
+	}
+	
+	private <T> T get(ConcurrentMap<String,Entry<T>> entries,String pair,Callable<T> loader) throws BTCEException {
+		for(;;) {
+			Entry<T> entry = entries.get(pair) ;
+			if( entry != null && !entry.isStale() ) return entry.result() ;
+			Entry<T> load = new Entry<T>(loader,pair) ;
+			if( entry == null ? entries.putIfAbsent(pair,load) != null : !entries.replace(pair,entry,load) ) continue ;
+			load.run() ;
+			try {
+				return load.result() ;
+			} catch (BTCEException e) {
+				// let the next caller try again
+				entries.remove(pair,load) ;
+				throw e ;
+			}
+		}
+	}
+	
+	/**
+	 * Returns when the result expires in local milliseconds.
+	 */
+	private long expires(String pair,Object result,long received) {
+		long ttl = getTimeToLive(pair) ;
+		if( !(result instanceof Ticker) ) return received+ttl ;
+		Ticker ticker = (Ticker)result ;
+		long updated = ticker.updated > 0 ? ticker.updated : ticker.server_time ;
+		long offset ;
+		synchronized(this) {
+			if( ticker.server_time > 0 ) {
+				clock_samples[clock_sample_next] = received-ticker.server_time*1000 ;
+				clock_sample_next = (clock_sample_next+1)%CLOCK_SAMPLES ;
+				if( clock_sample_count < CLOCK_SAMPLES ) clock_sample_count++ ;
+			}
+			if( updated <= 0 || clock_sample_count == 0 ) return received+ttl ;
+			offset = clockOffset() ;
+		}
+		// how old the ticker was when it arrived, on the exchange's clock
+		long age = Math.max(0,Math.min(ttl,received-offset-updated*1000)) ;
+		return received+ttl-age ;
+	}
+	
+	/**
+	 * The smallest difference in the samples, the one least delayed on the way.  Only the last few are kept so the estimate 
+	 * moves with the clocks.
+	 */
+	private long clockOffset() {
+		long offset = Long.MAX_VALUE ;
+		for(int i=0;i<clock_sample_count;i++) offset = Math.min(offset,clock_samples[i]) ;
+		return offset ;
+	}
+	
+	/**
+	 * A cached result, or the call in flight to get it.
+	 */
+	private class Entry<T> extends FutureTask<T> {
+		private final String pair ;
+		private volatile long expires = Long.MAX_VALUE ;	// in flight entries never go stale
+		
+		private Entry(Callable<T> loader,String pair) {
+			super(loader) ;
+			this.pair = pair ;
+		}
+		
+		@Override
+		protected void set(T result) {
+			expires = expires(pair,result,System.currentTimeMillis()) ;
+			super.set(result) ;
+		}
+		
+		private boolean isStale() {
+			return System.currentTimeMillis() >= expires ;
+		}
+		
+		private T result() throws BTCEException {
+			try {
+				return get() ;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt() ;
+				throw btce.new BTCEException("Interrupted while waiting for "+pair+".",e) ;
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause() ;
+				if( cause instanceof BTCEException ) throw (BTCEException)cause ;
+				throw btce.new BTCEException("Internal error.",cause) ;
+			}
+		}
+	}
+}
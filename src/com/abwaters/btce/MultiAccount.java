@@ -0,0 +1,201 @@
+package com.abwaters.btce;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.Balances;
+import com.abwaters.btce.BTCE.Callback;
+import com.abwaters.btce.BTCE.Currencies;
+import com.abwaters.btce.BTCE.Info;
+import com.abwaters.btce.BTCE.OrderList;
+import com.abwaters.btce.BTCE.OrderListOrder;
+
+/**
+ * Several accounts, each with its own {@link BTCE} client and key, called together.
+ * <p>
+ * The authenticated rate limit and nonces belong to each key, so the accounts don't hold each other up and a call fanned out
+ * to all of them takes about as long as the slowest single call.  The calls are made with the asynchronous API of each client
+ * and the results are gathered per account, with the accounts whose call failed kept apart.
+ * <pre>
+ * MultiAccount accounts = new MultiAccount() ;
+ * accounts.addAccount("main",main) ;
+ * accounts.addAccount("hedge",hedge) ;
+ * Map&lt;String,Double&gt; totals = MultiAccount.totalFunds(accounts.getInfo()) ;
+ * </pre>
+ */
+public class MultiAccount {
+
+	/**
+	 * Starts the call for one account.
+	 */
+	public interface AccountCall<T> {
+		Future<T> call(BTCE account,Callback<T> callback) ;
+	}
+
+	/**
+	 * The results of a call made on every account, keyed by account name in the order the accounts were added.
+	 */
+	public static class Merged<T> {
+		private final Map<String,T> results = new LinkedHashMap<String,T>() ;
+		private final Map<String,BTCEException> failures = new LinkedHashMap<String,BTCEException>() ;
+
+		/**
+		 * Returns the result for the account, null if its call failed.
+		 */
+		public T get(String account) {
+			return results.get(account) ;
+		}
+
+		public Map<String,T> getResults() {
+			return Collections.unmodifiableMap(results) ;
+		}
+
+		/**
+		 * Returns why the call failed for each account it failed for.
+		 */
+		public Map<String,BTCEException> getFailures() {
+			return Collections.unmodifiableMap(failures) ;
+		}
+
+		/**
+		 * Returns true if the call worked for every account.
+		 */
+		public boolean isComplete() {
+			return failures.isEmpty() ;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Merged [results=" + results + ", failures=" + failures + "]";
+		}
+	}
+
+	private final ConcurrentMap<String,BTCE> accounts = new ConcurrentHashMap<String,BTCE>() ;
+	private final List<String> names = new ArrayList<String>() ;
+
+	/**
+	 * Adds an account.  The client should already have its keys set, with a key no other account uses.
+	 *
+	 * @param name the name the account's results are kept under.
+	 */
+	public synchronized void addAccount(String name,BTCE account) {
+		if( accounts.putIfAbsent(name,account) != null ) throw new IllegalArgumentException("Account already added: "+name) ;
+		names.add(name) ;
+	}
+
+	public synchronized void removeAccount(String name) {
+		if( accounts.remove(name) != null ) names.remove(name) ;
+	}
+
+	public BTCE getAccount(String name) {
+		return accounts.get(name) ;
+	}
+
+	/**
+	 * Returns the account names in the order they were added.
+	 */
+	public synchronized List<String> getAccountNames() {
+		return new ArrayList<String>(names) ;
+	}
+
+	/**
+	 * Makes the call on every account at once and waits for all of them.
+	 */
+	public <T> Merged<T> fanOut(AccountCall<T> call) throws BTCEException {
+		Map<String,BTCE> called = new LinkedHashMap<String,BTCE>() ;
+		Map<String,Future<T>> futures = new LinkedHashMap<String,Future<T>>() ;
+		for(String name:getAccountNames()) {
+			BTCE account = accounts.get(name) ;
+			if( account == null ) continue ;
+			called.put(name,account) ;
+			futures.put(name,call.call(account,null)) ;
+		}
+		Merged<T> merged = new Merged<T>() ;
+		for(Map.Entry<String,Future<T>> entry:futures.entrySet()) {
+			String name = entry.getKey() ;
+			BTCE account = called.get(name) ;
+			try {
+				merged.results.put(name,entry.getValue().get()) ;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt() ;
+				for(Future<T> future:futures.values()) future.cancel(false) ;
+				throw account.new BTCEException("Interrupted while waiting for "+name+".",e) ;
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause() ;
+				merged.failures.put(name,cause instanceof BTCEException?(BTCEException)cause:account.new BTCEException("Internal error.",cause)) ;
+			}
+		}
+		return merged ;
+	}
+
+	/**
+	 * Gets the account info of every account at once.
+	 */
+	public Merged<Info> getInfo() throws BTCEException {
+		return fanOut(new AccountCall<Info>() {
+			public Future<Info> call(BTCE account,Callback<Info> callback) {
+				return account.getInfoAsync(callback) ;
+			}
+		}) ;
+	}
+
+	/**
+	 * Gets the active orders of every account at once.
+	 *
+	 * @param pair the pair to return orders for, null or empty for all pairs.
+	 */
+	public Merged<OrderList> getActiveOrders(final String pair) throws BTCEException {
+		return fanOut(new AccountCall<OrderList>() {
+			public Future<OrderList> call(BTCE account,Callback<OrderList> callback) {
+				return account.getActiveOrdersAsync(pair,callback) ;
+			}
+		}) ;
+	}
+
+	/**
+	 * Adds up the funds of the accounts whose info was returned.
+	 *
+	 * @return the total of each currency held by any account.
+	 */
+	public static Map<String,Double> totalFunds(Merged<Info> infos) {
+		Map<String,Double> totals = new LinkedHashMap<String,Double>() ;
+		for(Info info:infos.results.values()) {
+			if( info.success == 0 || info.info == null || info.info.funds == null || info.info.funds.balances == null ) continue ;
+			Balances balances = info.info.funds.balances ;
+			for(int n=0;n<balances.size();n++) {
+				int currency = balances.getCurrency(n) ;
+				String name = Currencies.name(currency) ;
+				Double total = totals.get(name) ;
+				totals.put(name,(total == null ? 0 : total)+balances.get(currency)) ;
+			}
+		}
+		return totals ;
+	}
+
+	/**
+	 * Gathers the active orders of the accounts, keyed by account name.  Accounts without orders are left out.
+	 */
+	public static Map<String,List<OrderListOrder>> allOrders(Merged<OrderList> lists) {
+		Map<String,List<OrderListOrder>> orders = new LinkedHashMap<String,List<OrderListOrder>>() ;
+		for(Map.Entry<String,OrderList> entry:lists.results.entrySet()) {
+			OrderList list = entry.getValue() ;
+			if( list.success == 0 || list.info == null || list.info.orders.length == 0 ) continue ;
+			List<OrderListOrder> account_orders = new ArrayList<OrderListOrder>(list.info.orders.length) ;
+			Collections.addAll(account_orders,list.info.orders) ;
+			orders.put(entry.getKey(),account_orders) ;
+		}
+		return orders ;
+	}
+}
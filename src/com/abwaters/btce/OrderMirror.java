@@ -0,0 +1,407 @@
+package com.abwaters.btce;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.CancelOrder;
+import com.abwaters.btce.BTCE.OrderList;
+import com.abwaters.btce.BTCE.OrderListOrder;
+import com.abwaters.btce.BTCE.Trade;
+import com.abwaters.btce.BTCE.TradeHistory;
+import com.abwaters.btce.BTCE.TradeHistoryOrder;
+
+/**
+ * A local copy of the account's open orders, kept up to date from the results of the trades and cancels made through it,
+ * so reading the state of our own orders costs no authenticated calls.
+ * <p>
+ * Orders placed or filled elsewhere only show up when the mirror is reconciled with
+ * {@link BTCE#getActiveOrders(String) getActiveOrders}, on demand with {@link #reconcile()} or every so often with
+ * {@link #startReconciling(long)}.  Fills are found by diffing: an order whose remaining amount went down was partly filled,
+ * and for orders that have gone the {@link BTCE#getTradeHistory(int, int, long, long, String, long, long, String) trade history}
+ * tells filled from cancelled.  The history is only asked for when an order has gone.
+ * <pre>
+ * OrderMirror mirror = new OrderMirror(btce) ;
+ * mirror.reconcile() ;
+ * mirror.trade(BTCE.Pairs.BTC_USD,"buy",500,0.1) ;
+ * List&lt;OrderMirror.Order&gt; open = mirror.getOrders(BTCE.Pairs.BTC_USD) ;
+ * </pre>
+ */
+public class OrderMirror implements Closeable {
+
+	/**
+	 * Amounts within this of each other are taken as equal, the exchange works to 8 decimals.
+	 */
+	private static final double EPSILON = 1e-9 ;
+
+	/**
+	 * How far back before the oldest order that has gone to look in the trade history, in seconds.  Covers the difference
+	 * between the local clock and the exchange's for orders timestamped locally.
+	 */
+	private static final long HISTORY_MARGIN = 300 ;
+
+	/**
+	 * The number of trades asked for per trade history call.
+	 */
+	private static final int HISTORY_PAGE = 1000 ;
+
+	/**
+	 * Told about changes to the mirrored orders found by trades, cancels and reconciling.  Called on the thread that
+	 * found the change, after the mirror has been updated.  Runtime exceptions thrown by a listener are ignored.
+	 */
+	public interface Listener {
+		/**
+		 * Called for an order added to the mirror, placed through it or found open on the exchange.
+		 */
+		void opened(Order order) ;
+
+		/**
+		 * Called when some of an order has been filled.
+		 *
+		 * @param order the order after the fill.
+		 * @param amount the amount filled since the order was last seen.
+		 */
+		void filled(Order order,double amount) ;
+
+		/**
+		 * Called when an order has left the book.
+		 *
+		 * @param order the order as last seen.
+		 * @param filled true if it was filled, false if it was cancelled.
+		 */
+		void closed(Order order,boolean filled) ;
+	}
+
+	/**
+	 * An open order as last seen.  Orders are never changed, a new one replaces the old one in the mirror.
+	 */
+	public static class Order {
+		public final long order_id ;
+		public final String pair ;
+		public final String type ;
+		public final double rate ;
+		public final double amount ;	// remaining
+		public final double filled ;	// as far as the mirror knows
+		public final long timestamp ;
+		private final long seen ;	// local nanoTime of the result it came from
+
+		private Order(long order_id,String pair,String type,double rate,double amount,double filled,long timestamp,long seen) {
+			this.order_id = order_id ;
+			this.pair = pair ;
+			this.type = type ;
+			this.rate = rate ;
+			this.amount = amount ;
+			this.filled = filled ;
+			this.timestamp = timestamp ;
+			this.seen = seen ;
+		}
+
+		private Order fill(double amount,long seen) {
+			return new Order(order_id,pair,type,rate,this.amount-amount,filled+amount,timestamp,seen) ;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return "Order [order_id=" + order_id + ", pair=" + pair + ", type=" + type + ", rate=" + rate
+					+ ", amount=" + amount + ", filled=" + filled + ", timestamp=" + timestamp + "]";
+		}
+	}
+
+	private final BTCE btce ;
+	private final Map<Long,Order> orders = new LinkedHashMap<Long,Order>() ;
+	private final Map<Long,Long> removed = new HashMap<Long,Long>() ;	// order id to local nanoTime, until the next reconcile
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>() ;
+	private ScheduledExecutorService scheduler ;
+	private volatile boolean stale = true ;
+	private volatile long reconciled ;	// local milliseconds
+
+	public OrderMirror(BTCE btce) {
+		this.btce = btce ;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener) ;
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener) ;
+	}
+
+	/**
+	 * Places an order through {@link BTCE#trade(String, String, double, double)} and adds what is left of it to the mirror.
+	 * If the call fails without an answer the order may or may not have been placed, and the mirror is marked stale.
+	 */
+	public Trade trade(String pair,String type,double rate,double amount) throws BTCEException {
+		Trade trade ;
+		try {
+			trade = btce.trade(pair,type,rate,amount) ;
+		} catch (BTCEException e) {
+			stale = true ;
+			throw e ;
+		}
+		if( trade.success == 0 || trade.info == null ) return trade ;
+		long now = System.nanoTime() ;
+		Order order = new Order(trade.info.order_id,pair,type,rate,trade.info.remains,trade.info.received,System.currentTimeMillis()/1000,now) ;
+		List<Event> events = new ArrayList<Event>(3) ;
+		if( order.order_id != 0 && order.amount > EPSILON ) {
+			synchronized(this) {
+				orders.put(order.order_id,order) ;
+			}
+			events.add(opened(order)) ;
+			if( order.filled > EPSILON ) events.add(filled(order,order.filled)) ;
+		} else {
+			// filled straight away, the order never rested on the book
+			if( order.filled > EPSILON ) events.add(filled(order,order.filled)) ;
+			events.add(closed(order,true)) ;
+		}
+		fire(events) ;
+		return trade ;
+	}
+
+	/**
+	 * Cancels an order through {@link BTCE#cancelOrder(long)} and takes it out of the mirror.  If the exchange refuses,
+	 * the order may have been filled or cancelled already, and the mirror is marked stale.
+	 */
+	public CancelOrder cancelOrder(long order_id) throws BTCEException {
+		CancelOrder cancel ;
+		try {
+			cancel = btce.cancelOrder(order_id) ;
+		} catch (BTCEException e) {
+			stale = true ;
+			throw e ;
+		}
+		if( cancel.success == 0 ) {
+			stale = true ;
+			return cancel ;
+		}
+		Order order ;
+		synchronized(this) {
+			order = orders.remove(order_id) ;
+			removed.put(order_id,System.nanoTime()) ;
+		}
+		if( order != null ) fire(closed(order,false)) ;
+		return cancel ;
+	}
+
+	/**
+	 * Returns the open orders, oldest first.
+	 */
+	public synchronized List<Order> getOrders() {
+		return new ArrayList<Order>(orders.values()) ;
+	}
+
+	/**
+	 * Returns the open orders for the pair, oldest first.
+	 */
+	public synchronized List<Order> getOrders(String pair) {
+		List<Order> list = new ArrayList<Order>() ;
+		for(Order order:orders.values()) if( order.pair.equals(pair) ) list.add(order) ;
+		return list ;
+	}
+
+	/**
+	 * Returns the order if it is open, null if it isn't or the mirror doesn't know about it.
+	 */
+	public synchronized Order getOrder(long order_id) {
+		return orders.get(order_id) ;
+	}
+
+	public synchronized int getOrderCount() {
+		return orders.size() ;
+	}
+
+	/**
+	 * Returns true if the mirror may be out of step with the exchange: it hasn't been reconciled yet, or a trade or cancel
+	 * failed in a way that leaves the state of an order unknown.
+	 */
+	public boolean isStale() {
+		return stale ;
+	}
+
+	/**
+	 * Returns when the mirror was last reconciled, in local milliseconds, 0 if it never has been.
+	 */
+	public long getLastReconciled() {
+		return reconciled ;
+	}
+
+	/**
+	 * Brings the mirror in line with the active orders on the exchange.  This costs one authenticated call, and a second
+	 * for the trade history if an order has gone.
+	 */
+	public void reconcile() throws BTCEException {
+		long started = System.nanoTime() ;
+		OrderList list = btce.getActiveOrders(null) ;
+		Map<Long,OrderListOrder> active = new HashMap<Long,OrderListOrder>() ;
+		if( list.success != 0 && list.info != null ) {
+			for(OrderListOrder order:list.info.orders) active.put(order.order_id,order) ;
+		} else if( !"no orders".equals(list.error) ) {
+			throw btce.new BTCEException("Unable to get the active orders: "+list.error) ;
+		}
+		List<Event> events = new ArrayList<Event>() ;
+		List<Order> gone = new ArrayList<Order>() ;
+		synchronized(this) {
+			for(OrderListOrder found:active.values()) {
+				Order order = orders.get(found.order_id) ;
+				Long removed_at = removed.get(found.order_id) ;
+				if( order == null ) {
+					// cancelled through the mirror after the list was made
+					if( removed_at != null && removed_at-started > 0 ) continue ;
+					order = new Order(found.order_id,found.order_details.pair,found.order_details.type,found.order_details.rate,
+							found.order_details.amount,0,found.order_details.timestamp,started) ;
+					orders.put(order.order_id,order) ;
+					events.add(opened(order)) ;
+				} else if( order.amount-found.order_details.amount > EPSILON && order.seen-started < 0 ) {
+					double amount = order.amount-found.order_details.amount ;
+					order = order.fill(amount,started) ;
+					orders.put(order.order_id,order) ;
+					events.add(filled(order,amount)) ;
+				}
+			}
+			for(Order order:orders.values()) {
+				// orders placed after the list was made aren't in it yet
+				if( !active.containsKey(order.order_id) && order.seen-started < 0 ) gone.add(order) ;
+			}
+			for(Iterator<Long> it=removed.values().iterator();it.hasNext();) {
+				if( it.next()-started < 0 ) it.remove() ;
+			}
+		}
+		if( !gone.isEmpty() ) {
+			Map<Long,Double> fills = fills(gone) ;
+			synchronized(this) {
+				for(Order order:gone) {
+					if( orders.get(order.order_id) != order ) continue ;	// changed meanwhile
+					orders.remove(order.order_id) ;
+					Double total = fills.get(order.order_id) ;
+					double amount = total == null ? 0 : Math.min(order.amount,total-order.filled) ;
+					if( amount > EPSILON ) events.add(filled(order.fill(amount,started),amount)) ;
+					events.add(closed(order,order.amount-amount <= EPSILON)) ;
+				}
+			}
+		}
+		stale = false ;
+		reconciled = System.currentTimeMillis() ;
+		fire(events) ;
+	}
+
+	/**
+	 * Returns the total filled of each of the orders according to the trade history, read a page at a time from the 
+	 * oldest trade that can belong to them.
+	 */
+	private Map<Long,Double> fills(List<Order> gone) throws BTCEException {
+		long since = Long.MAX_VALUE ;
+		for(Order order:gone) since = Math.min(since,order.timestamp) ;
+		since = Math.max(0,since-HISTORY_MARGIN) ;
+		Map<Long,Double> fills = new HashMap<Long,Double>() ;
+		long from_id = 0 ;
+		for(;;) {
+			TradeHistory history = btce.getTradeHistory(0,HISTORY_PAGE,from_id,0,"ASC",since,0,null) ;
+			if( history.success == 0 || history.info == null ) {
+				if( "no trades".equals(history.error) ) return fills ;
+				throw btce.new BTCEException("Unable to get the trade history: "+history.error) ;
+			}
+			for(TradeHistoryOrder trade:history.info.trades) {
+				from_id = Math.max(from_id,trade.trans_id+1) ;
+				if( trade.trade_details.is_your_order == 0 ) continue ;
+				Double total = fills.get(trade.trade_details.order_id) ;
+				fills.put(trade.trade_details.order_id,(total == null ? 0 : total)+trade.trade_details.amount) ;
+			}
+			// a short page is the last one
+			if( history.info.trades.length < HISTORY_PAGE ) return fills ;
+		}
+	}
+
+	/**
+	 * Reconciles the mirror every <code>interval</code> milliseconds on a daemon thread until {@link #close()}.  Failures
+	 * leave the mirror as it was and are tried again at the next interval.
+	 */
+	public synchronized void startReconciling(long interval) {
+		if( scheduler != null ) scheduler.shutdownNow() ;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"btce-order-mirror") ;
+				t.setDaemon(true) ;
+				return t ;
+			}
+		}) ;
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					reconcile() ;
+				} catch (BTCEException e) {
+					stale = true ;
+				} catch (RuntimeException e) {
+					// a fixed delay task that throws is never run again
+					stale = true ;
+				}
+			}
+		},0,interval,TimeUnit.MILLISECONDS) ;
+	}
+
+	/**
+	 * Stops reconciling.
+	 */
+	public synchronized void close() {
+		if( scheduler != null ) scheduler.shutdownNow() ;
+		scheduler = null ;
+	}
+
+	/**
+	 * A change to pass on to each listener.
+	 */
+	private interface Event {
+		void deliver(Listener listener) ;
+	}
+
+	private Event opened(final Order order) {
+		return new Event() {
+			public void deliver(Listener listener) {
+				listener.opened(order) ;
+			}
+		} ;
+	}
+
+	private Event filled(final Order order,final double amount) {
+		return new Event() {
+			public void deliver(Listener listener) {
+				listener.filled(order,amount) ;
+			}
+		} ;
+	}
+
+	private Event closed(final Order order,final boolean filled) {
+		return new Event() {
+			public void deliver(Listener listener) {
+				listener.closed(order,filled) ;
+			}
+		} ;
+	}
+
+	private void fire(Event event) {
+		for(Listener listener:listeners) {
+			try {
+				event.deliver(listener) ;
+			} catch (RuntimeException e) {
+				// a broken listener mustn't break the trade or reconcile, or the changes to anyone else
+			}
+		}
+	}
+
+	private void fire(List<Event> events) {
+		for(Event event:events) fire(event) ;
+	}
+}
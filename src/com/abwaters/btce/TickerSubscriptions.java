@@ -0,0 +1,309 @@
+package com.abwaters.btce;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.Ticker;
+
+/**
+ * Polls the tickers of subscribed pairs and tells the listeners when they change.
+ * <p>
+ * One thread does all the polling.  Every round gets the tickers of all subscribed pairs with a single
+ * {@link BTCE#getTickers(String...) getTickers} call, which waits on the open API limiter of the {@link BTCE} object, so
+ * the subscriptions stay within the same budget as every other public call.  Listeners are only told about a ticker when
+ * its <code>updated</code> time or one of its values differs from the last one seen for the pair.
+ * <p>
+ * Listeners are called on a separate executor, one call at a time per listener.  A listener that falls behind only gets the
+ * latest ticker of each pair when it catches up, and it never holds up the polling or the other listeners.
+ * <pre>
+ * TickerSubscriptions subscriptions = new TickerSubscriptions(btce) ;
+ * subscriptions.subscribe(BTCE.Pairs.BTC_USD,new TickerSubscriptions.Listener() {
+ *     public void changed(String pair,Ticker ticker) { System.out.println(pair+" "+ticker.last) ; }
+ *     public void failed(BTCEException e) { e.printStackTrace() ; }
+ * }) ;
+ * </pre>
+ */
+public class TickerSubscriptions implements Closeable {
+
+	/**
+	 * Told about ticker changes of the pairs it is subscribed to.  Calls to one listener never overlap.
+	 */
+	public interface Listener {
+		/**
+		 * Called with the first ticker seen for the pair and then every time it changes.
+		 */
+		void changed(String pair,Ticker ticker) ;
+
+		/**
+		 * Called when a poll for the subscribed pairs fails.  Polling carries on.
+		 */
+		void failed(BTCEException e) ;
+	}
+
+	private final BTCE btce ;
+	private final Executor delivery ;
+	private final ExecutorService own_delivery ;	// created here, shut down on close
+	private final ConcurrentMap<String,List<Subscriber>> pairs = new ConcurrentHashMap<String,List<Subscriber>>() ;
+	private final ConcurrentMap<Listener,Subscriber> subscribers = new ConcurrentHashMap<Listener,Subscriber>() ;
+	private final ConcurrentMap<String,Ticker> last = new ConcurrentHashMap<String,Ticker>() ;
+	private final AtomicLong polls = new AtomicLong() ;
+	private final AtomicLong changes = new AtomicLong() ;
+	private final AtomicLong errors = new AtomicLong() ;
+	private final Object wakeup = new Object() ;
+	private final Thread poller ;
+	private volatile long interval ;
+	private volatile boolean closed ;
+
+	/**
+	 * Creates the subscriptions with a pool of daemon threads for calling the listeners.
+	 */
+	public TickerSubscriptions(BTCE btce) {
+		this(btce,null) ;
+	}
+
+	/**
+	 * @param delivery the executor the listeners are called on, null for a pool of daemon threads.
+	 */
+	public TickerSubscriptions(BTCE btce,Executor delivery) {
+		this.btce = btce ;
+		if( delivery == null ) {
+			own_delivery = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger() ;
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r,"btce-ticker-listener-"+count.incrementAndGet()) ;
+					t.setDaemon(true) ;
+					return t ;
+				}
+			}) ;
+			delivery = own_delivery ;
+		} else own_delivery = null ;
+		this.delivery = delivery ;
+		poller = new Thread(new Runnable() {
+			public void run() {
+				poll() ;
+			}
+		},"btce-ticker-poller") ;
+		poller.setDaemon(true) ;
+		poller.start() ;
+	}
+
+	/**
+	 * Sets the shortest time between polls.  By default the poller goes as fast as the open API limiter allows.
+	 *
+	 * @param interval milliseconds between the start of one poll and the next.
+	 */
+	public void setInterval(long interval) {
+		this.interval = TimeUnit.MILLISECONDS.toNanos(interval) ;
+	}
+
+	public long getInterval() {
+		return TimeUnit.NANOSECONDS.toMillis(interval) ;
+	}
+
+	/**
+	 * Subscribes the listener to the pair.  If a ticker has already been seen for the pair the listener is given it
+	 * straight away rather than waiting for the next change.
+	 */
+	public void subscribe(String pair,Listener listener) {
+		Subscriber subscriber = subscribers.get(listener) ;
+		if( subscriber == null ) {
+			Subscriber created = new Subscriber(listener) ;
+			subscriber = subscribers.putIfAbsent(listener,created) ;
+			if( subscriber == null ) subscriber = created ;
+		}
+		List<Subscriber> list = pairs.get(pair) ;
+		if( list == null ) {
+			List<Subscriber> created = new CopyOnWriteArrayList<Subscriber>() ;
+			list = pairs.putIfAbsent(pair,created) ;
+			if( list == null ) list = created ;
+		}
+		if( !((CopyOnWriteArrayList<Subscriber>)list).addIfAbsent(subscriber) ) return ;
+		Ticker ticker = last.get(pair) ;
+		if( ticker != null ) subscriber.offer(pair,ticker) ;
+		synchronized(wakeup) {
+			wakeup.notifyAll() ;
+		}
+	}
+
+	/**
+	 * Removes the listener from the pair.  A change already on its way to the listener may still arrive.
+	 */
+	public void unsubscribe(String pair,Listener listener) {
+		Subscriber subscriber = subscribers.get(listener) ;
+		List<Subscriber> list = pairs.get(pair) ;
+		if( subscriber == null || list == null ) return ;
+		list.remove(subscriber) ;
+		subscriber.pending.remove(pair) ;
+	}
+
+	/**
+	 * Returns the last ticker seen for the pair, null if it hasn't been polled yet.
+	 */
+	public Ticker getTicker(String pair) {
+		return last.get(pair) ;
+	}
+
+	/**
+	 * Returns the number of polls made.
+	 */
+	public long getPollCount() {
+		return polls.get() ;
+	}
+
+	/**
+	 * Returns the number of ticker changes seen, counted once per pair however many listeners it has.
+	 */
+	public long getChangeCount() {
+		return changes.get() ;
+	}
+
+	/**
+	 * Returns the number of polls that failed.
+	 */
+	public long getErrorCount() {
+		return errors.get() ;
+	}
+
+	/**
+	 * Stops polling.  A call in flight is abandoned and the delivery threads created by the subscriptions are shut down.
+	 */
+	public void close() {
+		closed = true ;
+		poller.interrupt() ;
+		if( own_delivery != null ) own_delivery.shutdown() ;
+	}
+
+	private void poll() {
+		try {
+			while( !closed ) {
+				String[] subscribed = subscribedPairs() ;
+				if( subscribed.length == 0 ) {
+					synchronized(wakeup) {
+						if( subscribedPairs().length == 0 ) wakeup.wait() ;
+					}
+					continue ;
+				}
+				long start = System.nanoTime() ;
+				polls.incrementAndGet() ;
+				try {
+					update(btce.getTickers(subscribed)) ;
+				} catch (BTCEException e) {
+					if( closed ) break ;
+					errors.incrementAndGet() ;
+					for(String pair:subscribed) {
+						List<Subscriber> list = pairs.get(pair) ;
+						if( list != null ) for(Subscriber subscriber:list) subscriber.fail(e) ;
+					}
+				}
+				long wait = interval-(System.nanoTime()-start) ;
+				if( wait > 0 ) TimeUnit.NANOSECONDS.sleep(wait) ;
+			}
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	private String[] subscribedPairs() {
+		List<String> subscribed = new ArrayList<String>() ;
+		for(Map.Entry<String,List<Subscriber>> entry:pairs.entrySet()) {
+			if( !entry.getValue().isEmpty() ) subscribed.add(entry.getKey()) ;
+		}
+		return subscribed.toArray(new String[subscribed.size()]) ;
+	}
+
+	private void update(Map<String,Ticker> tickers) {
+		for(Map.Entry<String,Ticker> entry:tickers.entrySet()) {
+			String pair = entry.getKey() ;
+			Ticker ticker = entry.getValue() ;
+			if( ticker == null || same(last.get(pair),ticker) ) continue ;
+			last.put(pair,ticker) ;
+			changes.incrementAndGet() ;
+			List<Subscriber> list = pairs.get(pair) ;
+			if( list != null ) for(Subscriber subscriber:list) subscriber.offer(pair,ticker) ;
+		}
+	}
+
+	/**
+	 * Compares everything but <code>server_time</code>, which moves on with every response.
+	 */
+	static boolean same(Ticker a,Ticker b) {
+		if( a == null || b == null ) return a == b ;
+		return a.updated == b.updated && a.last == b.last && a.buy == b.buy && a.sell == b.sell
+				&& a.high == b.high && a.low == b.low && a.avg == b.avg && a.vol == b.vol && a.vol_cur == b.vol_cur ;
+	}
+
+	/**
+	 * Hands changes to one listener, one at a time.  Only the latest ticker of each pair is kept while the listener is busy.
+	 */
+	private class Subscriber implements Runnable {
+		private final Listener listener ;
+		private final ConcurrentMap<String,Ticker> pending = new ConcurrentHashMap<String,Ticker>() ;
+		private final AtomicBoolean scheduled = new AtomicBoolean() ;
+		private volatile BTCEException failure ;
+
+		private Subscriber(Listener listener) {
+			this.listener = listener ;
+		}
+
+		private void offer(String pair,Ticker ticker) {
+			pending.put(pair,ticker) ;
+			schedule() ;
+		}
+
+		private void fail(BTCEException e) {
+			failure = e ;
+			schedule() ;
+		}
+
+		private void schedule() {
+			if( closed || !scheduled.compareAndSet(false,true) ) return ;
+			try {
+				delivery.execute(this) ;
+			} catch (RuntimeException e) {
+				// the executor is shutting down
+				scheduled.set(false) ;
+			}
+		}
+
+		public void run() {
+			do {
+				BTCEException e = failure ;
+				if( e != null ) {
+					failure = null ;
+					deliver(null,null,e) ;
+				}
+				for(Iterator<Map.Entry<String,Ticker>> it=pending.entrySet().iterator();it.hasNext();) {
+					Map.Entry<String,Ticker> entry = it.next() ;
+					String pair = entry.getKey() ;
+					Ticker ticker = pending.remove(pair) ;
+					if( ticker != null ) deliver(pair,ticker,null) ;
+				}
+				scheduled.set(false) ;
+			} while( (failure != null || !pending.isEmpty()) && !closed && scheduled.compareAndSet(false,true) ) ;
+		}
+
+		private void deliver(String pair,Ticker ticker,BTCEException e) {
+			try {
+				if( e != null ) listener.failed(e) ;
+				else listener.changed(pair,ticker) ;
+			} catch (RuntimeException re) {
+				// a broken listener shouldn't stop the changes to it, or to anyone else
+			}
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package com.abwaters.btce;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.TradesDetail;
+
+/**
+ * Polls the recent trades of one or more pairs and publishes each trade once, oldest first, to any number of consumers.
+ * <p>
+ * Successive {@link BTCE#getTradesMap(String...) getTradesMap} results overlap, so the stream remembers the newest
+ * <code>tid</code> published for each pair and skips everything up to it.  Polls wait on the open API limiter of the
+ * {@link BTCE} object like any other public call.
+ * <p>
+ * New trades are copied into a ring of {@link TradesDetail} slots allocated up front and the slots are handed to the
+ * consumers in place, so publishing a trade allocates nothing.  Every consumer runs on its own thread and keeps its own
+ * position in the ring.  A slot is only reused once every consumer is past it: when the ring is full the poller waits for
+ * the slowest consumer before it polls again, and the stall is counted.  Trades that leave the exchange's window in the
+ * meantime are not seen, so size the ring for the slowest consumer's worst burst.
+ * <p>
+ * The slot passed to a consumer is only valid during the call, copy what needs to be kept.
+ * <pre>
+ * TradeStream stream = new TradeStream(btce,1024,BTCE.Pairs.BTC_USD,BTCE.Pairs.LTC_USD) ;
+ * stream.addConsumer(new TradeStream.Handler() {
+ *     public void onTrade(TradesDetail trade,long sequence,boolean end_of_batch) { System.out.println(trade.tid+" "+trade.price) ; }
+ * }) ;
+ * stream.start() ;
+ * </pre>
+ */
+public class TradeStream implements Closeable {
+
+	/**
+	 * Receives the trades of a stream in order.  Calls to one handler never overlap.
+	 */
+	public interface Handler {
+		/**
+		 * @param trade the trade, only valid during the call.
+		 * @param sequence the position of the trade in the stream, starting at 0.
+		 * @param end_of_batch true for the last trade available when the call was made.
+		 */
+		void onTrade(TradesDetail trade,long sequence,boolean end_of_batch) ;
+	}
+
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1) ;
+
+	private final BTCE btce ;
+	private final String[] pairs ;
+	private final long[] last_tids ;	// only touched by the poller
+	private final TradesDetail[] ring ;
+	private final int mask ;
+	private final AtomicLong cursor = new AtomicLong(-1) ;	// the last published sequence
+	private final AtomicLong polls = new AtomicLong() ;
+	private final AtomicLong errors = new AtomicLong() ;
+	private final AtomicLong duplicates = new AtomicLong() ;
+	private final AtomicLong stalls = new AtomicLong() ;
+	private final Thread poller ;
+	private volatile Consumer[] consumers = new Consumer[0] ;
+	private volatile long interval ;
+	private volatile boolean closed ;
+	private volatile BTCEException last_error ;
+
+	/**
+	 * @param capacity the number of slots in the ring, rounded up to a power of two.
+	 * @param pairs the pairs to follow.
+	 */
+	public TradeStream(BTCE btce,int capacity,String... pairs) {
+		if( capacity < 1 || capacity > 1<<30 ) throw new IllegalArgumentException("Invalid capacity: "+capacity) ;
+		if( pairs == null || pairs.length == 0 ) throw new IllegalArgumentException("No pairs specified.") ;
+		this.btce = btce ;
+		this.pairs = pairs.clone() ;
+		this.last_tids = new long[pairs.length] ;
+		int size = Integer.highestOneBit(capacity) ;
+		if( size < capacity ) size <<= 1 ;
+		ring = new TradesDetail[size] ;
+		for(int i=0;i<size;i++) ring[i] = new TradesDetail() ;
+		mask = size-1 ;
+		poller = new Thread(new Runnable() {
+			public void run() {
+				poll() ;
+			}
+		},"btce-trade-stream") ;
+		poller.setDaemon(true) ;
+	}
+
+	/**
+	 * Sets the shortest time between polls.  By default the poller goes as fast as the open API limiter allows.
+	 *
+	 * @param interval milliseconds between the start of one poll and the next.
+	 */
+	public void setInterval(long interval) {
+		this.interval = TimeUnit.MILLISECONDS.toNanos(interval) ;
+	}
+
+	public long getInterval() {
+		return TimeUnit.NANOSECONDS.toMillis(interval) ;
+	}
+
+	/**
+	 * Sets the newest trade already seen for a pair, so the stream starts after it rather than with the whole first window.
+	 * Call before {@link #start()}.
+	 */
+	public void setLastTid(String pair,long tid) {
+		for(int i=0;i<pairs.length;i++) if( pairs[i].equals(pair) ) last_tids[i] = tid ;
+	}
+
+	/**
+	 * Adds a consumer on its own daemon thread.  It gets the trades published from now on, so consumers added before
+	 * {@link #start()} see the whole stream.
+	 *
+	 * @return the consumer, which can be asked how far behind it is and removed.
+	 */
+	public synchronized Consumer addConsumer(Handler handler) {
+		Consumer consumer = new Consumer(handler,consumers.length) ;
+		Consumer[] grown = new Consumer[consumers.length+1] ;
+		System.arraycopy(consumers,0,grown,0,consumers.length) ;
+		grown[consumers.length] = consumer ;
+		consumers = grown ;
+		consumer.thread.start() ;
+		return consumer ;
+	}
+
+	private synchronized void removeConsumer(Consumer consumer) {
+		Consumer[] current = consumers ;
+		for(int i=0;i<current.length;i++) {
+			if( current[i] != consumer ) continue ;
+			Consumer[] shrunk = new Consumer[current.length-1] ;
+			System.arraycopy(current,0,shrunk,0,i) ;
+			System.arraycopy(current,i+1,shrunk,i,current.length-i-1) ;
+			consumers = shrunk ;
+			break ;
+		}
+		LockSupport.unpark(poller) ;
+	}
+
+	/**
+	 * Starts polling.
+	 */
+	public void start() {
+		poller.start() ;
+	}
+
+	/**
+	 * Returns the sequence of the last trade published, -1 before the first.
+	 */
+	public long getCursor() {
+		return cursor.get() ;
+	}
+
+	/**
+	 * Returns the number of slots in the ring.
+	 */
+	public int getCapacity() {
+		return ring.length ;
+	}
+
+	/**
+	 * Returns the number of polls made.
+	 */
+	public long getPollCount() {
+		return polls.get() ;
+	}
+
+	/**
+	 * Returns the number of polls that failed.
+	 */
+	public long getErrorCount() {
+		return errors.get() ;
+	}
+
+	/**
+	 * Returns the failure of the last poll that failed, null if none has.
+	 */
+	public BTCEException getLastError() {
+		return last_error ;
+	}
+
+	/**
+	 * Returns the number of trades skipped because they had already been published.
+	 */
+	public long getDuplicateCount() {
+		return duplicates.get() ;
+	}
+
+	/**
+	 * Returns the number of times the poller had to wait for a slow consumer to free a slot.
+	 */
+	public long getStallCount() {
+		return stalls.get() ;
+	}
+
+	/**
+	 * Stops polling and the consumer threads.  A poll in flight is abandoned and trades not yet consumed are dropped.
+	 */
+	public void close() {
+		closed = true ;
+		poller.interrupt() ;
+		for(Consumer consumer:consumers) LockSupport.unpark(consumer.thread) ;
+	}
+
+	private void poll() {
+		try {
+			while( !closed ) {
+				long start = System.nanoTime() ;
+				polls.incrementAndGet() ;
+				try {
+					Map<String,TradesDetail[]> trades = btce.getTradesMap(pairs) ;
+					for(int i=0;i<pairs.length && !closed;i++) publish(i,trades.get(pairs[i])) ;
+				} catch (BTCEException e) {
+					if( closed ) break ;
+					errors.incrementAndGet() ;
+					last_error = e ;
+				}
+				long wait = interval-(System.nanoTime()-start) ;
+				if( wait > 0 ) TimeUnit.NANOSECONDS.sleep(wait) ;
+			}
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Publishes the trades of a pair newer than the last one published.  The exchange lists trades newest first.
+	 */
+	private void publish(int pair,TradesDetail[] trades) {
+		if( trades == null ) return ;
+		long last_tid = last_tids[pair] ;
+		int skipped = 0 ;
+		boolean published = false ;
+		for(int i=trades.length-1;i>=0 && !closed;i--) {
+			TradesDetail trade = trades[i] ;
+			if( trade.tid <= last_tid ) {
+				skipped++ ;
+				continue ;
+			}
+			long next = cursor.get()+1 ;
+			if( !claim(next) ) return ;
+			TradesDetail slot = ring[(int)next&mask] ;
+			slot.tid = trade.tid ;
+			slot.date = trade.date ;
+			slot.price = trade.price ;
+			slot.amount = trade.amount ;
+			slot.price_currency = trade.price_currency ;
+			slot.item = trade.item ;
+			slot.trade_type = trade.trade_type ;
+			cursor.set(next) ;
+			last_tid = last_tids[pair] = trade.tid ;
+			published = true ;
+		}
+		duplicates.addAndGet(skipped) ;
+		if( published ) wakeConsumers() ;
+	}
+
+	/**
+	 * Waits until no consumer still needs the slot for the sequence.
+	 *
+	 * @return false if the stream was closed while waiting.
+	 */
+	private boolean claim(long sequence) {
+		long wrap = sequence-ring.length ;
+		if( wrap <= slowest() ) return true ;
+		stalls.incrementAndGet() ;
+		wakeConsumers() ;
+		while( wrap > slowest() ) {
+			if( closed ) return false ;
+			LockSupport.parkNanos(this,PARK_NANOS) ;
+		}
+		return true ;
+	}
+
+	private long slowest() {
+		long min = Long.MAX_VALUE ;
+		for(Consumer consumer:consumers) {
+			long sequence = consumer.sequence.get() ;
+			if( sequence < min ) min = sequence ;
+		}
+		return min ;
+	}
+
+	private void wakeConsumers() {
+		for(Consumer consumer:consumers) LockSupport.unpark(consumer.thread) ;
+	}
+
+	/**
+	 * A consumer of the stream with its own thread and position in the ring.
+	 */
+	public class Consumer {
+		private final Handler handler ;
+		private final AtomicLong sequence ;	// the last sequence handled
+		private final Thread thread ;
+		private volatile boolean removed ;
+
+		private Consumer(Handler handler,int n) {
+			this.handler = handler ;
+			this.sequence = new AtomicLong(cursor.get()) ;
+			thread = new Thread(new Runnable() {
+				public void run() {
+					consume() ;
+				}
+			},"btce-trade-consumer-"+n) ;
+			thread.setDaemon(true) ;
+		}
+
+		/**
+		 * Returns the sequence of the last trade handled, -1 before the first.
+		 */
+		public long getSequence() {
+			return sequence.get() ;
+		}
+
+		/**
+		 * Returns the number of published trades not yet handled.
+		 */
+		public long getLag() {
+			return cursor.get()-sequence.get() ;
+		}
+
+		/**
+		 * Stops the consumer and frees the slots it was holding back.
+		 */
+		public void remove() {
+			removed = true ;
+			LockSupport.unpark(thread) ;
+			removeConsumer(this) ;
+		}
+
+		private void consume() {
+			long next = sequence.get()+1 ;
+			while( !closed && !removed ) {
+				long available = cursor.get() ;
+				if( available < next ) {
+					LockSupport.parkNanos(this,PARK_NANOS) ;
+					continue ;
+				}
+				for(;next<=available;next++) {
+					try {
+						handler.onTrade(ring[(int)next&mask],next,next == available) ;
+					} catch (RuntimeException e) {
+						// a broken handler shouldn't stop the stream
+					}
+				}
+				sequence.set(available) ;
+				LockSupport.unpark(poller) ;
+			}
+		}
+	}
+}
@@ -0,0 +1,463 @@
+package com.abwaters.btce;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.abwaters.btce.BTCE.TradesDetail;
+
+/**
+ * A persistent, append only store for the public trades returned by {@link BTCE#getTrades(String) getTrades}.
+ * <p>
+ * Trades are stored by column in memory mapped files in a directory: the tid, date, price and amount as primitives and 
+ * the item, price currency and trade type as one byte codes into a dictionary of strings.  Trades that are already in the 
+ * store are skipped when appending (the exchange returns overlapping windows of trades from one poll to the next), so the 
+ * results of every poll can simply be appended.  Older trades that were missed, from a backfill for example, are added 
+ * when appended later.  A trade with a tid above the highest stored for its pair is new; older ones are looked up with a
+ * binary search of a mapped index of the stored tids, sorted by tid and pair, so nothing per trade is kept on the heap.
+ * <p>
+ * Scans by time go straight through the mapped columns without creating any objects.  A minimum and maximum date is kept 
+ * for every block of rows so blocks outside the time range are skipped.
+ * <p>
+ * The number of rows is written after the rows themselves, so if the process dies in the middle of an append that append is
+ * lost but there is never a partial row.  An index left out of step with the rows that way is rebuilt when the store is
+ * opened.  Appends are synchronized, scans can run at the same time as appends.
+ * <pre>
+ * TradeTape tape = new TradeTape(new File("trades")) ;
+ * tape.append(btce.getTrades(BTCE.Pairs.BTC_USD)) ;
+ * tape.scan(since,until,new TradeTape.Visitor() { ... }) ;
+ * </pre>
+ */
+public class TradeTape implements Closeable {
+
+	/**
+	 * Receives the trades of a scan.
+	 */
+	public interface Visitor {
+		/**
+		 * Called for every trade in the scan.
+		 * 
+		 * @return false to stop the scan.
+		 */
+		boolean trade(long tid,long date,double price,double amount,String item,String price_currency,String trade_type) ;
+	}
+	
+	private static final Charset UTF_8 = Charset.forName("UTF-8") ;
+	private static final int INITIAL_CAPACITY = 1<<16 ;	// rows
+	private static final int BLOCK_SHIFT = 12 ;	// 4096 rows per block in the date index
+	private static final int MAX_DICTIONARY = 256 ;
+	
+	private final File dir ;
+	private final RandomAccessFile header_file ;
+	private final MappedByteBuffer header ;
+	private final Column tid, date, price, amount, item, currency, type ;
+	private final OutputStream dictionary_out ;
+	private final List<String> dictionary = new ArrayList<String>() ;
+	private final Map<String,Integer> codes = new HashMap<String,Integer>() ;
+	private final TidIndex tid_index ;
+	private final Map<Integer,Long> high_water = new HashMap<Integer,Long>() ;	// highest tid per item and price currency
+	private volatile String[] words = new String[0] ;
+	private volatile long[] block_min = new long[0], block_max = new long[0] ;
+	private volatile int count ;
+	
+	/**
+	 * Opens the store in the directory, creating it if necessary.
+	 */
+	public TradeTape(File dir) throws IOException {
+		this.dir = dir ;
+		if( !dir.isDirectory() && !dir.mkdirs() ) throw new IOException("Can't create "+dir) ;
+		header_file = new RandomAccessFile(new File(dir,"count"),"rw") ;
+		header = header_file.getChannel().map(FileChannel.MapMode.READ_WRITE,0,8) ;
+		int rows = (int)header.getLong(0) ;
+		int capacity = Math.max(INITIAL_CAPACITY,Integer.highestOneBit(Math.max(rows,1))*2) ;
+		tid = new Column("tid",8,capacity) ;
+		date = new Column("date",8,capacity) ;
+		price = new Column("price",8,capacity) ;
+		amount = new Column("amount",8,capacity) ;
+		item = new Column("item",1,capacity) ;
+		currency = new Column("price_currency",1,capacity) ;
+		type = new Column("trade_type",1,capacity) ;
+		
+		File dictionary_file = new File(dir,"dictionary") ;
+		if( dictionary_file.exists() ) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(dictionary_file),UTF_8)) ;
+			try {
+				String word ;
+				while( (word = in.readLine()) != null ) {
+					codes.put(word,dictionary.size()) ;
+					dictionary.add(word) ;
+				}
+			} finally {
+				in.close() ;
+			}
+		}
+		words = dictionary.toArray(new String[dictionary.size()]) ;
+		dictionary_out = new FileOutputStream(dictionary_file,true) ;
+		
+		// rebuild the high-water marks and the date index
+		for(int row=0;row<rows;row++) {
+			highWater(pairKey(item.buffer.get(row),currency.buffer.get(row)),tid.buffer.getLong(row*8)) ;
+			index(row,date.buffer.getLong(row*8)) ;
+		}
+		tid_index = new TidIndex(rows) ;
+		count = rows ;
+	}
+	
+	/**
+	 * Returns the number of trades in the store.
+	 */
+	public int size() {
+		return count ;
+	}
+	
+	/**
+	 * Appends the trades that aren't already in the store.  The trades can be in any order, the ones added by one call are 
+	 * stored in tid order.
+	 * 
+	 * @return the number of trades added.
+	 */
+	public synchronized int append(TradesDetail[] trades) throws IOException {
+		TradesDetail[] sorted = trades.clone() ;
+		Arrays.sort(sorted,new Comparator<TradesDetail>() {
+			public int compare(TradesDetail a,TradesDetail b) {
+				return a.tid < b.tid ? -1 : (a.tid == b.tid ? 0 : 1) ;
+			}
+		}) ;
+		// nothing is kept until the rows and the index are written, so a failure drops the whole append
+		int row = count ;
+		for(TradesDetail trade:sorted) {
+			byte item_code = code(trade.item), currency_code = code(trade.price_currency) ;
+			int pair = pairKey(item_code,currency_code) ;
+			if( isStored(trade.tid,pair) || isAdded(trade.tid,pair,row) ) continue ;
+			ensureCapacity(row+1) ;
+			tid.buffer.putLong(row*8,trade.tid) ;
+			date.buffer.putLong(row*8,trade.date) ;
+			price.buffer.putDouble(row*8,trade.price) ;
+			amount.buffer.putDouble(row*8,trade.amount) ;
+			item.buffer.put(row,item_code) ;
+			currency.buffer.put(row,currency_code) ;
+			type.buffer.put(row,code(trade.trade_type)) ;
+			index(row,trade.date) ;
+			row++ ;
+		}
+		int added = row-count ;
+		if( added > 0 ) {
+			long[] tids = new long[added] ;
+			int[] pairs = new int[added] ;
+			for(int i=0;i<added;i++) {
+				int r = count+i ;
+				tids[i] = tid.buffer.getLong(r*8) ;
+				pairs[i] = pairKey(item.buffer.get(r),currency.buffer.get(r)) ;
+			}
+			tid_index.add(tids,pairs,added) ;
+			header.putLong(0,row) ;
+			count = row ;
+			for(int i=0;i<added;i++) highWater(pairs[i],tids[i]) ;
+		}
+		return added ;
+	}
+	
+	/**
+	 * Visits the trades with a date in the range, in the order they were stored.
+	 * 
+	 * @param since the first date to include, in unix time.
+	 * @param until the last date to include, in unix time.
+	 * @return the number of trades visited.
+	 */
+	public int scan(long since,long until,Visitor visitor) {
+		int rows = count ;
+		long[] min = block_min, max = block_max ;
+		String[] w = words ;
+		MappedByteBuffer tids = tid.buffer, dates = date.buffer, prices = price.buffer, amounts = amount.buffer ;
+		MappedByteBuffer items = item.buffer, currencies = currency.buffer, types = type.buffer ;
+		int visited = 0 ;
+		for(int block=0;block<<BLOCK_SHIFT < rows;block++) {
+			if( block < min.length && (max[block] < since || min[block] > until) ) continue ;
+			int end = Math.min(rows,(block+1)<<BLOCK_SHIFT) ;
+			for(int row=block<<BLOCK_SHIFT;row<end;row++) {
+				long d = dates.getLong(row*8) ;
+				if( d < since || d > until ) continue ;
+				visited++ ;
+				if( !visitor.trade(tids.getLong(row*8),d,prices.getDouble(row*8),amounts.getDouble(row*8),
+						w[items.get(row)&0xff],w[currencies.get(row)&0xff],w[types.get(row)&0xff]) ) return visited ;
+			}
+		}
+		return visited ;
+	}
+	
+	public long getTid(int row) {
+		return tid.buffer.getLong(check(row)*8) ;
+	}
+	
+	public long getDate(int row) {
+		return date.buffer.getLong(check(row)*8) ;
+	}
+	
+	public double getPrice(int row) {
+		return price.buffer.getDouble(check(row)*8) ;
+	}
+	
+	public double getAmount(int row) {
+		return amount.buffer.getDouble(check(row)*8) ;
+	}
+	
+	public String getItem(int row) {
+		return words[item.buffer.get(check(row))&0xff] ;
+	}
+	
+	public String getPriceCurrency(int row) {
+		return words[currency.buffer.get(check(row))&0xff] ;
+	}
+	
+	public String getTradeType(int row) {
+		return words[type.buffer.get(check(row))&0xff] ;
+	}
+	
+	/**
+	 * Forces everything written so far to the storage device.
+	 */
+	public synchronized void force() {
+		for(Column c:columns()) c.buffer.force() ;
+		tid_index.buffer.force() ;
+		header.force() ;
+	}
+	
+	public synchronized void close() throws IOException {
+		force() ;
+		for(Column c:columns()) c.file.close() ;
+		tid_index.file.close() ;
+		header_file.close() ;
+		dictionary_out.close() ;
+	}
+	
+	private Column[] columns() {
+		return new Column[] { tid, date, price, amount, item, currency, type } ;
+	}
+	
+	private int check(int row) {
+		if( row < 0 || row >= count ) throw new IndexOutOfBoundsException("Row "+row+" of "+count) ;
+		return row ;
+	}
+	
+	private static int pairKey(byte item,byte currency) {
+		return (item&0xff)<<8|(currency&0xff) ;
+	}
+	
+	private void highWater(int pair,long t) {
+		Long max = high_water.get(pair) ;
+		if( max == null || t > max ) high_water.put(pair,t) ;
+	}
+	
+	/**
+	 * Returns true if the trade is in the store.
+	 */
+	private boolean isStored(long t,int pair) {
+		Long max = high_water.get(pair) ;
+		return max != null && t <= max && tid_index.contains(t,pair) ;
+	}
+	
+	/**
+	 * Returns true if the trade is one of the rows written by the append in progress, which are in tid order from 
+	 * <code>count</code> up to <code>row</code>.
+	 */
+	private boolean isAdded(long t,int pair,int row) {
+		for(int r=row-1;r>=count && tid.buffer.getLong(r*8) == t;r--) {
+			if( pairKey(item.buffer.get(r),currency.buffer.get(r)) == pair ) return true ;
+		}
+		return false ;
+	}
+	
+	/**
+	 * Returns the dictionary code for the word, adding it to the dictionary if it is new.
+	 */
+	private byte code(String word) throws IOException {
+		if( word == null ) word = "" ;
+		Integer code = codes.get(word) ;
+		if( code != null ) return (byte)(int)code ;
+		if( dictionary.size() == MAX_DICTIONARY ) throw new IOException("Dictionary is full") ;
+		if( word.indexOf('\n') >= 0 || word.indexOf('\r') >= 0 ) throw new IOException("Invalid dictionary word: "+word) ;
+		// written before any row refers to it
+		dictionary_out.write((word+"\n").getBytes(UTF_8)) ;
+		dictionary_out.flush() ;
+		code = dictionary.size() ;
+		dictionary.add(word) ;
+		codes.put(word,code) ;
+		words = dictionary.toArray(new String[dictionary.size()]) ;
+		return (byte)(int)code ;
+	}
+	
+	private void index(int row,long d) {
+		int block = row>>BLOCK_SHIFT ;
+		long[] min = block_min, max = block_max ;
+		if( block >= min.length ) {
+			min = Arrays.copyOf(min,Math.max(16,min.length*2)) ;
+			max = Arrays.copyOf(max,min.length) ;
+			Arrays.fill(min,block,min.length,Long.MAX_VALUE) ;
+			Arrays.fill(max,block,max.length,Long.MIN_VALUE) ;
+		}
+		if( d < min[block] ) min[block] = d ;
+		if( d > max[block] ) max[block] = d ;
+		block_max = max ;
+		block_min = min ;
+	}
+	
+	private void ensureCapacity(int rows) throws IOException {
+		if( rows <= tid.capacity ) return ;
+		int capacity = tid.capacity*2 ;
+		for(Column c:columns()) c.map(capacity) ;
+	}
+	
+	/**
+	 * The tid and pair of every row, sorted by tid then pair, in a mapped file.  The file starts with the number of 
+	 * entries, which is -1 while entries are being added.  New trades have the highest tids, so adding them only writes at 
+	 * the end; older ones are merged in from the end backwards.
+	 */
+	private class TidIndex {
+		private static final int ENTRY = 10 ;	// tid and pair
+		private final RandomAccessFile file ;
+		private MappedByteBuffer buffer ;
+		private int capacity, size ;
+		
+		private TidIndex(int rows) throws IOException {
+			file = new RandomAccessFile(new File(dir,"tid_index"),"rw") ;
+			map(Math.max(INITIAL_CAPACITY,tid.capacity)) ;
+			size = (int)buffer.getLong(0) ;
+			if( size != rows ) rebuild(rows) ;
+		}
+		
+		private void map(int capacity) throws IOException {
+			if( 8+(long)capacity*ENTRY > Integer.MAX_VALUE ) throw new IOException("Trade tape is full") ;
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE,0,8+(long)capacity*ENTRY) ;
+			this.capacity = capacity ;
+		}
+		
+		private long tidAt(int i) {
+			return buffer.getLong(8+i*ENTRY) ;
+		}
+		
+		private int pairAt(int i) {
+			return buffer.getChar(8+i*ENTRY+8) ;
+		}
+		
+		private void put(int i,long t,int pair) {
+			buffer.putLong(8+i*ENTRY,t) ;
+			buffer.putChar(8+i*ENTRY+8,(char)pair) ;
+		}
+		
+		private int compare(int i,long t,int pair) {
+			long x = tidAt(i) ;
+			if( x != t ) return x < t ? -1 : 1 ;
+			return pairAt(i)-pair ;
+		}
+		
+		private boolean contains(long t,int pair) {
+			int lo = 0, hi = size-1 ;
+			while( lo <= hi ) {
+				int mid = (lo+hi)>>>1 ;
+				int cmp = compare(mid,t,pair) ;
+				if( cmp < 0 ) lo = mid+1 ;
+				else if( cmp > 0 ) hi = mid-1 ;
+				else return true ;
+			}
+			return false ;
+		}
+		
+		/**
+		 * Adds entries that are sorted by tid and not in the index yet.
+		 */
+		private void add(long[] tids,int[] pairs,int n) throws IOException {
+			if( size+n > capacity ) map(Math.max(size+n,capacity*2)) ;
+			// trades with the same tid can be out of pair order
+			for(int i=1;i<n;i++) {
+				for(int j=i;j>0 && tids[j-1] == tids[j] && pairs[j-1] > pairs[j];j--) {
+					int p = pairs[j] ; pairs[j] = pairs[j-1] ; pairs[j-1] = p ;
+				}
+			}
+			buffer.putLong(0,-1) ;
+			int i = size-1, j = n-1 ;
+			for(int w=size+n-1;j>=0;w--) {
+				if( i >= 0 && compare(i,tids[j],pairs[j]) > 0 ) {
+					put(w,tidAt(i),pairAt(i)) ;
+					i-- ;
+				} else {
+					put(w,tids[j],pairs[j]) ;
+					j-- ;
+				}
+			}
+			size += n ;
+			buffer.putLong(0,size) ;
+		}
+		
+		/**
+		 * Writes the entries of the rows and heap sorts them in place.
+		 */
+		private void rebuild(int rows) throws IOException {
+			if( rows > capacity ) map(rows) ;
+			buffer.putLong(0,-1) ;
+			for(int row=0;row<rows;row++) put(row,tid.buffer.getLong(row*8),pairKey(item.buffer.get(row),currency.buffer.get(row))) ;
+			for(int i=rows/2-1;i>=0;i--) siftDown(i,rows) ;
+			for(int end=rows-1;end>0;end--) {
+				swap(0,end) ;
+				siftDown(0,end) ;
+			}
+			size = rows ;
+			buffer.putLong(0,size) ;
+		}
+		
+		private void siftDown(int i,int n) {
+			for(;;) {
+				int child = 2*i+1 ;
+				if( child >= n ) return ;
+				if( child+1 < n && compare(child+1,tidAt(child),pairAt(child)) > 0 ) child++ ;
+				if( compare(i,tidAt(child),pairAt(child)) >= 0 ) return ;
+				swap(i,child) ;
+				i = child ;
+			}
+		}
+		
+		private void swap(int i,int j) {
+			long t = tidAt(i) ;
+			int pair = pairAt(i) ;
+			put(i,tidAt(j),pairAt(j)) ;
+			put(j,t,pair) ;
+		}
+	}
+	
+	/**
+	 * One column file.  Growing a column maps the file again at the larger size; scans still holding the previous mapping
+	 * keep working since both map the same file.
+	 */
+	private class Column {
+		private final RandomAccessFile file ;
+		private final int width ;
+		private volatile MappedByteBuffer buffer ;
+		private int capacity ;
+		
+		private Column(String name,int width,int capacity) throws IOException {
+			this.width = width ;
+			file = new RandomAccessFile(new File(dir,name),"rw") ;
+			map(capacity) ;
+		}
+		
+		private void map(int capacity) throws IOException {
+			if( (long)capacity*width > Integer.MAX_VALUE ) throw new IOException("Trade tape is full") ;
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE,0,(long)capacity*width) ;
+			this.capacity = capacity ;
+		}
+	}
+}
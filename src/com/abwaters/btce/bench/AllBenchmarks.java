@@ -0,0 +1,15 @@
+package com.abwaters.btce.bench;
+
+/**
+ * Runs every benchmark in the package.  Each prints the time, throughput and bytes allocated per operation.
+ */
+public class AllBenchmarks {
+
+	public static void main(String[] args) throws Exception {
+		SignBenchmark.main(args) ;
+		EncodeBenchmark.main(args) ;
+		ResponseBenchmark.main(args) ;
+		DecodeBenchmark.main(args) ;
+		EndToEndBenchmark.main(args) ;
+	}
+}
@@ -0,0 +1,64 @@
+package com.abwaters.btce.bench;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A minimal harness for the micro benchmarks in this package.  Each benchmark is warmed up and then timed on the calling
+ * thread, and the bytes allocated per operation are taken from the thread allocation counter of the JVM when it has one.
+ * <p>
+ * This keeps the benchmarks free of dependencies so they can be run from the IDE like the unit tests.  Run them with 
+ * <code>-server</code> and nothing else going on in the JVM for numbers that mean anything.
+ */
+public class Bench {
+
+	/**
+	 * A single benchmarked operation.
+	 */
+	public interface Op {
+		void run() throws Exception ;
+	}
+
+	private static final int WARMUP_ROUNDS = 5 ;
+	private static final int ROUNDS = 5 ;
+	
+	// keeps results alive so the JIT can't drop the work
+	public static volatile Object sink ;
+	
+	/**
+	 * Times the operation and prints the average time and allocation per operation.
+	 * 
+	 * @param name the name printed with the results.
+	 * @param ops the number of operations per round.
+	 * @param op the operation.
+	 * @return the average time per operation in nanoseconds.
+	 */
+	public static double run(String name,int ops,Op op) throws Exception {
+		for(int r=0;r<WARMUP_ROUNDS;r++) 
+			for(int i=0;i<ops;i++) op.run() ;
+		long bytes = allocatedBytes() ;
+		long start = System.nanoTime() ;
+		for(int r=0;r<ROUNDS;r++) 
+			for(int i=0;i<ops;i++) op.run() ;
+		long elapsed = System.nanoTime()-start ;
+		bytes = allocatedBytes()-bytes ;
+		double total = (double)ops*ROUNDS ;
+		double ns = elapsed/total ;
+		System.out.println(String.format("%-40s %12.1f ns/op %12.0f ops/s %12s B/op",
+				name,ns,1e9/ns,bytes<0?"n/a":String.format("%.0f",bytes/total))) ;
+		return ns ;
+	}
+	
+	/**
+	 * Returns the bytes allocated by the current thread so far or -1 if the JVM doesn't track it.
+	 */
+	private static long allocatedBytes() {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean() ;
+			if( bean instanceof com.sun.management.ThreadMXBean ) 
+				return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId()) ;
+		} catch (LinkageError e) {
+			// not a HotSpot JVM
+		}
+		return -1 ;
+	}
+}
@@ -0,0 +1,102 @@
+package com.abwaters.btce.bench;
+
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.OrderList;
+import com.abwaters.btce.BTCE.OrderListOrder;
+import com.abwaters.btce.BTCE.OrderListOrderDetails;
+import com.abwaters.btce.BTCE.OrderListReturn;
+import com.abwaters.btce.BTCE.TradeHistory;
+import com.abwaters.btce.BTCE.TradeHistoryOrder;
+import com.abwaters.btce.BTCE.TradeHistoryOrderDetails;
+import com.abwaters.btce.BTCE.TradeHistoryReturn;
+import com.abwaters.btce.BTCE.TransactionHistory;
+import com.abwaters.btce.BTCE.TransactionHistoryOrder;
+import com.abwaters.btce.BTCE.TransactionHistoryOrderDetails;
+import com.abwaters.btce.BTCE.TransactionHistoryReturn;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+
+/**
+ * Compares decoding large trade history, transaction history and order list responses with the tree based 
+ * <code>JsonDeserializer</code>s used before against the streaming adapters in {@link BTCE}.
+ */
+public class DecodeBenchmark {
+
+	private static final int ROWS = 2000 ;
+	private static final int OPS = 200 ;
+	
+	public static void main(String[] args) throws Exception {
+		final BTCE btce = new BTCE() ;
+		final Gson tree = new GsonBuilder()
+			.registerTypeAdapter(TransactionHistoryReturn.class,new JsonDeserializer<TransactionHistoryReturn>() {
+				public TransactionHistoryReturn deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+					List<TransactionHistoryOrder> transactions = new ArrayList<TransactionHistoryOrder>() ;
+					for(Entry<String,JsonElement> e:json.getAsJsonObject().entrySet()) {
+						TransactionHistoryOrder transaction = btce.new TransactionHistoryOrder() ;
+						transaction.trans_id = Long.parseLong(e.getKey()) ;
+						transaction.trans_details = context.deserialize(e.getValue(),TransactionHistoryOrderDetails.class) ;
+						transactions.add(transaction) ;
+					}
+					TransactionHistoryReturn thr = btce.new TransactionHistoryReturn() ;
+					thr.transactions = transactions.toArray(new TransactionHistoryOrder[0]) ;
+					return thr ;
+				}
+			})
+			.registerTypeAdapter(TradeHistoryReturn.class,new JsonDeserializer<TradeHistoryReturn>() {
+				public TradeHistoryReturn deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+					List<TradeHistoryOrder> trades = new ArrayList<TradeHistoryOrder>() ;
+					for(Entry<String,JsonElement> e:json.getAsJsonObject().entrySet()) {
+						TradeHistoryOrder trade = btce.new TradeHistoryOrder() ;
+						trade.trans_id = Long.parseLong(e.getKey()) ;
+						trade.trade_details = context.deserialize(e.getValue(),TradeHistoryOrderDetails.class) ;
+						trades.add(trade) ;
+					}
+					TradeHistoryReturn thr = btce.new TradeHistoryReturn() ;
+					thr.trades = trades.toArray(new TradeHistoryOrder[0]) ;
+					return thr ;
+				}
+			})
+			.registerTypeAdapter(OrderListReturn.class,new JsonDeserializer<OrderListReturn>() {
+				public OrderListReturn deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+					List<OrderListOrder> orders = new ArrayList<OrderListOrder>() ;
+					for(Entry<String,JsonElement> e:json.getAsJsonObject().entrySet()) {
+						OrderListOrder order = btce.new OrderListOrder() ;
+						order.order_id = Long.parseLong(e.getKey()) ;
+						order.order_details = context.deserialize(e.getValue(),OrderListOrderDetails.class) ;
+						orders.add(order) ;
+					}
+					OrderListReturn olr = btce.new OrderListReturn() ;
+					olr.orders = orders.toArray(new OrderListOrder[0]) ;
+					return olr ;
+				}
+			})
+			.create() ;
+		
+		compare("trade history",tree,btce,Payloads.tradeHistory(ROWS),TradeHistory.class) ;
+		compare("transaction history",tree,btce,Payloads.transactionHistory(ROWS),TransactionHistory.class) ;
+		compare("active orders",tree,btce,Payloads.activeOrders(ROWS),OrderList.class) ;
+	}
+	
+	private static void compare(String name,final Gson tree,final BTCE btce,final String json,final Class<?> type) throws Exception {
+		Bench.run(name+"/tree (before)",OPS,new Bench.Op() {
+			public void run() {
+				Bench.sink = tree.fromJson(new StringReader(json),type) ;
+			}
+		}) ;
+		Bench.run(name+"/streaming (after)",OPS,new Bench.Op() {
+			public void run() throws Exception {
+				Bench.sink = btce.parse(new StringReader(json),type) ;
+			}
+		}) ;
+	}
+}
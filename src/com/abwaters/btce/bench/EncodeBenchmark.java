@@ -0,0 +1,48 @@
+package com.abwaters.btce.bench;
+
+import java.net.URLEncoder;
+
+import com.abwaters.btce.BTCE.FixedPoint;
+import com.abwaters.btce.BTCE.RequestBody;
+
+/**
+ * Compares building the body of a trade call with <code>URLEncoder</code> and string concatenation, as before 
+ * {@link RequestBody}, against the request body itself.
+ */
+public class EncodeBenchmark {
+
+	private static final int OPS = 500000 ;
+	
+	public static void main(String[] args) throws Exception {
+		final long nonce = 1391446522 ;
+		Bench.run("encode/URLEncoder (before)",OPS,new Bench.Op() {
+			public void run() throws Exception {
+				StringBuilder sb = new StringBuilder() ;
+				sb.append("method=").append(URLEncoder.encode("Trade","UTF-8")) ;
+				sb.append("&pair=").append(URLEncoder.encode("btc_usd","UTF-8")) ;
+				sb.append("&type=").append(URLEncoder.encode("buy","UTF-8")) ;
+				sb.append("&rate=").append(URLEncoder.encode(Double.toString(512.345),"UTF-8")) ;
+				sb.append("&amount=").append(URLEncoder.encode(Double.toString(0.01),"UTF-8")) ;
+				sb.append("&nonce=").append(URLEncoder.encode(Long.toString(nonce),"UTF-8")) ;
+				Bench.sink = sb.toString().getBytes("UTF-8") ;
+			}
+		}) ;
+		final RequestBody body = new RequestBody() ;
+		Bench.run("encode/RequestBody (after)",OPS,new Bench.Op() {
+			public void run() {
+				body.reset() ;
+				body.add("method","Trade").add("pair","btc_usd").add("type","buy") ;
+				body.add("rate",512.345).add("amount",0.01).add("nonce",nonce) ;
+				Bench.sink = body.buffer() ;
+			}
+		}) ;
+		Bench.run("encode/RequestBody fixed point",OPS,new Bench.Op() {
+			public void run() {
+				body.reset() ;
+				body.add("method","Trade").add("pair","btc_usd").add("type","buy") ;
+				body.add("rate",512345L,FixedPoint.of(3)).add("amount",1000000L,FixedPoint.AMOUNT).add("nonce",nonce) ;
+				Bench.sink = body.buffer() ;
+			}
+		}) ;
+	}
+}
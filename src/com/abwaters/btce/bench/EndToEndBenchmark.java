@@ -0,0 +1,52 @@
+package com.abwaters.btce.bench;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.Trade;
+import com.abwaters.btce.test.LocalExchange;
+
+/**
+ * Times whole calls, from building the request to decoding the response, against a {@link LocalExchange} on the loopback
+ * interface with rate limits turned off.  The numbers include the local server, so compare them with each other rather 
+ * than with the micro benchmarks.
+ */
+public class EndToEndBenchmark {
+
+	private static final int OPS = 500 ;
+	
+	public static void main(String[] args) throws Exception {
+		LocalExchange exchange = new LocalExchange() ;
+		try {
+			exchange.addKey("BENCH-KEY","0123456789abcdef0123456789abcdef") ;
+			exchange.setFunds("usd",1e12) ;
+			final BTCE btce = new BTCE() ;
+			btce.setBaseUrl(exchange.getBaseUrl()) ;
+			btce.setAuthKeys("BENCH-KEY","0123456789abcdef0123456789abcdef") ;
+			btce.setRequestLimit(0) ;
+			btce.setAuthRequestLimit(0) ;
+			
+			Bench.run("e2e/getTicker",OPS,new Bench.Op() {
+				public void run() throws Exception {
+					Bench.sink = btce.getTicker(BTCE.Pairs.BTC_USD) ;
+				}
+			}) ;
+			Bench.run("e2e/getTrades x150",OPS,new Bench.Op() {
+				public void run() throws Exception {
+					Bench.sink = btce.getTrades(BTCE.Pairs.BTC_USD) ;
+				}
+			}) ;
+			Bench.run("e2e/getInfo",OPS,new Bench.Op() {
+				public void run() throws Exception {
+					Bench.sink = btce.getInfo() ;
+				}
+			}) ;
+			Bench.run("e2e/trade+cancelOrder",OPS,new Bench.Op() {
+				public void run() throws Exception {
+					Trade trade = btce.trade(BTCE.Pairs.BTC_USD,BTCE.TradeType.BUY,512.345,0.01) ;
+					Bench.sink = btce.cancelOrder((int)trade.info.order_id) ;
+				}
+			}) ;
+		} finally {
+			exchange.close() ;
+		}
+	}
+}
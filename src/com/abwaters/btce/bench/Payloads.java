@@ -0,0 +1,60 @@
+package com.abwaters.btce.bench;
+
+/**
+ * Generates responses shaped like the exchange's for the benchmarks.
+ */
+class Payloads {
+
+	static String ticker() {
+		return "{\"high\":612.5,\"low\":580.001,\"avg\":596.2505,\"vol\":3183620.61478,\"vol_cur\":5320.49571,\"last\":601.5,"
+				+"\"buy\":601.55,\"sell\":601.5,\"updated\":1400000000,\"server_time\":1400000001}" ;
+	}
+	
+	static String trades(int rows) {
+		StringBuilder sb = new StringBuilder("[") ;
+		for(int i=0;i<rows;i++) {
+			if( i > 0 ) sb.append(',') ;
+			sb.append("{\"date\":").append(1400000000-i).append(",\"price\":").append(601.5+(i%10)*0.1)
+				.append(",\"amount\":").append(0.01*(1+i%50)).append(",\"tid\":").append(30000000-i)
+				.append(",\"price_currency\":\"USD\",\"item\":\"BTC\",\"trade_type\":\"").append(i%2==0?"bid":"ask").append("\"}") ;
+		}
+		return sb.append(']').toString() ;
+	}
+	
+	static String info() {
+		return "{\"success\":1,\"return\":{\"funds\":{\"usd\":325.5,\"btc\":23.998,\"ltc\":0,\"nmc\":0,\"rur\":0,\"eur\":0,"
+				+"\"nvc\":0,\"trc\":0,\"ppc\":0,\"ftc\":0,\"xpm\":0,\"cnc\":0,\"gbp\":0},\"rights\":{\"info\":1,\"trade\":1,"
+				+"\"withdraw\":0},\"transaction_count\":80,\"open_orders\":1,\"server_time\":1400000001}}" ;
+	}
+	
+	static String tradeHistory(int rows) {
+		StringBuilder sb = new StringBuilder("{\"success\":1,\"return\":{") ;
+		for(int i=0;i<rows;i++) {
+			if( i > 0 ) sb.append(',') ;
+			sb.append('"').append(166830+i).append("\":{\"pair\":\"btc_usd\",\"type\":\"").append(i%2==0?"buy":"sell")
+				.append("\",\"amount\":").append(0.01+i*0.001).append(",\"rate\":").append(450.125+i)
+				.append(",\"order_id\":").append(343148+i).append(",\"is_your_order\":1,\"timestamp\":").append(1342445793+i).append('}') ;
+		}
+		return sb.append("}}").toString() ;
+	}
+	
+	static String transactionHistory(int rows) {
+		StringBuilder sb = new StringBuilder("{\"success\":1,\"return\":{") ;
+		for(int i=0;i<rows;i++) {
+			if( i > 0 ) sb.append(',') ;
+			sb.append('"').append(1081672+i).append("\":{\"type\":1,\"amount\":").append(1.0+i)
+				.append(",\"currency\":\"BTC\",\"desc\":\"BTC Payment\",\"status\":2,\"timestamp\":").append(1342448420+i).append('}') ;
+		}
+		return sb.append("}}").toString() ;
+	}
+	
+	static String activeOrders(int rows) {
+		StringBuilder sb = new StringBuilder("{\"success\":1,\"return\":{") ;
+		for(int i=0;i<rows;i++) {
+			if( i > 0 ) sb.append(',') ;
+			sb.append('"').append(343152+i).append("\":{\"pair\":\"btc_usd\",\"type\":\"sell\",\"amount\":").append(1.0+i)
+				.append(",\"rate\":").append(3.0+i).append(",\"timestamp_created\":").append(1342448420+i).append(",\"status\":0}") ;
+		}
+		return sb.append("}}").toString() ;
+	}
+}
@@ -0,0 +1,41 @@
+package com.abwaters.btce.bench;
+
+import java.io.StringReader;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.Info;
+import com.abwaters.btce.BTCE.OrderList;
+import com.abwaters.btce.BTCE.Ticker;
+import com.abwaters.btce.BTCE.TradeHistory;
+import com.abwaters.btce.BTCE.TradesDetail;
+import com.abwaters.btce.BTCE.TransactionHistory;
+
+/**
+ * Times decoding each kind of response, at the size the exchange usually returns and at a large size.
+ */
+public class ResponseBenchmark {
+
+	private static final int BYTES_PER_ROUND = 20000000 ;	// keeps the rounds about the same length whatever the payload size
+	
+	public static void main(String[] args) throws Exception {
+		BTCE btce = new BTCE() ;
+		decode(btce,"ticker",Payloads.ticker(),Ticker.class) ;
+		decode(btce,"info",Payloads.info(),Info.class) ;
+		decode(btce,"trades x150",Payloads.trades(150),TradesDetail[].class) ;
+		decode(btce,"trades x2000",Payloads.trades(2000),TradesDetail[].class) ;
+		decode(btce,"trade history x50",Payloads.tradeHistory(50),TradeHistory.class) ;
+		decode(btce,"trade history x5000",Payloads.tradeHistory(5000),TradeHistory.class) ;
+		decode(btce,"transaction history x50",Payloads.transactionHistory(50),TransactionHistory.class) ;
+		decode(btce,"transaction history x5000",Payloads.transactionHistory(5000),TransactionHistory.class) ;
+		decode(btce,"active orders x10",Payloads.activeOrders(10),OrderList.class) ;
+		decode(btce,"active orders x5000",Payloads.activeOrders(5000),OrderList.class) ;
+	}
+	
+	private static void decode(final BTCE btce,String name,final String json,final Class<?> type) throws Exception {
+		Bench.run("decode/"+name,Math.max(10,BYTES_PER_ROUND/json.length()),new Bench.Op() {
+			public void run() throws Exception {
+				Bench.sink = btce.parse(new StringReader(json),type) ;
+			}
+		}) ;
+	}
+}
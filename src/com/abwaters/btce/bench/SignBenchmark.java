@@ -0,0 +1,54 @@
+package com.abwaters.btce.bench;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.abwaters.btce.BTCE.Signer;
+
+/**
+ * Compares the cost of signing an authenticated call with the shared <code>Mac</code> and <code>BigInteger</code> hex 
+ * formatting used before {@link Signer} against the signer itself.
+ */
+public class SignBenchmark {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8") ;
+	private static final int OPS = 100000 ;
+	
+	public static void main(String[] args) throws Exception {
+		byte[] secret = "0123456789abcdef0123456789abcdef01234567".getBytes(UTF_8) ;
+		final String postData = "method=Trade&pair=btc_usd&type=buy&rate=512.345&amount=0.01000000&nonce=1391446522" ;
+		final byte[] body = postData.getBytes(UTF_8) ;
+		
+		final Mac mac = Mac.getInstance("HmacSHA512") ;
+		mac.init(new SecretKeySpec(secret,"HmacSHA512")) ;
+		final Signer signer = new Signer(secret) ;
+		
+		Bench.run("sign/mac+BigInteger (before)",OPS,new Bench.Op() {
+			public void run() throws Exception {
+				Bench.sink = String.format("%040x",new BigInteger(1,mac.doFinal(postData.getBytes("UTF-8")))) ;
+			}
+		}) ;
+		Bench.run("sign/Signer (after)",OPS,new Bench.Op() {
+			public void run() {
+				Bench.sink = signer.sign(body,0,body.length) ;
+			}
+		}) ;
+		
+		final byte[] digest = mac.doFinal(body) ;
+		final char[] hex = new char[digest.length*2] ;
+		Bench.run("hex/BigInteger (before)",OPS,new Bench.Op() {
+			public void run() {
+				Bench.sink = String.format("%040x",new BigInteger(1,digest)) ;
+			}
+		}) ;
+		Bench.run("hex/table (after)",OPS,new Bench.Op() {
+			public void run() {
+				Signer.toHex(digest,0,digest.length,hex,0) ;
+				Bench.sink = hex ;
+			}
+		}) ;
+	}
+}
@@ -0,0 +1,129 @@
+package com.abwaters.btce.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.AuthDispatcher;
+import com.abwaters.btce.AuthDispatcher.Priority;
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.RateLimiter;
+
+public class AuthDispatcher_Test {
+
+	private BTCE btce ;
+	private RateLimiter limiter ;
+	private AuthDispatcher dispatcher ;
+	private final List<String> calls = Collections.synchronizedList(new ArrayList<String>()) ;
+	
+	@Before
+	public void setUp() {
+		btce = new BTCE() ;
+		limiter = new RateLimiter(50,1) ;
+		btce.setAuthRequestLimiter(limiter) ;
+		dispatcher = new AuthDispatcher(btce) ;
+	}
+	
+	@After
+	public void tearDown() {
+		dispatcher.close() ;
+	}
+	
+	/**
+	 * Stands in for an authenticated call, which takes a permit from the limiter.
+	 */
+	private Callable<String> call(final String name) {
+		return new Callable<String>() {
+			public String call() throws Exception {
+				limiter.acquire() ;
+				calls.add(name) ;
+				return name ;
+			}
+		} ;
+	}
+	
+	@Test
+	public void testPriorityOrder() throws Exception {
+		limiter.acquire() ;	// the next permit is 50ms away
+		Future<String> last = null ;
+		for(int i=0;i<3;i++) last = dispatcher.submit(Priority.HISTORY,null,call("history"+i),null) ;
+		dispatcher.submit(Priority.INFO,null,call("info"),null) ;
+		Future<String> cancel = dispatcher.submit(Priority.CANCEL,null,call("cancel"),null) ;
+		Assert.assertEquals("cancel",cancel.get()) ;
+		last.get() ;
+		Assert.assertEquals("[cancel, info, history0, history1, history2]",calls.toString()) ;
+		Assert.assertEquals(0,dispatcher.getQueueDepth()) ;
+		Assert.assertEquals(3,dispatcher.getCallCount(Priority.HISTORY)) ;
+		Assert.assertTrue(dispatcher.getMaxWait(Priority.HISTORY) >= dispatcher.getMaxWait(Priority.CANCEL)) ;
+	}
+	
+	@Test
+	public void testMerge() throws Exception {
+		limiter.acquire() ;
+		Future<String> a = dispatcher.submit(Priority.INFO,"getInfo",call("info"),null) ;
+		Future<String> b = dispatcher.submit(Priority.INFO,"getInfo",call("info"),null) ;
+		Assert.assertSame(a,b) ;
+		Assert.assertEquals("info",b.get()) ;
+		Assert.assertEquals(1,calls.size()) ;
+		Assert.assertEquals(1,dispatcher.getMergedCount(Priority.INFO)) ;
+		// once started a new call is queued
+		Assert.assertNotSame(a,dispatcher.submit(Priority.INFO,"getInfo",call("info"),null)) ;
+	}
+	
+	@Test
+	public void testDropStale() throws Exception {
+		dispatcher.setMaxAge(Priority.HISTORY,10) ;
+		limiter.acquire() ;
+		Future<String> history = dispatcher.submit(Priority.HISTORY,null,call("history"),null) ;
+		try {
+			history.get() ;
+			Assert.fail() ;
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof BTCE.BTCEException) ;
+		}
+		Assert.assertEquals(1,dispatcher.getDroppedCount(Priority.HISTORY)) ;
+		Assert.assertTrue(calls.isEmpty()) ;
+	}
+	
+	@Test
+	public void testCloseLetsTheCallInFlightFinish() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1) ;
+		Future<String> running = dispatcher.submit(Priority.INFO,null,new Callable<String>() {
+			public String call() throws Exception {
+				started.countDown() ;
+				release.await() ;	// throws if the worker is interrupted
+				return "info" ;
+			}
+		},null) ;
+		Assert.assertTrue(started.await(1,TimeUnit.SECONDS)) ;
+		Future<String> queued = dispatcher.submit(Priority.HISTORY,null,call("history"),null) ;
+		dispatcher.close() ;
+		release.countDown() ;
+		Assert.assertEquals("info",running.get(1,TimeUnit.SECONDS)) ;
+		try {
+			queued.get(1,TimeUnit.SECONDS) ;
+			Assert.fail() ;
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof BTCE.BTCEException) ;
+		}
+		try {
+			dispatcher.submit(Priority.CANCEL,null,call("cancel"),null).get(1,TimeUnit.SECONDS) ;
+			Assert.fail() ;
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof BTCE.BTCEException) ;
+		}
+		Assert.assertTrue(calls.isEmpty()) ;
+		Assert.assertEquals(0,dispatcher.getQueueDepth()) ;
+	}
+}
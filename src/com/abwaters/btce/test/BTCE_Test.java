@@ -3,6 +3,7 @@ package com.abwaters.btce.test;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Properties;
 
 import junit.framework.Assert;
@@ -13,6 +14,7 @@ import org.junit.Test;
 import com.abwaters.btce.BTCE;
 import com.abwaters.btce.BTCE.BTCEException;
 import com.abwaters.btce.BTCE.CancelOrder;
+import com.abwaters.btce.BTCE.Depth;
 import com.abwaters.btce.BTCE.Info;
 import com.abwaters.btce.BTCE.OrderList;
 import com.abwaters.btce.BTCE.OrderListOrder;
@@ -134,6 +136,13 @@ public class BTCE_Test {
 		System.out.println(t) ;
 	}
 	
+	@Test
+	public void testTickers() throws BTCEException {
+		Map<String,Ticker> tickers = btce.getTickers(BTCE.Pairs.BTC_USD,BTCE.Pairs.LTC_USD) ;
+		Assert.assertTrue(tickers.containsKey(BTCE.Pairs.BTC_USD)) ;
+		System.out.println(tickers) ;
+	}
+	
 	@Test
 	public void testTrades() throws BTCEException {
 		TradesDetail[] trades = btce.getTrades(BTCE.Pairs.BTC_USD) ;
@@ -141,6 +150,13 @@ public class BTCE_Test {
 		System.out.println(Arrays.toString(trades)) ;
 	}
 	
+	@Test
+	public void testDepth() throws BTCEException {
+		Depth depth = btce.getDepth(BTCE.Pairs.BTC_USD) ;
+		Assert.assertTrue(depth!=null) ;
+		System.out.println(depth) ;
+	}
+	
 	private void tradesSummary(TradesDetail[] trades,String type) {
 		double min=Double.MAX_VALUE, max=0, avg=0, total=0, wall=0 ;
 		double minPrice=Double.MAX_VALUE, maxPrice=0, avgPrice=0, totalPrice = 0, wallPrice = 0 ;
@@ -0,0 +1,138 @@
+package com.abwaters.btce.test;
+
+import java.io.StringReader;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.Balances;
+import com.abwaters.btce.BTCE.Currencies;
+import com.abwaters.btce.BTCE.Symbols;
+import com.abwaters.btce.BalanceCache;
+import com.abwaters.btce.BalanceCache.Snapshot;
+
+public class BalanceCache_Test {
+
+	private static final String KEY = "BALANCE-TEST-KEY" ;
+	private static final String SECRET = "0123456789abcdef0123456789abcdef" ;
+
+	private LocalExchange exchange ;
+	private BTCE btce ;
+	private BalanceCache cache ;
+
+	@Before
+	public void setUp() throws Exception {
+		exchange = new LocalExchange() ;
+		exchange.addKey(KEY,SECRET) ;
+		exchange.setFunds("usd",1000) ;
+		exchange.setFunds("btc",2) ;
+		btce = new BTCE() ;
+		btce.setBaseUrl(exchange.getBaseUrl()) ;
+		btce.setAuthKeys(KEY,SECRET) ;
+		btce.setAuthRequestLimit(0) ;
+		cache = new BalanceCache(btce) ;
+	}
+
+	@After
+	public void tearDown() {
+		exchange.close() ;
+	}
+
+	@Test
+	public void testTradeAndCancelUpdateTheCache() throws Exception {
+		Assert.assertNull(cache.getSnapshot()) ;
+		Assert.assertTrue(cache.isStale()) ;
+		long order_id = btce.trade(BTCE.Pairs.BTC_USD,"buy",100,2).info.order_id ;
+		Snapshot traded = cache.getSnapshot() ;
+		Assert.assertEquals(1,traded.version) ;
+		Assert.assertEquals(800,traded.get("usd"),1e-9) ;
+		Assert.assertEquals(2,traded.get("btc"),1e-9) ;
+
+		btce.cancelOrder(order_id) ;
+		Snapshot cancelled = cache.getSnapshot() ;
+		Assert.assertEquals(2,cancelled.version) ;
+		Assert.assertEquals(1000,cancelled.get("usd"),1e-9) ;
+		Assert.assertTrue(cancelled.nonce > traded.nonce) ;
+		// the earlier snapshot is untouched
+		Assert.assertEquals(800,traded.get("usd"),1e-9) ;
+
+		// a failed call carries no funds
+		btce.cancelOrder(order_id) ;
+		Assert.assertSame(cancelled,cache.getSnapshot()) ;
+	}
+
+	@Test
+	public void testRefreshOnlyWhenStale() throws Exception {
+		int requests = exchange.getRequestCount() ;
+		Snapshot fresh = cache.getFreshSnapshot() ;
+		Assert.assertEquals(1000,fresh.get("usd"),1e-9) ;
+		Assert.assertEquals(requests+1,exchange.getRequestCount()) ;
+		Assert.assertSame(fresh,cache.getFreshSnapshot()) ;
+		Assert.assertEquals(requests+1,exchange.getRequestCount()) ;
+
+		exchange.setFunds("usd",1500) ;
+		cache.invalidate() ;
+		Assert.assertTrue(cache.isStale()) ;
+		Snapshot refreshed = cache.getFreshSnapshot() ;
+		Assert.assertEquals(1500,refreshed.get("usd"),1e-9) ;
+		Assert.assertEquals(fresh.version+1,refreshed.version) ;
+		Assert.assertEquals(requests+2,exchange.getRequestCount()) ;
+
+		cache.setMaxAge(0) ;
+		Thread.sleep(2) ;
+		cache.getFreshSnapshot() ;
+		Assert.assertEquals(requests+3,exchange.getRequestCount()) ;
+	}
+
+	@Test
+	public void testOlderFundsAreIgnored() throws Exception {
+		BTCE.Info info = btce.getInfo() ;
+		Snapshot current = cache.getSnapshot() ;
+		cache.fundsReceived(info.info.funds,KEY,current.nonce-1) ;
+		cache.fundsReceived(info.info.funds,KEY,current.nonce) ;
+		Assert.assertSame(current,cache.getSnapshot()) ;
+		cache.fundsReceived(info.info.funds,KEY,current.nonce+1) ;
+		Assert.assertEquals(current.version+1,cache.getSnapshot().version) ;
+	}
+
+	@Test
+	public void testKeySwitch() throws Exception {
+		// a busy key whose nonces are well ahead of a new key's
+		btce.getNonceSource().advanceTo(System.currentTimeMillis()/1000+1000000) ;
+		Snapshot old = cache.getFreshSnapshot() ;
+		Assert.assertEquals(KEY,old.key) ;
+
+		exchange.addKey("BALANCE-TEST-KEY-2",SECRET) ;
+		btce.setAuthKeys("BALANCE-TEST-KEY-2",SECRET) ;
+		Assert.assertTrue(cache.isStale()) ;
+		exchange.setFunds("usd",1500) ;
+		Snapshot switched = cache.getFreshSnapshot() ;
+		Assert.assertEquals("BALANCE-TEST-KEY-2",switched.key) ;
+		Assert.assertTrue(switched.nonce < old.nonce) ;
+		Assert.assertEquals(1500,switched.get("usd"),1e-9) ;
+
+		// funds of the old key still arriving are ignored
+		cache.fundsReceived(btce.getInfo().info.funds,KEY,old.nonce+1) ;
+		Assert.assertEquals("BALANCE-TEST-KEY-2",cache.getSnapshot().key) ;
+	}
+
+	@Test
+	public void testBalancesAreDense() throws Exception {
+		// symbols seen in between don't leave gaps in the balances
+		for(int i=0;i<50;i++) Symbols.code("pair_"+i) ;
+		BTCE.Info info = btce.parse(new StringReader("{\"success\":1,\"return\":{\"funds\":{\"usd\":12.5,\"xyz\":3,\"btc\":0.5}}}"),BTCE.Info.class) ;
+		Balances balances = info.info.funds.balances ;
+		Assert.assertEquals(3,balances.size()) ;
+		Assert.assertEquals(12.5,info.info.funds.usd,0) ;
+		Assert.assertEquals(3.0,balances.get("XYZ"),0) ;
+		Assert.assertEquals(3.0,balances.get(Currencies.code("xyz")),0) ;
+		Assert.assertTrue(Currencies.code("xyz") < 50) ;
+		Assert.assertEquals(0.0,balances.get(-1),0) ;
+		Assert.assertEquals(0.0,balances.get("abc"),0) ;
+		Assert.assertEquals("{\"usd\":12.5,\"xyz\":3.0,\"btc\":0.5}",btce.toJson(info.info.funds)) ;
+	}
+}
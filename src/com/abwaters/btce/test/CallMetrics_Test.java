@@ -0,0 +1,86 @@
+package com.abwaters.btce.test;
+
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.CallEvent.Outcome;
+import com.abwaters.btce.BTCE.CallEvent.Phase;
+import com.abwaters.btce.CallMetrics;
+
+public class CallMetrics_Test {
+
+	private static final String KEY = "METRICS-TEST-KEY" ;
+	private static final String SECRET = "0123456789abcdef0123456789abcdef" ;
+	
+	private LocalExchange exchange ;
+	private BTCE btce ;
+	private CallMetrics metrics ;
+	
+	@Before
+	public void setUp() throws Exception {
+		exchange = new LocalExchange() ;
+		exchange.addKey(KEY,SECRET) ;
+		btce = new BTCE() ;
+		btce.setBaseUrl(exchange.getBaseUrl()) ;
+		btce.setAuthKeys(KEY,SECRET) ;
+		btce.setRequestLimit(0) ;
+		btce.setAuthRequestLimit(0) ;
+		metrics = new CallMetrics() ;
+		btce.setCallListener(metrics) ;
+	}
+	
+	@After
+	public void tearDown() {
+		exchange.close() ;
+	}
+	
+	@Test
+	public void testPublic() throws Exception {
+		exchange.setLatency(20) ;
+		btce.getTicker(BTCE.Pairs.BTC_USD) ;
+		btce.getTicker(BTCE.Pairs.LTC_USD) ;
+		btce.getTickers(BTCE.Pairs.BTC_USD,BTCE.Pairs.LTC_USD) ;
+		exchange.failNext(1,503) ;
+		try {
+			btce.getDepth(BTCE.Pairs.BTC_USD) ;
+			Assert.fail() ;
+		} catch (BTCEException e) {
+			// expected
+		}
+		Map<String,CallMetrics.Snapshot> snapshot = metrics.snapshot() ;
+		CallMetrics.Snapshot ticker = snapshot.get("ticker") ;
+		Assert.assertEquals(3,ticker.getRequestCount()) ;
+		Assert.assertEquals(0,ticker.getErrorCount()) ;
+		Assert.assertTrue(ticker.getBytesIn() > 100) ;
+		Assert.assertTrue(ticker.getPercentile(Phase.FIRST_BYTE,0.5) >= 20000000L) ;
+		Assert.assertTrue(ticker.getMax(Phase.DECODE) > 0) ;
+		CallMetrics.Snapshot depth = snapshot.get("depth") ;
+		Assert.assertEquals(1,depth.getOutcomeCount(Outcome.HTTP_ERROR)) ;
+	}
+	
+	@Test
+	public void testAuthenticated() throws Exception {
+		exchange.setNonce(KEY,btce.getNonceSource().next()+1000) ;
+		btce.getInfo() ;
+		btce.getActiveOrders() ;
+		CallMetrics.Snapshot info = metrics.snapshot().get("getInfo") ;
+		Assert.assertEquals(2,info.getRequestCount()) ;
+		Assert.assertEquals(1,info.getNonceRejections()) ;
+		Assert.assertTrue(info.getBytesOut() > 0) ;
+		Assert.assertEquals(1,metrics.snapshot().get("ActiveOrders").getOutcomeCount(Outcome.API_ERROR)) ;
+	}
+	
+	@Test
+	public void testOff() throws Exception {
+		btce.setCallListener(null) ;
+		btce.getTicker(BTCE.Pairs.BTC_USD) ;
+		Assert.assertTrue(metrics.snapshot().isEmpty()) ;
+	}
+}
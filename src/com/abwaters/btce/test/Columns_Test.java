@@ -0,0 +1,100 @@
+package com.abwaters.btce.test;
+
+import java.io.StringReader;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.OrderColumns;
+import com.abwaters.btce.BTCE.Symbols;
+import com.abwaters.btce.BTCE.TradeColumns;
+import com.abwaters.btce.BTCE.TransactionColumns;
+
+public class Columns_Test {
+
+	private final BTCE btce = new BTCE() ;
+
+	private <T> T parse(String json,Class<T> type) throws Exception {
+		return btce.parse(new StringReader(json.replace('\'','"')),type) ;
+	}
+
+	@Test
+	public void testTransactions() throws Exception {
+		TransactionColumns c = parse("{'success':1,'return':{"
+				+"'1081':{'type':1,'amount':1.5,'currency':'usd','desc':'Deposit','status':2,'timestamp':1342448420,'extra':{'a':[1]}},"
+				+"'1080':{'amount':0.25,'currency':'btc','status':2,'timestamp':1342448400,'type':4}},'unknown':[1,2]}",TransactionColumns.class) ;
+		Assert.assertEquals(1,c.success) ;
+		Assert.assertEquals(2,c.size) ;
+		Assert.assertEquals(2,c.ids.length) ;
+		Assert.assertEquals(1081,c.ids[0]) ;
+		Assert.assertEquals(1.5,c.amounts[0],0) ;
+		Assert.assertEquals("usd",c.getCurrency(0)) ;
+		Assert.assertEquals("Deposit",c.descs[0]) ;
+		Assert.assertNull(c.descs[1]) ;
+		Assert.assertEquals(4,c.types[1]) ;
+		Assert.assertEquals(1342448400,c.timestamps[1]) ;
+
+		TransactionColumns back = parse(btce.toJson(c),TransactionColumns.class) ;
+		Assert.assertEquals(2,back.size) ;
+		Assert.assertEquals(1080,back.ids[1]) ;
+		Assert.assertEquals("btc",back.getCurrency(1)) ;
+		Assert.assertEquals(0.25,back.amounts[1],0) ;
+	}
+
+	@Test
+	public void testTrades() throws Exception {
+		TradeColumns c = parse("{'success':1,'return':{'166830':{'pair':'btc_usd','type':'sell','amount':1,'rate':450,"
+				+"'order_id':343148,'is_your_order':1,'timestamp':1342445793,'comment':'x'}}}",TradeColumns.class) ;
+		Assert.assertEquals(1,c.size) ;
+		Assert.assertEquals(166830,c.ids[0]) ;
+		Assert.assertEquals(BTCE.Pairs.BTC_USD,c.getPair(0)) ;
+		Assert.assertEquals(Symbols.code("sell"),c.types[0]) ;
+		Assert.assertEquals(450.0,c.rates[0],0) ;
+		Assert.assertEquals(343148,c.order_ids[0]) ;
+		Assert.assertTrue(c.your_orders[0]) ;
+
+		TradeColumns back = parse(btce.toJson(c),TradeColumns.class) ;
+		Assert.assertEquals(1,back.size) ;
+		Assert.assertEquals("sell",back.getType(0)) ;
+		Assert.assertTrue(back.your_orders[0]) ;
+		Assert.assertEquals(1342445793,back.timestamps[0]) ;
+	}
+
+	@Test
+	public void testOrders() throws Exception {
+		OrderColumns c = parse("{'success':1,'return':{'343152':{'pair':'ltc_usd','type':'buy','amount':2,'rate':3.5,"
+				+"'timestamp_created':1342448420,'status':0},'343153':{'pair':'btc_usd','type':'sell','amount':1,'rate':500,"
+				+"'timestamp_created':1342448421,'status':0}}}",OrderColumns.class) ;
+		Assert.assertEquals(2,c.size) ;
+		Assert.assertEquals(BTCE.Pairs.LTC_USD,c.getPair(0)) ;
+		Assert.assertEquals("sell",c.getType(1)) ;
+		Assert.assertEquals(1342448421,c.timestamps[1]) ;
+
+		OrderColumns back = parse(btce.toJson(c),OrderColumns.class) ;
+		Assert.assertEquals(2,back.size) ;
+		Assert.assertEquals(343153,back.ids[1]) ;
+		Assert.assertEquals(500.0,back.rates[1],0) ;
+	}
+
+	@Test
+	public void testEmptyReturnAndErrors() throws Exception {
+		OrderColumns c = parse("{'success':1,'return':{}}",OrderColumns.class) ;
+		Assert.assertEquals(1,c.success) ;
+		Assert.assertEquals(0,c.size) ;
+		Assert.assertEquals(0,c.ids.length) ;
+		Assert.assertEquals(0,c.pairs.length) ;
+		Assert.assertEquals("{\"success\":1,\"return\":{}}",btce.toJson(c)) ;
+
+		TradeColumns t = parse("{'success':0,'error':'no trades'}",TradeColumns.class) ;
+		Assert.assertEquals(0,t.success) ;
+		Assert.assertEquals("no trades",t.error) ;
+		Assert.assertEquals(0,t.size) ;
+		Assert.assertEquals("{\"success\":0,\"error\":\"no trades\"}",btce.toJson(t)) ;
+
+		// a return that isn't an object is skipped
+		TransactionColumns x = parse("{'success':1,'return':[]}",TransactionColumns.class) ;
+		Assert.assertEquals(0,x.size) ;
+	}
+}
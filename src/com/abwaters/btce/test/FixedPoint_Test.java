@@ -0,0 +1,75 @@
+package com.abwaters.btce.test;
+
+import java.math.BigInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE.FixedPoint;
+import com.abwaters.btce.BTCE.RequestBody;
+
+public class FixedPoint_Test {
+
+	private static final FixedPoint AMOUNT = FixedPoint.AMOUNT ;
+	
+	@Test
+	public void testParse() {
+		Assert.assertEquals(51234500000L,AMOUNT.parse("512.345")) ;
+		Assert.assertEquals(-1000000L,AMOUNT.parse("-0.01")) ;
+		Assert.assertEquals(15000L,AMOUNT.parse("1.5E-4")) ;
+		Assert.assertEquals(100000000L,AMOUNT.parse("+1")) ;
+		Assert.assertEquals(1L,AMOUNT.parse("0.000000005")) ;	// half up
+		Assert.assertEquals(0L,AMOUNT.parse("0.000000004999")) ;
+		Assert.assertEquals(512345L,FixedPoint.of(3).parse("x512.345x",1,8)) ;
+		for(String bad:new String[]{"","-",".","1.2.3","1e","abc"}) {
+			try {
+				AMOUNT.parse(bad) ;
+				Assert.fail(bad) ;
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+	
+	@Test
+	public void testFormat() {
+		Assert.assertEquals("512.345",AMOUNT.toString(51234500000L)) ;
+		Assert.assertEquals("-0.01",AMOUNT.toString(-1000000L)) ;
+		Assert.assertEquals("0.00000001",AMOUNT.toString(1L)) ;
+		Assert.assertEquals("3",AMOUNT.toString(300000000L)) ;
+		Assert.assertEquals("-92233720368.54775808",AMOUNT.toString(Long.MIN_VALUE)) ;
+		Assert.assertEquals(51234500000L,AMOUNT.fromDouble(512.345)) ;
+		Assert.assertEquals("rate=512.345&amount=-0.0001",new RequestBody()
+				.add("rate",512345L,FixedPoint.of(3)).add("amount",-10000L,AMOUNT).toString()) ;
+	}
+	
+	@Test
+	public void testArithmetic() {
+		FixedPoint price = FixedPoint.of(3) ;
+		// 50000.125 * 2.5 = 125000.3125, 5 decimals in the product
+		Assert.assertEquals(12500031250L,FixedPoint.of(5).multiply(50000125L,price,250000000L,AMOUNT)) ;
+		// rounded half up to 2 decimals
+		Assert.assertEquals(12500031L,FixedPoint.of(2).multiply(50000125L,price,250000000L,AMOUNT)) ;
+		Assert.assertEquals(-12500031L,FixedPoint.of(2).multiply(-50000125L,price,250000000L,AMOUNT)) ;
+		Assert.assertEquals(51234500000L,AMOUNT.rescale(512345L,price)) ;
+		Assert.assertEquals(512346L,price.rescale(51234550000L,AMOUNT)) ;
+		
+		long[] values = {1L,999999999999L,123456789012345L,7L,Long.MAX_VALUE/3} ;
+		for(long a:values) {
+			for(long b:values) {
+				BigInteger exact = BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)) ;
+				BigInteger[] qr = exact.divideAndRemainder(BigInteger.valueOf(AMOUNT.getScale())) ;
+				if( qr[0].bitLength() > 62 ) continue ;
+				long expected = qr[0].longValue()+(qr[1].shiftLeft(1).compareTo(BigInteger.valueOf(AMOUNT.getScale())) >= 0 ? 1 : 0) ;
+				Assert.assertEquals(expected,AMOUNT.multiply(a,AMOUNT,b,AMOUNT)) ;
+			}
+		}
+		try {
+			AMOUNT.multiply(Long.MAX_VALUE,AMOUNT,Long.MAX_VALUE,AMOUNT) ;
+			Assert.fail() ;
+		} catch (ArithmeticException e) {
+			// expected
+		}
+	}
+}
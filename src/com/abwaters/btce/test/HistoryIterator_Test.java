@@ -0,0 +1,95 @@
+package com.abwaters.btce.test;
+
+import java.util.Iterator;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.TradeHistoryOrder;
+import com.abwaters.btce.BTCE.TransactionHistoryOrder;
+import com.abwaters.btce.HistoryIterator;
+
+public class HistoryIterator_Test {
+
+	private static final String KEY = "HISTORY-TEST-KEY" ;
+	private static final String SECRET = "0123456789abcdef0123456789abcdef" ;
+
+	private LocalExchange exchange ;
+	private BTCE btce ;
+
+	@Before
+	public void setUp() throws Exception {
+		exchange = new LocalExchange() ;
+		exchange.addKey(KEY,SECRET) ;
+		btce = new BTCE() ;
+		btce.setBaseUrl(exchange.getBaseUrl()) ;
+		btce.setAuthKeys(KEY,SECRET) ;
+		btce.setAuthRequestLimit(0) ;
+	}
+
+	@After
+	public void tearDown() {
+		exchange.close() ;
+	}
+
+	@Test
+	public void testPages() throws Exception {
+		exchange.setHistoryCount(250) ;
+		int requests = exchange.getRequestCount() ;
+		long expected = 1 ;
+		for(TransactionHistoryOrder transaction:HistoryIterator.transactions(btce,0,100)) Assert.assertEquals(expected++,transaction.trans_id) ;
+		Assert.assertEquals(251,expected) ;
+		// 100, 100 and a short page of 50 that ends it
+		Assert.assertEquals(requests+3,exchange.getRequestCount()) ;
+
+		expected = 101 ;
+		for(TradeHistoryOrder trade:HistoryIterator.trades(btce,null,101,30)) Assert.assertEquals(expected++,trade.trans_id) ;
+		Assert.assertEquals(251,expected) ;
+	}
+
+	@Test
+	public void testExactPages() throws Exception {
+		exchange.setHistoryCount(200) ;
+		int requests = exchange.getRequestCount() ;
+		Iterator<TradeHistoryOrder> trades = HistoryIterator.trades(btce,null,0,100) ;
+		int n = 0 ;
+		while( trades.hasNext() ) {
+			trades.next() ;
+			n++ ;
+		}
+		Assert.assertEquals(200,n) ;
+		// the page after the last full one is answered with "no trades", which ends the history
+		Assert.assertEquals(requests+3,exchange.getRequestCount()) ;
+		Assert.assertFalse(trades.hasNext()) ;
+
+		exchange.setHistoryCount(0) ;
+		Assert.assertFalse(HistoryIterator.transactions(btce,0,100).hasNext()) ;
+	}
+
+	@Test
+	public void testFailures() throws Exception {
+		exchange.failNext(1,503) ;
+		Iterator<TradeHistoryOrder> trades = HistoryIterator.trades(btce,null,0,100) ;
+		try {
+			trades.hasNext() ;
+			Assert.fail() ;
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getCause() instanceof BTCE.BTCEException) ;
+		}
+
+		// an error other than an empty page
+		BTCE other = new BTCE() ;
+		other.setBaseUrl(exchange.getBaseUrl()) ;
+		other.setAuthKeys(KEY,"wrong secret") ;
+		try {
+			HistoryIterator.transactions(other,0,100).hasNext() ;
+			Assert.fail() ;
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("invalid sign",e.getMessage()) ;
+		}
+	}
+}
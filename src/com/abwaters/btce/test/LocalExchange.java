@@ -0,0 +1,547 @@
+package com.abwaters.btce.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the exchange so the client can be tested and measured offline.  Point a client at it with 
+ * {@link com.abwaters.btce.BTCE#setBaseUrl(String) setBaseUrl(exchange.getBaseUrl())}.
+ * <p>
+ * The trade API at <code>/tapi</code> checks the <code>Key</code> and <code>Sign</code> headers and that nonces increase 
+ * per key, and answers getInfo, Trade, CancelOrder, ActiveOrders, OrderList, TradeHistory and TransHistory.  Orders rest 
+ * until cancelled or filled with {@link #fill(long,double)}.  The public API answers <code>/api/2/&lt;pair&gt;/ticker|trades|depth</code> 
+ * and <code>/api/3/ticker|trades|depth/&lt;pairs&gt;</code> with generated data.
+ * <p>
+ * Latency, failed requests, rate limit responses and the size of the generated results can be set while it runs.
+ */
+public class LocalExchange implements Closeable {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8") ;
+	
+	static {
+		// without this every response waits out the client's delayed ACK, about 40ms
+		if( System.getProperty("sun.net.httpserver.nodelay") == null ) System.setProperty("sun.net.httpserver.nodelay","true") ;
+	}
+	
+	private final HttpServer server ;
+	private final ExecutorService threads ;
+	private final Map<String,String> secrets = new HashMap<String,String>() ;
+	private final Map<String,Long> nonces = new HashMap<String,Long>() ;
+	private final Map<String,Long> last_requests = new HashMap<String,Long>() ;
+	private final Map<String,Double> funds = new LinkedHashMap<String,Double>() ;
+	private final Map<Long,String[]> orders = new LinkedHashMap<Long,String[]>() ;	// pair, type, amount, rate, timestamp
+	private final List<String[]> fills = new ArrayList<String[]>() ;	// pair, type, amount, rate, order_id, timestamp
+	private final AtomicInteger requests = new AtomicInteger() ;
+	private final Random random = new Random(42) ;
+	private long next_order_id = 1000 ;
+	private long next_tid = 1000000 ;
+	private volatile long latency ;
+	private volatile double error_rate ;
+	private int fail_next, fail_status ;
+	private volatile long rate_limit ;	// nanoseconds
+	private volatile int trade_count = 150 ;
+	private volatile int depth_levels = 150 ;
+	private volatile int history_count = 100 ;
+	
+	/**
+	 * Starts the exchange on a free port.
+	 */
+	public LocalExchange() throws IOException {
+		this(0) ;
+	}
+	
+	public LocalExchange(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),port),64) ;
+		threads = Executors.newFixedThreadPool(8) ;
+		server.setExecutor(threads) ;
+		server.createContext("/",new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange) ;
+				} finally {
+					exchange.close() ;
+				}
+			}
+		}) ;
+		funds.put("usd",1000.0) ;
+		funds.put("btc",10.0) ;
+		funds.put("ltc",100.0) ;
+		server.start() ;
+	}
+	
+	public String getBaseUrl() {
+		return "http://127.0.0.1:"+server.getAddress().getPort() ;
+	}
+	
+	/**
+	 * Adds an API key the trade API accepts.
+	 */
+	public synchronized void addKey(String key,String secret) {
+		secrets.put(key,secret) ;
+	}
+	
+	/**
+	 * Returns the last nonce accepted for the key, 0 if none.
+	 */
+	public synchronized long getNonce(String key) {
+		Long nonce = nonces.get(key) ;
+		return nonce == null ? 0 : nonce ;
+	}
+	
+	/**
+	 * Sets the last nonce seen for the key, as if another client had used it.
+	 */
+	public synchronized void setNonce(String key,long nonce) {
+		nonces.put(key,nonce) ;
+	}
+	
+	public synchronized void setFunds(String currency,double amount) {
+		funds.put(currency,amount) ;
+	}
+	
+	/**
+	 * Sets how long every request takes before it is answered.
+	 */
+	public void setLatency(long millis) {
+		latency = millis ;
+	}
+	
+	/**
+	 * Sets the fraction of requests, picked at random, answered with a 500 error.
+	 */
+	public void setErrorRate(double error_rate) {
+		this.error_rate = error_rate ;
+	}
+	
+	/**
+	 * Answers the next requests with the HTTP status.
+	 */
+	public synchronized void failNext(int count,int status) {
+		fail_next = count ;
+		fail_status = status ;
+	}
+	
+	/**
+	 * Answers requests that come less than the interval after the previous one from the same key with a 429 error.  The
+	 * public API counts as one key.
+	 * 
+	 * @param interval_millis 0 for no limit.
+	 */
+	public void setRateLimit(long interval_millis) {
+		rate_limit = interval_millis*1000000L ;
+	}
+	
+	/**
+	 * Sets the number of trades returned by the public trades calls.
+	 */
+	public void setTradeCount(int trade_count) {
+		this.trade_count = trade_count ;
+	}
+	
+	/**
+	 * Sets the number of levels on each side of the depth.
+	 */
+	public void setDepthLevels(int depth_levels) {
+		this.depth_levels = depth_levels ;
+	}
+	
+	/**
+	 * Sets the number of rows in the trade and transaction history of the account, numbered from 1.
+	 */
+	public void setHistoryCount(int history_count) {
+		this.history_count = history_count ;
+	}
+	
+	/**
+	 * Fills some or all of a resting order, as if someone had traded against it.  The fill is added to the trade history 
+	 * after the generated rows.
+	 * 
+	 * @return false if there is no such order.
+	 */
+	public synchronized boolean fill(long order_id,double amount) {
+		String[] order = orders.get(order_id) ;
+		if( order == null ) return false ;
+		double remains = Double.parseDouble(order[2]) ;
+		amount = Math.min(amount,remains) ;
+		double rate = Double.parseDouble(order[3]) ;
+		if( order[1].equals("buy") ) adjust(order[0].substring(0,3),amount) ;
+		else adjust(order[0].substring(4),rate*amount) ;
+		if( remains-amount <= 1e-9 ) orders.remove(order_id) ;
+		else order[2] = Double.toString(remains-amount) ;
+		fills.add(new String[]{order[0],order[1],Double.toString(amount),order[3],Long.toString(order_id),Long.toString(now())}) ;
+		return true ;
+	}
+	
+	/**
+	 * Returns the number of requests received.
+	 */
+	public int getRequestCount() {
+		return requests.get() ;
+	}
+	
+	public void close() {
+		server.stop(0) ;
+		threads.shutdownNow() ;
+	}
+	
+	private void serve(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet() ;
+		byte[] body = read(exchange.getRequestBody()) ;
+		if( latency > 0 ) {
+			try {
+				Thread.sleep(latency) ;
+			} catch (InterruptedException e) {
+				return ;
+			}
+		}
+		int status = injectedFailure() ;
+		if( status != 0 ) {
+			respond(exchange,status,"{\"error\":\"injected failure\"}") ;
+			return ;
+		}
+		String path = exchange.getRequestURI().getPath() ;
+		String key = exchange.getRequestHeaders().getFirst("Key") ;
+		if( limited(path.equals("/tapi") && key != null ? key : "") ) {
+			respond(exchange,429,"{\"error\":\"too many requests\"}") ;
+			return ;
+		}
+		String[] parts = path.split("/") ;	// "", "api", "2", pair, method
+		String json ;
+		if( path.equals("/tapi") && exchange.getRequestMethod().equals("POST") ) {
+			json = tapi(key,exchange.getRequestHeaders().getFirst("Sign"),body) ;
+		} else if( parts.length == 5 && parts[1].equals("api") && parts[2].equals("2") ) {
+			json = publicV2(parts[3],parts[4]) ;
+		} else if( parts.length == 5 && parts[1].equals("api") && parts[2].equals("3") ) {
+			json = publicV3(parts[3],parts[4].split("-")) ;
+		} else {
+			respond(exchange,404,"{\"error\":\"not found\"}") ;
+			return ;
+		}
+		respond(exchange,200,json) ;
+	}
+	
+	private synchronized int injectedFailure() {
+		if( fail_next > 0 ) {
+			fail_next-- ;
+			return fail_status ;
+		}
+		return error_rate > 0 && random.nextDouble() < error_rate ? 500 : 0 ;
+	}
+	
+	private synchronized boolean limited(String key) {
+		if( rate_limit == 0 ) return false ;
+		long now = System.nanoTime() ;
+		Long last = last_requests.get(key) ;
+		if( last != null && now-last < rate_limit ) return true ;
+		last_requests.put(key,now) ;
+		return false ;
+	}
+	
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream() ;
+		byte[] buf = new byte[4096] ;
+		int n ;
+		while( (n = in.read(buf)) > 0 ) out.write(buf,0,n) ;
+		return out.toByteArray() ;
+	}
+	
+	private static void respond(HttpExchange exchange,int status,String json) throws IOException {
+		byte[] bytes = json.getBytes(UTF_8) ;
+		exchange.getResponseHeaders().set("Content-Type","application/json") ;
+		exchange.sendResponseHeaders(status,bytes.length) ;
+		OutputStream out = exchange.getResponseBody() ;
+		out.write(bytes) ;
+		out.close() ;
+	}
+	
+	private static boolean isPair(String pair) {
+		return pair.matches("[a-z]{3}_[a-z]{3}") ;
+	}
+	
+	private static long now() {
+		return System.currentTimeMillis()/1000 ;
+	}
+	
+	/*
+	 * public API
+	 */
+	
+	private String publicV2(String pair,String method) {
+		if( !isPair(pair) ) return "{\"error\":\"invalid pair\"}" ;
+		if( method.equals("ticker") ) return "{\"ticker\":"+ticker(pair)+"}" ;
+		if( method.equals("trades") ) return trades(pair,false) ;
+		if( method.equals("depth") ) return depth(pair) ;
+		return "{\"error\":\"invalid method\"}" ;
+	}
+	
+	private String publicV3(String method,String[] pairs) {
+		StringBuilder sb = new StringBuilder("{") ;
+		for(String pair:pairs) {
+			if( !isPair(pair) ) return "{\"success\":0,\"error\":\"Invalid pair name: "+pair+"\"}" ;
+			if( sb.length() > 1 ) sb.append(',') ;
+			sb.append('"').append(pair).append("\":") ;
+			if( method.equals("ticker") ) sb.append(ticker(pair)) ;
+			else if( method.equals("trades") ) sb.append(trades(pair,true)) ;
+			else if( method.equals("depth") ) sb.append(depth(pair)) ;
+			else return "{\"success\":0,\"error\":\"Invalid method\"}" ;
+		}
+		return sb.append('}').toString() ;
+	}
+	
+	private static double price(String pair) {
+		return 100+Math.abs(pair.hashCode()%900) ;
+	}
+	
+	private String ticker(String pair) {
+		double last = price(pair) ;
+		long now = now() ;
+		return "{\"high\":"+(last*1.05)+",\"low\":"+(last*0.95)+",\"avg\":"+last+",\"vol\":123456.789,\"vol_cur\":1234.5678,"
+				+"\"last\":"+last+",\"buy\":"+(last-0.01)+",\"sell\":"+(last+0.01)+",\"updated\":"+now+",\"server_time\":"+now+"}" ;
+	}
+	
+	private String trades(String pair,boolean v3) {
+		long newest ;
+		synchronized(this) {
+			// a few new trades per call so successive calls overlap like they do on the exchange
+			newest = next_tid += 5 ;
+		}
+		String item = pair.substring(0,3), currency = pair.substring(4) ;
+		double price = price(pair) ;
+		long now = now() ;
+		StringBuilder sb = new StringBuilder(trade_count*128).append('[') ;
+		for(int i=0;i<trade_count;i++) {
+			if( i > 0 ) sb.append(',') ;
+			String type = i%2 == 0 ? "bid" : "ask" ;
+			double amount = 0.01*(1+i%50) ;
+			if( v3 ) {
+				sb.append("{\"type\":\"").append(type).append("\",\"price\":").append(price+(i%10)*0.1).append(",\"amount\":").append(amount)
+					.append(",\"tid\":").append(newest-i).append(",\"timestamp\":").append(now-i).append('}') ;
+			} else {
+				sb.append("{\"date\":").append(now-i).append(",\"price\":").append(price+(i%10)*0.1).append(",\"amount\":").append(amount)
+					.append(",\"tid\":").append(newest-i).append(",\"price_currency\":\"").append(currency.toUpperCase())
+					.append("\",\"item\":\"").append(item.toUpperCase()).append("\",\"trade_type\":\"").append(type).append("\"}") ;
+			}
+		}
+		return sb.append(']').toString() ;
+	}
+	
+	private String depth(String pair) {
+		double price = price(pair) ;
+		StringBuilder sb = new StringBuilder(depth_levels*64).append("{\"asks\":[") ;
+		for(int i=0;i<depth_levels;i++) {
+			if( i > 0 ) sb.append(',') ;
+			sb.append('[').append(price+0.01*(i+1)).append(',').append(0.1*(1+i%20)).append(']') ;
+		}
+		sb.append("],\"bids\":[") ;
+		for(int i=0;i<depth_levels;i++) {
+			if( i > 0 ) sb.append(',') ;
+			sb.append('[').append(price-0.01*(i+1)).append(',').append(0.1*(1+i%20)).append(']') ;
+		}
+		return sb.append("]}").toString() ;
+	}
+	
+	/*
+	 * trade API
+	 */
+	
+	private static String error(String message) {
+		return "{\"success\":0,\"error\":\""+message+"\"}" ;
+	}
+	
+	private static String success(String result) {
+		return "{\"success\":1,\"return\":"+result+"}" ;
+	}
+	
+	private synchronized String tapi(String key,String sign,byte[] body) {
+		String secret = key == null ? null : secrets.get(key) ;
+		if( secret == null ) return error("invalid api key") ;
+		if( sign == null || !sign.equalsIgnoreCase(hmac(secret,body)) ) return error("invalid sign") ;
+		Map<String,String> params = parse(new String(body,UTF_8)) ;
+		long nonce ;
+		try {
+			nonce = Long.parseLong(params.get("nonce")) ;
+		} catch (NumberFormatException e) {
+			return error("invalid nonce parameter") ;
+		}
+		long last = getNonce(key) ;
+		if( nonce <= last ) return error("invalid nonce parameter; on key:"+last+", you sent:"+nonce) ;
+		nonces.put(key,nonce) ;
+		
+		String method = params.get("method") ;
+		if( "getInfo".equals(method) ) return info() ;
+		if( "Trade".equals(method) ) return trade(params) ;
+		if( "CancelOrder".equals(method) ) return cancelOrder(params) ;
+		if( "ActiveOrders".equals(method) || "OrderList".equals(method) ) return activeOrders(params.get("pair")) ;
+		if( "TradeHistory".equals(method) ) return history(params,true) ;
+		if( "TransHistory".equals(method) ) return history(params,false) ;
+		return error("invalid method") ;
+	}
+	
+	private static String hmac(String secret,byte[] body) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA512") ;
+			mac.init(new SecretKeySpec(secret.getBytes(UTF_8),"HmacSHA512")) ;
+			StringBuilder sb = new StringBuilder() ;
+			for(byte b:mac.doFinal(body)) sb.append(String.format("%02x",b&0xff)) ;
+			return sb.toString() ;
+		} catch (Exception e) {
+			throw new IllegalStateException(e) ;
+		}
+	}
+	
+	private static Map<String,String> parse(String body) {
+		Map<String,String> params = new HashMap<String,String>() ;
+		for(String param:body.split("&")) {
+			int eq = param.indexOf('=') ;
+			if( eq <= 0 ) continue ;
+			try {
+				params.put(URLDecoder.decode(param.substring(0,eq),"UTF-8"),URLDecoder.decode(param.substring(eq+1),"UTF-8")) ;
+			} catch (IOException e) {
+				throw new IllegalStateException(e) ;
+			}
+		}
+		return params ;
+	}
+	
+	private String funds() {
+		StringBuilder sb = new StringBuilder("{") ;
+		for(Map.Entry<String,Double> e:funds.entrySet()) {
+			if( sb.length() > 1 ) sb.append(',') ;
+			sb.append('"').append(e.getKey()).append("\":").append(e.getValue()) ;
+		}
+		return sb.append('}').toString() ;
+	}
+	
+	private String info() {
+		return success("{\"funds\":"+funds()+",\"rights\":{\"info\":1,\"trade\":1,\"withdraw\":0},\"transaction_count\":"+history_count
+				+",\"open_orders\":"+orders.size()+",\"server_time\":"+now()+"}") ;
+	}
+	
+	private void adjust(String currency,double amount) {
+		Double balance = funds.get(currency) ;
+		funds.put(currency,(balance == null ? 0 : balance)+amount) ;
+	}
+	
+	private String trade(Map<String,String> params) {
+		String pair = params.get("pair"), type = params.get("type") ;
+		if( pair == null || !isPair(pair) ) return error("You incorrectly entered one of fields.") ;
+		if( !"buy".equals(type) && !"sell".equals(type) ) return error("You incorrectly entered one of fields.") ;
+		double rate, amount ;
+		try {
+			rate = Double.parseDouble(params.get("rate")) ;
+			amount = Double.parseDouble(params.get("amount")) ;
+		} catch (RuntimeException e) {
+			return error("You incorrectly entered one of fields.") ;
+		}
+		if( rate <= 0 || amount <= 0 ) return error("You incorrectly entered one of fields.") ;
+		String item = pair.substring(0,3), currency = pair.substring(4) ;
+		String spend = type.equals("buy") ? currency : item ;
+		double cost = type.equals("buy") ? rate*amount : amount ;
+		Double balance = funds.get(spend) ;
+		if( balance == null || balance < cost ) return error("It is not enough "+spend.toUpperCase()+" for "+type) ;
+		adjust(spend,-cost) ;
+		long order_id = next_order_id++ ;
+		orders.put(order_id,new String[]{pair,type,params.get("amount"),params.get("rate"),Long.toString(now())}) ;
+		return success("{\"received\":0,\"remains\":"+amount+",\"order_id\":"+order_id+",\"funds\":"+funds()+"}") ;
+	}
+	
+	private String cancelOrder(Map<String,String> params) {
+		long order_id ;
+		try {
+			order_id = Long.parseLong(params.get("order_id")) ;
+		} catch (NumberFormatException e) {
+			return error("invalid parameter: order_id") ;
+		}
+		String[] order = orders.remove(order_id) ;
+		if( order == null ) return error("bad status") ;
+		double rate = Double.parseDouble(order[3]), amount = Double.parseDouble(order[2]) ;
+		if( order[1].equals("buy") ) adjust(order[0].substring(4),rate*amount) ;
+		else adjust(order[0].substring(0,3),amount) ;
+		return success("{\"order_id\":"+order_id+",\"funds\":"+funds()+"}") ;
+	}
+	
+	private String activeOrders(String pair) {
+		StringBuilder sb = new StringBuilder("{") ;
+		for(Iterator<Map.Entry<Long,String[]>> i=orders.entrySet().iterator();i.hasNext();) {
+			Map.Entry<Long,String[]> e = i.next() ;
+			String[] order = e.getValue() ;
+			if( pair != null && !pair.equals(order[0]) ) continue ;
+			if( sb.length() > 1 ) sb.append(',') ;
+			sb.append('"').append(e.getKey()).append("\":{\"pair\":\"").append(order[0]).append("\",\"type\":\"").append(order[1])
+				.append("\",\"amount\":").append(order[2]).append(",\"rate\":").append(order[3])
+				.append(",\"timestamp_created\":").append(order[4]).append(",\"status\":0}") ;
+		}
+		if( sb.length() == 1 ) return error("no orders") ;
+		return success(sb.append('}').toString()) ;
+	}
+	
+	private static long param(Map<String,String> params,String name,long otherwise) {
+		String value = params.get(name) ;
+		return value == null ? otherwise : Long.parseLong(value) ;
+	}
+	
+	/**
+	 * The history is the rows 1 to history_count, one a minute up to now, followed in the trade history by the fills.
+	 */
+	private String history(Map<String,String> params,boolean trades) {
+		long from = param(params,"from",0), count = param(params,"count",1000) ;
+		long from_id = param(params,"from_id",1), end_id = param(params,"end_id",Long.MAX_VALUE) ;
+		long since = param(params,"since",0), end = param(params,"end",Long.MAX_VALUE) ;
+		boolean asc = "ASC".equals(params.get("order")) ;
+		String pair = params.get("pair") ;
+		long now = now() ;
+		long total = history_count+(trades ? fills.size() : 0) ;
+		StringBuilder sb = new StringBuilder("{") ;
+		long skipped = 0, n = 0 ;
+		for(long i=0;i<total && n<count;i++) {
+			long id = asc ? i+1 : total-i ;
+			String[] fill = id > history_count ? fills.get((int)(id-history_count-1)) : null ;
+			long timestamp = fill != null ? Long.parseLong(fill[5]) : now-60*(history_count-id) ;
+			if( id < from_id || id > end_id || timestamp < since || timestamp > end ) continue ;
+			String row_pair = fill != null ? fill[0] : (id%2 == 0 ? "btc_usd" : "ltc_usd") ;
+			if( trades && pair != null && !pair.equals(row_pair) ) continue ;
+			if( skipped++ < from ) continue ;
+			if( n++ > 0 ) sb.append(',') ;
+			sb.append('"').append(id).append("\":") ;
+			if( fill != null ) {
+				sb.append("{\"pair\":\"").append(fill[0]).append("\",\"type\":\"").append(fill[1])
+					.append("\",\"amount\":").append(fill[2]).append(",\"rate\":").append(fill[3]).append(",\"order_id\":").append(fill[4])
+					.append(",\"is_your_order\":1,\"timestamp\":").append(timestamp).append('}') ;
+			} else if( trades ) {
+				sb.append("{\"pair\":\"").append(row_pair).append("\",\"type\":\"").append(id%3 == 0 ? "sell" : "buy")
+					.append("\",\"amount\":").append(0.1*(1+id%10)).append(",\"rate\":").append(price(row_pair))
+					.append(",\"order_id\":").append(100000+id).append(",\"is_your_order\":").append(id%2)
+					.append(",\"timestamp\":").append(timestamp).append('}') ;
+			} else {
+				sb.append("{\"type\":").append(1+id%5).append(",\"amount\":").append(1.5*(1+id%7))
+					.append(",\"currency\":\"BTC\",\"desc\":\"BTC Payment\",\"status\":2,\"timestamp\":").append(timestamp).append('}') ;
+			}
+		}
+		if( n == 0 ) return error(trades ? "no trades" : "no transactions") ;
+		return success(sb.append('}').toString()) ;
+	}
+}
@@ -0,0 +1,176 @@
+package com.abwaters.btce.test;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.CancelOrder;
+import com.abwaters.btce.BTCE.Depth;
+import com.abwaters.btce.BTCE.Info;
+import com.abwaters.btce.BTCE.OrderList;
+import com.abwaters.btce.BTCE.Ticker;
+import com.abwaters.btce.BTCE.Trade;
+import com.abwaters.btce.BTCE.TradeHistory;
+import com.abwaters.btce.BTCE.TradeHistoryOrder;
+import com.abwaters.btce.BTCE.TradesDetail;
+import com.abwaters.btce.BTCE.TransactionHistory;
+import com.abwaters.btce.HistoryIterator;
+import com.abwaters.btce.MarketDataCache;
+
+/**
+ * Runs the client against {@link LocalExchange} so it can be tested without keys or a network.
+ */
+public class LocalExchange_Test {
+
+	private static final String KEY = "LOCAL-TEST-KEY" ;
+	private static final String SECRET = "0123456789abcdef0123456789abcdef" ;
+	
+	private LocalExchange exchange ;
+	private BTCE btce ;
+	
+	@Before
+	public void setUp() throws Exception {
+		exchange = new LocalExchange() ;
+		exchange.addKey(KEY,SECRET) ;
+		btce = new BTCE() ;
+		btce.setBaseUrl(exchange.getBaseUrl()) ;
+		btce.setAuthKeys(KEY,SECRET) ;
+		btce.setRequestLimit(0) ;
+		btce.setAuthRequestLimit(0) ;
+	}
+	
+	@After
+	public void tearDown() {
+		exchange.close() ;
+	}
+	
+	@Test
+	public void testPublic() throws Exception {
+		Ticker ticker = btce.getTicker(BTCE.Pairs.BTC_USD) ;
+		Assert.assertTrue(ticker.last > 0) ;
+		Assert.assertTrue(ticker.server_time > 0) ;
+		exchange.setTradeCount(20) ;
+		TradesDetail[] trades = btce.getTrades(BTCE.Pairs.BTC_USD) ;
+		Assert.assertEquals(20,trades.length) ;
+		Assert.assertEquals("BTC",trades[0].item) ;
+		exchange.setDepthLevels(5) ;
+		Depth depth = btce.getDepth(BTCE.Pairs.BTC_USD) ;
+		Assert.assertEquals(5,depth.ask_prices.length) ;
+		Assert.assertTrue(depth.ask_prices[0] > depth.bid_prices[0]) ;
+		Map<String,Ticker> tickers = btce.getTickers(BTCE.Pairs.BTC_USD,BTCE.Pairs.LTC_USD) ;
+		Assert.assertEquals(2,tickers.size()) ;
+		Assert.assertEquals(ticker.last,tickers.get(BTCE.Pairs.BTC_USD).last,0) ;
+	}
+
+	@Test
+	public void testPairMapsToJson() throws Exception {
+		exchange.setTradeCount(3) ;
+		exchange.setDepthLevels(2) ;
+		Map<String,TradesDetail[]> trades = btce.getTradesMap(BTCE.Pairs.BTC_USD) ;
+		TradesDetail trade = trades.get(BTCE.Pairs.BTC_USD)[0] ;
+		String json = btce.toJson(trades) ;
+		Assert.assertTrue(json,json.startsWith("{\"btc_usd\":[{\"type\":\""+trade.trade_type+"\"")) ;
+		Assert.assertTrue(json,json.contains("\"tid\":"+trade.tid+",\"timestamp\":"+trade.date+"}")) ;
+
+		Map<String,Depth> depths = btce.getDepths(BTCE.Pairs.BTC_USD,BTCE.Pairs.LTC_USD) ;
+		json = btce.toJson(depths) ;
+		Assert.assertTrue(json,json.startsWith("{\"btc_usd\":{\"asks\":[[")) ;
+		Assert.assertTrue(json,json.contains("\"ltc_usd\":{\"asks\"")) ;
+		Assert.assertTrue(json,btce.toJson(btce.getTickers(BTCE.Pairs.BTC_USD)).contains("\"server_time\":")) ;
+	}
+
+	@Test
+	public void testInfoTradeAndCancel() throws Exception {
+		Info info = btce.getInfo() ;
+		Assert.assertEquals(1,info.success) ;
+		Assert.assertEquals(1000.0,info.info.funds.usd,0) ;
+		Trade trade = btce.trade(BTCE.Pairs.BTC_USD,BTCE.TradeType.BUY,100,2) ;
+		Assert.assertEquals(1,trade.success) ;
+		Assert.assertEquals(800.0,trade.info.funds.balances.get("usd"),0) ;
+		OrderList orders = btce.getActiveOrders(BTCE.Pairs.BTC_USD) ;
+		Assert.assertEquals(1,orders.info.orders.length) ;
+		Assert.assertEquals(trade.info.order_id,orders.info.orders[0].order_id) ;
+		CancelOrder cancel = btce.cancelOrder(trade.info.order_id) ;
+		Assert.assertEquals(1000.0,cancel.info.funds.usd,0) ;
+		Assert.assertEquals("no orders",btce.getActiveOrders().error) ;
+	}
+	
+	@Test
+	public void testHistoryToJson() throws Exception {
+		exchange.setHistoryCount(3) ;
+		TradeHistory trades = btce.getTradeHistory() ;
+		TradeHistory trades_back = btce.parse(new StringReader(btce.toJson(trades)),TradeHistory.class) ;
+		Assert.assertEquals(3,trades_back.info.trades.length) ;
+		Assert.assertEquals(trades.info.trades[2].trans_id,trades_back.info.trades[2].trans_id) ;
+		Assert.assertEquals(trades.info.trades[2].trade_details.toString(),trades_back.info.trades[2].trade_details.toString()) ;
+
+		TransactionHistory transactions = btce.getTransactionHistory() ;
+		TransactionHistory transactions_back = btce.parse(new StringReader(btce.toJson(transactions)),TransactionHistory.class) ;
+		Assert.assertEquals(transactions.info.transactions.length,transactions_back.info.transactions.length) ;
+		Assert.assertEquals(transactions.info.transactions[0].trans_details.toString(),transactions_back.info.transactions[0].trans_details.toString()) ;
+
+		btce.trade(BTCE.Pairs.BTC_USD,BTCE.TradeType.SELL,500,1) ;
+		OrderList orders = btce.getActiveOrders() ;
+		OrderList orders_back = btce.parse(new StringReader(btce.toJson(orders)),OrderList.class) ;
+		Assert.assertEquals(orders.info.orders[0].order_id,orders_back.info.orders[0].order_id) ;
+		Assert.assertEquals(orders.info.orders[0].order_details.toString(),orders_back.info.orders[0].order_details.toString()) ;
+	}
+
+	@Test
+	public void testBadSignature() throws Exception {
+		BTCE other = new BTCE() ;
+		other.setBaseUrl(exchange.getBaseUrl()) ;
+		other.setAuthKeys(KEY,"wrong secret") ;
+		Assert.assertEquals("invalid sign",other.getInfo().error) ;
+	}
+	
+	@Test
+	public void testNonceRecovery() throws Exception {
+		long used = btce.getNonceSource().next() ;
+		exchange.setNonce(KEY,used+1000) ;
+		Assert.assertEquals(1,btce.getInfo().success) ;
+		Assert.assertTrue(exchange.getNonce(KEY) > used+1000) ;
+	}
+	
+	@Test
+	public void testHistoryIterator() throws Exception {
+		exchange.setHistoryCount(250) ;
+		long expected = 1 ;
+		HistoryIterator<TradeHistoryOrder> history = HistoryIterator.trades(btce,null,0,100) ;
+		for(TradeHistoryOrder trade:history) Assert.assertEquals(expected++,trade.trans_id) ;
+		Assert.assertEquals(251,expected) ;
+		// a second pass starts over
+		expected = 1 ;
+		for(TradeHistoryOrder trade:history) Assert.assertEquals(expected++,trade.trans_id) ;
+		Assert.assertEquals(251,expected) ;
+		Assert.assertFalse(history.hasNext()) ;
+	}
+	
+	@Test
+	public void testCache() throws Exception {
+		MarketDataCache cache = new MarketDataCache(btce) ;
+		int requests = exchange.getRequestCount() ;
+		Ticker ticker = cache.getTicker(BTCE.Pairs.BTC_USD) ;
+		Assert.assertSame(ticker,cache.getTicker(BTCE.Pairs.BTC_USD)) ;
+		Assert.assertEquals(requests+1,exchange.getRequestCount()) ;
+	}
+	
+	@Test
+	public void testFailures() throws Exception {
+		exchange.failNext(1,503) ;
+		try {
+			btce.getTicker(BTCE.Pairs.BTC_USD) ;
+			Assert.fail() ;
+		} catch (BTCEException e) {
+			// expected
+		}
+		Assert.assertTrue(btce.getTicker(BTCE.Pairs.BTC_USD).last > 0) ;
+	}
+}
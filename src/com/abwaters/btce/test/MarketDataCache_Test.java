@@ -0,0 +1,86 @@
+package com.abwaters.btce.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.Ticker;
+import com.abwaters.btce.MarketDataCache;
+
+public class MarketDataCache_Test {
+
+	private static final String BTC = BTCE.Pairs.BTC_USD ;
+
+	private final AtomicInteger calls = new AtomicInteger() ;
+	/**
+	 * How far behind the local clock the exchange's is, in seconds, and how old its tickers are when served.
+	 */
+	private volatile long behind, age ;
+	private MarketDataCache cache ;
+
+	@Before
+	public void setUp() {
+		BTCE btce = new BTCE() {
+			@Override
+			public Ticker getTicker(String pair) throws BTCEException {
+				calls.incrementAndGet() ;
+				Ticker ticker = new Ticker() ;
+				ticker.server_time = System.currentTimeMillis()/1000-behind ;
+				ticker.updated = ticker.server_time-age ;
+				return ticker ;
+			}
+		} ;
+		cache = new MarketDataCache(btce) ;
+		cache.setTimeToLive(BTC,60000) ;
+	}
+
+	@Test
+	public void testFreshTickerIsCached() throws Exception {
+		Ticker ticker = cache.getTicker(BTC) ;
+		Assert.assertSame(ticker,cache.getTicker(BTC)) ;
+		Assert.assertEquals(1,calls.get()) ;
+		Assert.assertTrue(cache.getClockOffset() >= 0 && cache.getClockOffset() < 1000) ;
+	}
+
+	@Test
+	public void testOldTickerExpiresByUpdated() throws Exception {
+		cache.getTicker(BTC) ;
+		cache.invalidate(BTC) ;
+		// served from the exchange's cache well past the time to live
+		age = 120 ;
+		cache.getTicker(BTC) ;
+		cache.getTicker(BTC) ;
+		Assert.assertEquals(3,calls.get()) ;
+
+		age = 30 ;
+		cache.getTicker(BTC) ;
+		cache.getTicker(BTC) ;
+		Assert.assertEquals(4,calls.get()) ;
+	}
+
+	@Test
+	public void testEstimateFollowsClockStep() throws Exception {
+		cache.getTicker(BTC) ;
+		// the local clock steps an hour ahead, the old estimate makes every ticker look an hour old
+		behind = 3600 ;
+		cache.invalidate(BTC) ;
+		cache.getTicker(BTC) ;
+		cache.getTicker(BTC) ;
+		Assert.assertEquals(3,calls.get()) ;
+
+		// once the samples from before the step are out of the window the tickers are fresh again
+		for(int i=0;i<16;i++) {
+			cache.invalidate(BTC) ;
+			cache.getTicker(BTC) ;
+		}
+		Assert.assertTrue(cache.getClockOffset() >= 3600000) ;
+		int before = calls.get() ;
+		cache.getTicker(BTC) ;
+		Assert.assertEquals(before,calls.get()) ;
+	}
+}
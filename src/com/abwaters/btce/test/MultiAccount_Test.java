@@ -0,0 +1,140 @@
+package com.abwaters.btce.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.Info;
+import com.abwaters.btce.BTCE.OrderListOrder;
+import com.abwaters.btce.MultiAccount;
+
+public class MultiAccount_Test {
+
+	private static final String SECRET = "0123456789abcdef0123456789abcdef" ;
+	private static final int ACCOUNTS = 3 ;
+
+	private LocalExchange exchange ;
+	private MultiAccount accounts ;
+
+	@Before
+	public void setUp() throws Exception {
+		exchange = new LocalExchange() ;
+		exchange.setFunds("usd",1000) ;
+		exchange.setFunds("btc",2) ;
+		accounts = new MultiAccount() ;
+		for(int i=0;i<ACCOUNTS;i++) {
+			String key = "MULTI-TEST-KEY-"+i ;
+			exchange.addKey(key,SECRET) ;
+			accounts.addAccount("account"+i,client(key,100)) ;
+		}
+	}
+
+	@After
+	public void tearDown() {
+		exchange.close() ;
+	}
+
+	private BTCE client(String key,long auth_limit) throws Exception {
+		BTCE client = new BTCE() ;
+		client.setBaseUrl(exchange.getBaseUrl()) ;
+		client.setAuthKeys(key,SECRET) ;
+		client.setAuthRequestLimit(auth_limit) ;
+		return client ;
+	}
+
+	@Test
+	public void testFanOutRunsAccountsInParallel() throws Exception {
+		exchange.setLatency(20) ;
+		accounts.getInfo() ;	// spends the first permit of every key
+		long start = System.nanoTime() ;
+		MultiAccount.Merged<Info> infos = null ;
+		for(int i=0;i<3;i++) infos = accounts.getInfo() ;
+		long elapsed = (System.nanoTime()-start)/1000000 ;
+		// three calls per key at 100ms each, the keys sharing a limit would take three times as long
+		Assert.assertTrue("took "+elapsed+"ms",elapsed < 3*ACCOUNTS*100-200) ;
+		Assert.assertTrue(infos.isComplete()) ;
+		Assert.assertEquals(accounts.getAccountNames(),new ArrayList<String>(infos.getResults().keySet())) ;
+		Map<String,Double> totals = MultiAccount.totalFunds(infos) ;
+		Assert.assertEquals(ACCOUNTS*1000,totals.get("usd"),1e-9) ;
+		Assert.assertEquals(ACCOUNTS*2,totals.get("btc"),1e-9) ;
+	}
+
+	@Test
+	public void testActiveOrdersAndFailures() throws Exception {
+		long order_id = accounts.getAccount("account1").trade(BTCE.Pairs.BTC_USD,"buy",100,1).info.order_id ;
+		exchange.failNext(1,503) ;
+		MultiAccount.Merged<BTCE.OrderList> lists = accounts.getActiveOrders(null) ;
+		Assert.assertEquals(1,lists.getFailures().size()) ;
+		Assert.assertEquals(ACCOUNTS-1,lists.getResults().size()) ;
+
+		lists = accounts.getActiveOrders(null) ;
+		Assert.assertTrue(lists.isComplete()) ;
+		// the local exchange keeps one book for all keys, so every account sees the order
+		Map<String,List<OrderListOrder>> orders = MultiAccount.allOrders(lists) ;
+		Assert.assertEquals(ACCOUNTS,orders.size()) ;
+		Assert.assertEquals(order_id,orders.get("account0").get(0).order_id) ;
+	}
+
+	@Test
+	public void testNewKeyGetsItsOwnLimiterAndNonces() throws Exception {
+		exchange.addKey("MULTI-TEST-KEY-X",SECRET) ;
+		BTCE first = accounts.getAccount("account0") ;
+		BTCE switched = client("MULTI-TEST-KEY-0",100) ;
+		Assert.assertSame(first.getAuthRequestLimiter(),switched.getAuthRequestLimiter()) ;
+		Assert.assertSame(first.getNonceSource(),switched.getNonceSource()) ;
+		switched.setAuthKeys("MULTI-TEST-KEY-X",SECRET) ;
+		Assert.assertNotSame(first.getAuthRequestLimiter(),switched.getAuthRequestLimiter()) ;
+		Assert.assertNotSame(first.getNonceSource(),switched.getNonceSource()) ;
+		Assert.assertEquals(100,switched.getAuthRequestLimiter().getInterval()) ;
+		Assert.assertEquals(1,switched.getInfo().success) ;
+	}
+
+	@Test
+	public void testLimitSettingsApplyToTheKey() throws Exception {
+		BTCE first = accounts.getAccount("account0") ;
+		BTCE second = new BTCE() ;
+		second.setAuthRequestLimit(250,2) ;
+		second.setAuthKeys("MULTI-TEST-KEY-0",SECRET) ;
+		Assert.assertSame(first.getAuthRequestLimiter(),second.getAuthRequestLimiter()) ;
+		Assert.assertEquals(250,first.getAuthRequestLimiter().getInterval()) ;
+		Assert.assertEquals(2,first.getAuthRequestLimiter().getBurst()) ;
+
+		BTCE.RateLimiter replaced = new BTCE.RateLimiter(50,1) ;
+		second.setAuthRequestLimiter(replaced) ;
+		Assert.assertSame(replaced,first.getAuthRequestLimiter()) ;
+		first.setAuthRequestLimit(75) ;
+		Assert.assertEquals(75,second.getAuthRequestLimiter().getInterval()) ;
+	}
+
+	@Test
+	public void testOneNonceSourcePerKey() throws Exception {
+		BTCE first = accounts.getAccount("account0") ;
+		Assert.assertEquals(1,first.getInfo().success) ;
+		long used = first.getNonceSource().next() ;
+		BTCE second = new BTCE() ;
+		second.setBaseUrl(exchange.getBaseUrl()) ;
+		second.setAuthRequestLimit(0) ;
+		BTCE.NonceSource behind = new BTCE.AtomicNonceSource(0) ;
+		second.setNonceSource(behind) ;
+		second.setAuthKeys("MULTI-TEST-KEY-0",SECRET) ;
+		// the source replaces the key's, carrying on from it
+		Assert.assertSame(behind,first.getNonceSource()) ;
+		Assert.assertSame(behind,second.getNonceSource()) ;
+		Assert.assertTrue(behind.next() > used) ;
+		Assert.assertEquals(1,second.getInfo().success) ;
+		Assert.assertEquals(1,first.getInfo().success) ;
+
+		used = behind.next() ;
+		BTCE.NonceSource after = new BTCE.AtomicNonceSource(0) ;
+		first.setNonceSource(after) ;
+		Assert.assertSame(after,second.getNonceSource()) ;
+		Assert.assertTrue(after.next() > used) ;
+	}
+}
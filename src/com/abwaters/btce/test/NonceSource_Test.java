@@ -0,0 +1,48 @@
+package com.abwaters.btce.test;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE.AtomicNonceSource;
+import com.abwaters.btce.MappedNonceSource;
+
+public class NonceSource_Test {
+
+	@Test
+	public void testAtomicNonceSource() {
+		AtomicNonceSource source = new AtomicNonceSource(100) ;
+		Assert.assertEquals(101,source.next()) ;
+		source.advanceTo(200) ;
+		Assert.assertEquals(201,source.next()) ;
+		source.advanceTo(150) ;
+		Assert.assertEquals(202,source.next()) ;
+	}
+	
+	@Test
+	public void testMappedNonceSourceRestart() throws Exception {
+		File file = File.createTempFile("btce",".nonce") ;
+		file.delete() ;
+		try {
+			MappedNonceSource source = new MappedNonceSource(file,10) ;
+			long last = 0 ;
+			for(int i=0;i<25;i++) {
+				long n = source.next() ;
+				Assert.assertTrue(n > last) ;
+				last = n ;
+			}
+			source.advanceTo(last+1000) ;
+			last = source.next() ;
+			source.close() ;
+			
+			// a restarted source never goes back below a nonce handed out before the restart
+			source = new MappedNonceSource(file,10) ;
+			Assert.assertTrue(source.next() > last) ;
+			source.close() ;
+		} finally {
+			file.delete() ;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.abwaters.btce.test;
+
+import java.io.StringReader;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.Depth;
+import com.abwaters.btce.BTCE.OrderBook;
+
+public class OrderBook_Test {
+
+	private static Depth depth(double[] asks,double[] bids) {
+		Depth depth = new Depth() ;
+		depth.ask_prices = new double[asks.length/2] ;
+		depth.ask_amounts = new double[asks.length/2] ;
+		for(int i=0;i<asks.length;i+=2) {
+			depth.ask_prices[i/2] = asks[i] ;
+			depth.ask_amounts[i/2] = asks[i+1] ;
+		}
+		depth.bid_prices = new double[bids.length/2] ;
+		depth.bid_amounts = new double[bids.length/2] ;
+		for(int i=0;i<bids.length;i+=2) {
+			depth.bid_prices[i/2] = bids[i] ;
+			depth.bid_amounts[i/2] = bids[i+1] ;
+		}
+		return depth ;
+	}
+	
+	@Test
+	public void testUpdate() {
+		OrderBook book = new OrderBook(BTCE.Pairs.BTC_USD) ;
+		int changes = book.update(depth(new double[]{101,1, 102,2, 103,3},new double[]{100,1, 99,2})) ;
+		Assert.assertEquals(5,changes) ;
+		Assert.assertEquals(101.0,book.getBestAsk(),0) ;
+		Assert.assertEquals(100.0,book.getBestBid(),0) ;
+		Assert.assertEquals(6.0,book.getCumulativeAskAmount(3),0) ;
+		Assert.assertEquals(3.0,book.getCumulativeBidAmount(10),0) ;
+		Assert.assertEquals(0.0,book.getAskPrice(3),0) ;
+		
+		// 101 is gone, 102 changed amount, 103 is unchanged and 104 is new
+		changes = book.update(depth(new double[]{102,5, 103,3, 104,1},new double[]{100,1, 99,2})) ;
+		Assert.assertEquals(3,changes) ;
+		Assert.assertEquals(1,book.getRemovedAskCount()) ;
+		Assert.assertTrue(book.isAskChanged(0)) ;
+		Assert.assertFalse(book.isAskChanged(1)) ;
+		Assert.assertTrue(book.isAskChanged(2)) ;
+		Assert.assertFalse(book.isBidChanged(0)) ;
+		Assert.assertEquals(102.0,book.getBestAsk(),0) ;
+		Assert.assertEquals(9.0,book.getCumulativeAskAmount(3),0) ;
+		
+		// bids descend, 99 is gone and 98.5 is new
+		changes = book.update(depth(new double[]{102,5, 103,3, 104,1},new double[]{100,1, 98.5,4})) ;
+		Assert.assertEquals(2,changes) ;
+		Assert.assertEquals(1,book.getRemovedBidCount()) ;
+		Assert.assertTrue(book.isBidChanged(1)) ;
+		Assert.assertEquals(5.0,book.getCumulativeBidAmount(2),0) ;
+		Assert.assertEquals(3,book.getUpdateCount()) ;
+	}
+	
+	@Test
+	public void testUnsortedLevels() {
+		OrderBook book = new OrderBook(BTCE.Pairs.BTC_USD) ;
+		book.update(depth(new double[]{103,3, 101,1, 102,2},new double[]{99,2, 100,1})) ;
+		Assert.assertEquals(101.0,book.getBestAsk(),0) ;
+		Assert.assertEquals(2.0,book.getAskAmount(1),0) ;
+		Assert.assertEquals(100.0,book.getBestBid(),0) ;
+		Assert.assertEquals(3.0,book.getCumulativeAskAmount(2),0) ;
+		
+		// the same levels in another order are no change
+		Assert.assertEquals(0,book.update(depth(new double[]{101,1, 103,3, 102,2},new double[]{100,1, 99,2}))) ;
+	}
+	
+	@Test
+	public void testDepthRoundTrip() throws Exception {
+		BTCE btce = new BTCE() ;
+		Depth depth = btce.parse(new StringReader("{\"asks\":[[102,2],[101,1]],\"bids\":[[99,2],[100,1,\"x\"]],\"other\":1}"),Depth.class) ;
+		Assert.assertEquals(101.0,depth.ask_prices[0],0) ;
+		Assert.assertEquals(2.0,depth.ask_amounts[1],0) ;
+		Assert.assertEquals(100.0,depth.bid_prices[0],0) ;
+		Assert.assertEquals(2.0,depth.bid_amounts[1],0) ;
+		
+		String json = btce.toJson(depth) ;
+		Assert.assertEquals("{\"asks\":[[101.0,1.0],[102.0,2.0]],\"bids\":[[100.0,1.0],[99.0,2.0]]}",json) ;
+		Depth parsed = btce.parse(new StringReader(json),Depth.class) ;
+		Assert.assertEquals(2,parsed.ask_prices.length) ;
+		Assert.assertEquals(99.0,parsed.bid_prices[1],0) ;
+	}
+	
+	@Test
+	public void testReadsDuringUpdates() throws Exception {
+		final OrderBook book = new OrderBook(BTCE.Pairs.BTC_USD) ;
+		// unsorted so that every update sorts, the totals tell the two books apart
+		final Depth a = depth(new double[]{103,3, 101,1, 102,2},new double[]{99,2, 100,1}) ;
+		final Depth b = depth(new double[]{104,10, 102,20},new double[]{98,30}) ;
+		book.update(a) ;
+		Thread writer = new Thread() {
+			public void run() {
+				for(int i=0;i<200000;i++) book.update(i%2 == 0 ? b : a) ;
+			}
+		} ;
+		writer.start() ;
+		while( writer.isAlive() ) {
+			double total = book.getCumulativeAskAmount(10) ;
+			Assert.assertTrue("total "+total,total == 6 || total == 30) ;
+			double best = book.getBestAsk() ;
+			Assert.assertTrue("best "+best,best == 101 || best == 102) ;
+		}
+		writer.join() ;
+	}
+}
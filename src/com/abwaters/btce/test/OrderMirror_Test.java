@@ -0,0 +1,181 @@
+package com.abwaters.btce.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.OrderMirror;
+import com.abwaters.btce.OrderMirror.Order;
+
+public class OrderMirror_Test {
+
+	private static final String KEY = "MIRROR-TEST-KEY" ;
+	private static final String SECRET = "0123456789abcdef0123456789abcdef" ;
+	private static final String BTC = BTCE.Pairs.BTC_USD ;
+
+	private LocalExchange exchange ;
+	private BTCE btce ;
+	private OrderMirror mirror ;
+	private final List<String> events = new ArrayList<String>() ;
+
+	@Before
+	public void setUp() throws Exception {
+		exchange = new LocalExchange() ;
+		exchange.addKey(KEY,SECRET) ;
+		exchange.setFunds("usd",10000) ;
+		exchange.setFunds("btc",10) ;
+		exchange.setHistoryCount(0) ;
+		btce = client() ;
+		mirror = new OrderMirror(btce) ;
+		mirror.addListener(new OrderMirror.Listener() {
+			public void opened(Order order) {
+				events.add("opened "+order.order_id) ;
+			}
+			public void filled(Order order,double amount) {
+				events.add("filled "+order.order_id+" "+amount+" left "+order.amount) ;
+			}
+			public void closed(Order order,boolean filled) {
+				events.add((filled?"filled ":"cancelled ")+order.order_id) ;
+			}
+		}) ;
+	}
+
+	@After
+	public void tearDown() {
+		mirror.close() ;
+		exchange.close() ;
+	}
+
+	private BTCE client() throws Exception {
+		BTCE client = new BTCE() ;
+		client.setBaseUrl(exchange.getBaseUrl()) ;
+		client.setAuthKeys(KEY,SECRET) ;
+		client.setAuthRequestLimit(0) ;
+		return client ;
+	}
+
+	@Test
+	public void testTradeAndCancelAreMirrored() throws Exception {
+		long id = mirror.trade(BTC,"buy",500,0.5).info.order_id ;
+		int requests = exchange.getRequestCount() ;
+		Order order = mirror.getOrder(id) ;
+		Assert.assertEquals(BTC,order.pair) ;
+		Assert.assertEquals(0.5,order.amount,1e-9) ;
+		Assert.assertEquals(1,mirror.getOrders(BTC).size()) ;
+		Assert.assertEquals(0,mirror.getOrders(BTCE.Pairs.LTC_USD).size()) ;
+		Assert.assertEquals(requests,exchange.getRequestCount()) ;
+
+		Assert.assertEquals(1,mirror.cancelOrder(id).success) ;
+		Assert.assertNull(mirror.getOrder(id)) ;
+		Assert.assertEquals("[opened "+id+", cancelled "+id+"]",events.toString()) ;
+	}
+
+	@Test
+	public void testReconcileFindsFills() throws Exception {
+		mirror.reconcile() ;
+		Assert.assertFalse(mirror.isStale()) ;
+		long partly = mirror.trade(BTC,"buy",500,0.5).info.order_id ;
+		long filled = mirror.trade(BTC,"sell",600,0.25).info.order_id ;
+		long cancelled = mirror.trade(BTC,"sell",700,0.1).info.order_id ;
+		BTCE other = client() ;
+		long elsewhere = other.trade(BTC,"buy",400,1).info.order_id ;
+		other.cancelOrder(cancelled) ;
+		exchange.fill(partly,0.2) ;
+		exchange.fill(filled,0.25) ;
+		events.clear() ;
+
+		mirror.reconcile() ;
+		Assert.assertTrue(events.contains("opened "+elsewhere)) ;
+		Assert.assertTrue(events.contains("filled "+partly+" 0.2 left 0.3")) ;
+		Assert.assertTrue(events.contains("filled "+filled+" 0.25 left 0.0")) ;
+		Assert.assertTrue(events.contains("filled "+filled)) ;
+		Assert.assertTrue(events.contains("cancelled "+cancelled)) ;
+		Assert.assertEquals(5,events.size()) ;
+		Assert.assertEquals(0.3,mirror.getOrder(partly).amount,1e-9) ;
+		Assert.assertEquals(0.2,mirror.getOrder(partly).filled,1e-9) ;
+		Assert.assertNull(mirror.getOrder(filled)) ;
+		Assert.assertNull(mirror.getOrder(cancelled)) ;
+		Assert.assertEquals(2,mirror.getOrderCount()) ;
+
+		// nothing changed, nothing to report
+		events.clear() ;
+		mirror.reconcile() ;
+		Assert.assertTrue(events.isEmpty()) ;
+	}
+
+	@Test
+	public void testFillsSpanningSeveralHistoryPages() throws Exception {
+		mirror.reconcile() ;
+		long id = mirror.trade(BTC,"buy",500,1).info.order_id ;
+		// more fills than one page of the trade history holds
+		for(int i=0;i<1100;i++) exchange.fill(id,0.0005) ;
+		exchange.fill(id,1) ;
+		events.clear() ;
+
+		mirror.reconcile() ;
+		Assert.assertNull(mirror.getOrder(id)) ;
+		Assert.assertTrue(events.toString(),events.contains("filled "+id)) ;
+		Assert.assertFalse(events.contains("cancelled "+id)) ;
+	}
+
+	@Test
+	public void testFailedCancelMarksStale() throws Exception {
+		mirror.reconcile() ;
+		long id = mirror.trade(BTC,"buy",500,0.5).info.order_id ;
+		client().cancelOrder(id) ;
+		Assert.assertEquals(0,mirror.cancelOrder(id).success) ;
+		Assert.assertTrue(mirror.isStale()) ;
+		Assert.assertNotNull(mirror.getOrder(id)) ;
+
+		mirror.reconcile() ;
+		Assert.assertFalse(mirror.isStale()) ;
+		Assert.assertNull(mirror.getOrder(id)) ;
+		Assert.assertEquals("cancelled "+id,events.get(events.size()-1)) ;
+	}
+
+	@Test
+	public void testBrokenListener() throws Exception {
+		final List<String> after = Collections.synchronizedList(new ArrayList<String>()) ;
+		mirror.addListener(new OrderMirror.Listener() {
+			public void opened(Order order) {
+				throw new IllegalStateException() ;
+			}
+			public void filled(Order order,double amount) {
+				throw new IllegalStateException() ;
+			}
+			public void closed(Order order,boolean filled) {
+				throw new IllegalStateException() ;
+			}
+		}) ;
+		mirror.addListener(new OrderMirror.Listener() {
+			public void opened(Order order) {
+				after.add("opened "+order.order_id) ;
+			}
+			public void filled(Order order,double amount) {
+			}
+			public void closed(Order order,boolean filled) {
+				after.add("closed "+order.order_id) ;
+			}
+		}) ;
+		long id = mirror.trade(BTC,"buy",500,0.5).info.order_id ;
+		Assert.assertNotNull(mirror.getOrder(id)) ;
+		Assert.assertEquals("[opened "+id+"]",after.toString()) ;
+
+		// the reconcile loop keeps going after a listener throws
+		long elsewhere = client().trade(BTC,"buy",400,1).info.order_id ;
+		mirror.startReconciling(10) ;
+		long deadline = System.currentTimeMillis()+2000 ;
+		while( !after.contains("opened "+elsewhere) && System.currentTimeMillis() < deadline ) Thread.sleep(5) ;
+		Assert.assertNotNull(mirror.getOrder(elsewhere)) ;
+		client().cancelOrder(elsewhere) ;
+		while( !after.contains("closed "+elsewhere) && System.currentTimeMillis() < deadline ) Thread.sleep(5) ;
+		Assert.assertNull(mirror.getOrder(elsewhere)) ;
+	}
+}
@@ -0,0 +1,53 @@
+package com.abwaters.btce.test;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE.RateLimiter;
+
+public class RateLimiter_Test {
+
+	@Test
+	public void testBurst() {
+		RateLimiter limiter = new RateLimiter(60000,3) ;
+		Assert.assertTrue(limiter.tryAcquire()) ;
+		Assert.assertTrue(limiter.tryAcquire()) ;
+		Assert.assertTrue(limiter.tryAcquire()) ;
+		Assert.assertFalse(limiter.tryAcquire()) ;
+	}
+	
+	@Test
+	public void testReserve() {
+		RateLimiter limiter = new RateLimiter(1000,1) ;
+		Assert.assertEquals(0,limiter.reserve()) ;
+		long wait = limiter.reserve() ;
+		Assert.assertTrue(wait > 900000000L && wait <= 1000000000L) ;
+		wait = limiter.reserve() ;
+		Assert.assertTrue(wait > 1900000000L && wait <= 2000000000L) ;
+	}
+	
+	@Test
+	public void testAcquire() throws InterruptedException {
+		RateLimiter limiter = new RateLimiter(50,1) ;
+		long start = System.nanoTime() ;
+		for(int i=0;i<5;i++) limiter.acquire() ;
+		long elapsed = (System.nanoTime()-start)/1000000 ;
+		Assert.assertTrue("elapsed "+elapsed,elapsed >= 195) ;
+	}
+	
+	@Test
+	public void testInterruptReturnsPermit() {
+		RateLimiter limiter = new RateLimiter(60000,1) ;
+		Assert.assertTrue(limiter.tryAcquire()) ;
+		Thread.currentThread().interrupt() ;
+		try {
+			limiter.acquire() ;
+			Assert.fail("acquire should have been interrupted") ;
+		} catch (InterruptedException e) {
+		}
+		// the interrupted permit was given back so the next one is still a full interval away, not two
+		long wait = limiter.reserve() ;
+		Assert.assertTrue(wait <= 60000000000L) ;
+	}
+}
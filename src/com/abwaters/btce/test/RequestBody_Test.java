@@ -0,0 +1,45 @@
+package com.abwaters.btce.test;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE.RequestBody;
+
+public class RequestBody_Test {
+
+	@Test
+	public void testEncoding() {
+		RequestBody body = new RequestBody() ;
+		body.add("method","Trade").add("pair","btc_usd").add("type","buy") ;
+		body.add("rate",512.345).add("amount",0.0001).add("order_id",-42L) ;
+		body.addOptional("from",0).addOptional("order","") ;
+		Assert.assertEquals("method=Trade&pair=btc_usd&type=buy&rate=512.345&amount=0.0001&order_id=-42",body.toString()) ;
+	}
+	
+	@Test
+	public void testDoubles() {
+		Assert.assertEquals("a=1",new RequestBody().add("a",1.0).toString()) ;
+		Assert.assertEquals("a=0.1",new RequestBody().add("a",0.1).toString()) ;
+		Assert.assertEquals("a=0.00000001",new RequestBody().add("a",1e-8).toString()) ;
+		Assert.assertEquals("a=-2.5",new RequestBody().add("a",-2.5).toString()) ;
+		Assert.assertEquals("a=123456.78901234",new RequestBody().add("a",123456.78901234).toString()) ;
+	}
+	
+	@Test
+	public void testEscaping() {
+		Assert.assertEquals("a=x+y%26z%3D%C3%A9",new RequestBody().add("a","x y&z=é").toString()) ;
+	}
+	
+	@Test
+	public void testReuse() {
+		RequestBody body = new RequestBody() ;
+		for(int i=0;i<100;i++) body.add("p"+i,"0123456789") ;
+		int mark = body.length() ;
+		body.add("nonce",1) ;
+		body.truncate(mark) ;
+		body.add("nonce",2) ;
+		Assert.assertTrue(body.toString().endsWith("&p99=0123456789&nonce=2")) ;
+		Assert.assertEquals("method=getInfo",body.reset().add("method","getInfo").toString()) ;
+	}
+}
@@ -0,0 +1,37 @@
+package com.abwaters.btce.test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE.Signer;
+
+public class Signer_Test {
+
+	@Test
+	public void testSign() throws Exception {
+		byte[] secret = "secret".getBytes("UTF-8") ;
+		Mac mac = Mac.getInstance("HmacSHA512") ;
+		mac.init(new SecretKeySpec(secret,"HmacSHA512")) ;
+		Signer signer = new Signer(secret) ;
+		for(int i=0;i<100;i++) {
+			byte[] body = ("method=getInfo&nonce="+i).getBytes("UTF-8") ;
+			byte[] digest = mac.doFinal(body) ;
+			StringBuilder expected = new StringBuilder() ;
+			for(byte b:digest) expected.append(String.format("%02x",b)) ;
+			String sign = signer.sign(body,0,body.length) ;
+			Assert.assertEquals(128,sign.length()) ;
+			Assert.assertEquals(expected.toString(),sign) ;
+		}
+	}
+	
+	@Test
+	public void testToHex() {
+		char[] out = new char[8] ;
+		Signer.toHex(new byte[]{0x00,0x0f,(byte)0xa0,(byte)0xff},0,4,out,0) ;
+		Assert.assertEquals("000fa0ff",new String(out)) ;
+	}
+}
@@ -0,0 +1,182 @@
+package com.abwaters.btce.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.Ticker;
+import com.abwaters.btce.TickerSubscriptions;
+
+public class TickerSubscriptions_Test {
+
+	private static final String BTC = BTCE.Pairs.BTC_USD ;
+	private static final String LTC = BTCE.Pairs.LTC_USD ;
+
+	/**
+	 * Each poll takes the next scripted response, failing when the script holds an exception.
+	 */
+	private final BlockingQueue<Object> script = new LinkedBlockingQueue<Object>() ;
+	private BTCE btce ;
+	private TickerSubscriptions subscriptions ;
+
+	@Before
+	public void setUp() {
+		btce = new BTCE() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public Map<String,Ticker> getTickers(String... pairs) throws BTCEException {
+				Object next ;
+				try {
+					next = script.take() ;
+				} catch (InterruptedException e) {
+					throw new BTCEException("Interrupted.",e) ;
+				}
+				if( next instanceof BTCEException ) throw (BTCEException)next ;
+				return (Map<String,Ticker>)next ;
+			}
+		} ;
+		subscriptions = new TickerSubscriptions(btce) ;
+	}
+
+	@After
+	public void tearDown() {
+		subscriptions.close() ;
+	}
+
+	private static Ticker ticker(double last,long updated) {
+		Ticker ticker = new Ticker() ;
+		ticker.last = last ;
+		ticker.updated = updated ;
+		ticker.server_time = System.currentTimeMillis() ;
+		return ticker ;
+	}
+
+	private static Map<String,Ticker> tickers(Object... pairs_and_tickers) {
+		Map<String,Ticker> tickers = new LinkedHashMap<String,Ticker>() ;
+		for(int i=0;i<pairs_and_tickers.length;i+=2) tickers.put((String)pairs_and_tickers[i],(Ticker)pairs_and_tickers[i+1]) ;
+		return tickers ;
+	}
+
+	/**
+	 * Records what a listener is told and can be held up on a latch.
+	 */
+	private static class Recorder implements TickerSubscriptions.Listener {
+		private final List<String> changes = Collections.synchronizedList(new ArrayList<String>()) ;
+		private final List<BTCEException> failures = Collections.synchronizedList(new ArrayList<BTCEException>()) ;
+		private final CountDownLatch entered = new CountDownLatch(1) ;
+		private volatile CountDownLatch hold ;
+
+		public void changed(String pair,Ticker ticker) {
+			entered.countDown() ;
+			CountDownLatch latch = hold ;
+			try {
+				if( latch != null ) latch.await() ;
+			} catch (InterruptedException e) {
+				return ;
+			}
+			changes.add(pair+"="+ticker.last) ;
+		}
+
+		public void failed(BTCEException e) {
+			failures.add(e) ;
+		}
+	}
+
+	private void awaitPolls(long polls) throws InterruptedException {
+		// a poll is counted when it starts, so wait for the one after it to be sure it has been processed
+		for(int i=0;i<200 && subscriptions.getPollCount() <= polls;i++) Thread.sleep(5) ;
+	}
+
+	private static void awaitSize(List<?> list,int size) throws InterruptedException {
+		for(int i=0;i<200 && list.size() < size;i++) Thread.sleep(5) ;
+	}
+
+	@Test
+	public void testOnlyChangesAreDelivered() throws Exception {
+		Recorder recorder = new Recorder() ;
+		subscriptions.subscribe(BTC,recorder) ;
+		script.add(tickers(BTC,ticker(100,1))) ;
+		awaitSize(recorder.changes,1) ;
+		script.add(tickers(BTC,ticker(100,1))) ;	// only server_time differs
+		awaitPolls(2) ;
+		script.add(tickers(BTC,ticker(100,2))) ;	// updated moved on
+		awaitSize(recorder.changes,2) ;
+		script.add(tickers(BTC,ticker(101,2))) ;	// the price moved without updated
+		awaitSize(recorder.changes,3) ;
+		Assert.assertEquals("[btc_usd=100.0, btc_usd=100.0, btc_usd=101.0]",recorder.changes.toString()) ;
+		Assert.assertEquals(3,subscriptions.getChangeCount()) ;
+
+		// a late subscriber starts from the last ticker seen
+		Recorder late = new Recorder() ;
+		subscriptions.subscribe(BTC,late) ;
+		awaitSize(late.changes,1) ;
+		Assert.assertEquals("[btc_usd=101.0]",late.changes.toString()) ;
+
+		script.add(btce.new BTCEException("Exchange down.")) ;
+		awaitSize(recorder.failures,1) ;
+		Assert.assertEquals("Exchange down.",recorder.failures.get(0).getMessage()) ;
+		Assert.assertEquals(1,subscriptions.getErrorCount()) ;
+	}
+
+	@Test
+	public void testSlowListenerDoesNotStallOthers() throws Exception {
+		Recorder slow = new Recorder() ;
+		Recorder fast = new Recorder() ;
+		CountDownLatch hold = new CountDownLatch(1) ;
+		slow.hold = hold ;
+		subscriptions.subscribe(BTC,slow) ;
+		subscriptions.subscribe(LTC,fast) ;
+		script.add(tickers(BTC,ticker(101,1),LTC,ticker(11,1))) ;
+		Assert.assertTrue(slow.entered.await(1,TimeUnit.SECONDS)) ;
+		for(int i=2;i<=5;i++) script.add(tickers(BTC,ticker(100+i,i),LTC,ticker(10+i,i))) ;
+		awaitPolls(5) ;
+		for(int i=0;i<200 && !fast.changes.contains("ltc_usd=15.0");i++) Thread.sleep(5) ;
+		Assert.assertTrue(fast.changes.contains("ltc_usd=15.0")) ;
+		Assert.assertEquals(0,slow.changes.size()) ;
+
+		// the slow listener was stuck on the first change and only gets the latest one after it
+		hold.countDown() ;
+		awaitSize(slow.changes,2) ;
+		Thread.sleep(50) ;
+		Assert.assertEquals("[btc_usd=101.0, btc_usd=105.0]",slow.changes.toString()) ;
+	}
+
+	@Test
+	public void testLocalExchange() throws Exception {
+		LocalExchange exchange = new LocalExchange() ;
+		TickerSubscriptions live = null ;
+		try {
+			BTCE client = new BTCE() ;
+			client.setBaseUrl(exchange.getBaseUrl()) ;
+			client.setRequestLimit(20) ;
+			live = new TickerSubscriptions(client) ;
+			Recorder recorder = new Recorder() ;
+			live.subscribe(BTC,recorder) ;
+			live.subscribe(LTC,recorder) ;
+			awaitSize(recorder.changes,2) ;
+			Thread.sleep(200) ;
+
+			// both pairs go in one call per poll and the exchange only moves the tickers on once a second
+			Assert.assertTrue(live.getTicker(BTC) != null && live.getTicker(LTC) != null) ;
+			Assert.assertTrue(exchange.getRequestCount() <= live.getPollCount()) ;
+			Assert.assertTrue(recorder.changes.size() < live.getPollCount()*2) ;
+		} finally {
+			if( live != null ) live.close() ;
+			exchange.close() ;
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package com.abwaters.btce.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE;
+import com.abwaters.btce.BTCE.BTCEException;
+import com.abwaters.btce.BTCE.TradesDetail;
+import com.abwaters.btce.TradeStream;
+
+public class TradeStream_Test {
+
+	private static final String BTC = BTCE.Pairs.BTC_USD ;
+	private static final String LTC = BTCE.Pairs.LTC_USD ;
+
+	/**
+	 * Each poll takes the next scripted response.
+	 */
+	private final BlockingQueue<Map<String,TradesDetail[]>> script = new LinkedBlockingQueue<Map<String,TradesDetail[]>>() ;
+	private BTCE btce ;
+	private TradeStream stream ;
+
+	@Before
+	public void setUp() {
+		btce = new BTCE() {
+			@Override
+			public Map<String,TradesDetail[]> getTradesMap(String... pairs) throws BTCEException {
+				try {
+					return script.take() ;
+				} catch (InterruptedException e) {
+					throw new BTCEException("Interrupted.",e) ;
+				}
+			}
+		} ;
+	}
+
+	@After
+	public void tearDown() {
+		if( stream != null ) stream.close() ;
+	}
+
+	/**
+	 * The trades from <code>from</code> to <code>to</code> newest first, the way the exchange lists them.
+	 */
+	private static TradesDetail[] window(String pair,long from,long to) {
+		TradesDetail[] trades = new TradesDetail[(int)(to-from+1)] ;
+		for(int i=0;i<trades.length;i++) {
+			TradesDetail trade = trades[i] = new TradesDetail() ;
+			trade.tid = to-i ;
+			trade.date = 1000+trade.tid ;
+			trade.price = 100 ;
+			trade.amount = 0.1 ;
+			trade.item = pair.substring(0,3) ;
+			trade.price_currency = pair.substring(4) ;
+			trade.trade_type = "bid" ;
+		}
+		return trades ;
+	}
+
+	private static Map<String,TradesDetail[]> poll(Object... pairs_and_windows) {
+		Map<String,TradesDetail[]> trades = new LinkedHashMap<String,TradesDetail[]>() ;
+		for(int i=0;i<pairs_and_windows.length;i+=2) trades.put((String)pairs_and_windows[i],(TradesDetail[])pairs_and_windows[i+1]) ;
+		return trades ;
+	}
+
+	/**
+	 * Records the trades it is handed and can be held up on a latch.
+	 */
+	private static class Recorder implements TradeStream.Handler {
+		private final List<String> trades = Collections.synchronizedList(new ArrayList<String>()) ;
+		private long expected ;
+		private volatile boolean gap ;
+		private volatile CountDownLatch hold ;
+
+		public void onTrade(TradesDetail trade,long sequence,boolean end_of_batch) {
+			CountDownLatch latch = hold ;
+			try {
+				if( latch != null ) latch.await() ;
+			} catch (InterruptedException e) {
+				return ;
+			}
+			if( sequence != expected++ ) gap = true ;
+			trades.add(trade.item+trade.tid) ;
+		}
+	}
+
+	private static void awaitSize(List<?> list,int size) throws InterruptedException {
+		for(int i=0;i<400 && list.size() < size;i++) Thread.sleep(5) ;
+	}
+
+	@Test
+	public void testOverlappingPollsAreDeduplicated() throws Exception {
+		stream = new TradeStream(btce,64,BTC,LTC) ;
+		Recorder first = new Recorder() ;
+		Recorder second = new Recorder() ;
+		stream.addConsumer(first) ;
+		stream.addConsumer(second) ;
+		script.add(poll(BTC,window(BTC,1,3),LTC,window(LTC,1,2))) ;
+		script.add(poll(BTC,window(BTC,2,5),LTC,window(LTC,1,2))) ;
+		script.add(poll(BTC,window(BTC,4,6),LTC,window(LTC,2,3))) ;
+		stream.start() ;
+		awaitSize(first.trades,9) ;
+		awaitSize(second.trades,9) ;
+		String expected = "[btc1, btc2, btc3, ltc1, ltc2, btc4, btc5, btc6, ltc3]" ;
+		Assert.assertEquals(expected,first.trades.toString()) ;
+		Assert.assertEquals(expected,second.trades.toString()) ;
+		Assert.assertFalse(first.gap || second.gap) ;
+		Assert.assertEquals(8,stream.getCursor()) ;
+		Assert.assertEquals(2+2+2+1,stream.getDuplicateCount()) ;
+	}
+
+	@Test
+	public void testSlowConsumerHoldsBackThePoller() throws Exception {
+		stream = new TradeStream(btce,4,BTC) ;
+		Assert.assertEquals(4,stream.getCapacity()) ;
+		Recorder fast = new Recorder() ;
+		Recorder slow = new Recorder() ;
+		CountDownLatch hold = new CountDownLatch(1) ;
+		slow.hold = hold ;
+		stream.addConsumer(fast) ;
+		TradeStream.Consumer held = stream.addConsumer(slow) ;
+		for(int i=0;i<5;i++) script.add(poll(BTC,window(BTC,1,4*(i+1)))) ;
+		stream.start() ;
+
+		// the ring fills and the poller waits for the slow consumer instead of overwriting its trades
+		awaitSize(fast.trades,4) ;
+		Thread.sleep(50) ;
+		Assert.assertEquals(4,fast.trades.size()) ;
+		Assert.assertEquals(3,stream.getCursor()) ;
+		Assert.assertEquals(4,held.getLag()) ;
+		Assert.assertTrue(stream.getStallCount() > 0) ;
+
+		hold.countDown() ;
+		awaitSize(slow.trades,20) ;
+		awaitSize(fast.trades,20) ;
+		Assert.assertEquals(20,slow.trades.size()) ;
+		Assert.assertEquals(20,fast.trades.size()) ;
+		Assert.assertEquals("btc20",slow.trades.get(19)) ;
+		Assert.assertFalse(fast.gap || slow.gap) ;
+	}
+
+	@Test
+	public void testRemovedConsumerFreesTheRing() throws Exception {
+		stream = new TradeStream(btce,4,BTC) ;
+		Recorder fast = new Recorder() ;
+		Recorder stuck = new Recorder() ;
+		stuck.hold = new CountDownLatch(1) ;
+		stream.addConsumer(fast) ;
+		TradeStream.Consumer removed = stream.addConsumer(stuck) ;
+		script.add(poll(BTC,window(BTC,1,8))) ;
+		stream.start() ;
+		awaitSize(fast.trades,4) ;
+		removed.remove() ;
+		awaitSize(fast.trades,8) ;
+		Assert.assertEquals(8,fast.trades.size()) ;
+		for(int i=0;i<200 && stream.getPollCount() < 2;i++) TimeUnit.MILLISECONDS.sleep(5) ;
+		Assert.assertEquals(2,stream.getPollCount()) ;
+	}
+
+	@Test
+	public void testLocalExchange() throws Exception {
+		LocalExchange exchange = new LocalExchange() ;
+		exchange.setTradeCount(50) ;
+		TradeStream live = null ;
+		try {
+			BTCE client = new BTCE() ;
+			client.setBaseUrl(exchange.getBaseUrl()) ;
+			client.setRequestLimit(10) ;
+			live = new TradeStream(client,256,BTC) ;
+			Recorder recorder = new Recorder() ;
+			live.addConsumer(recorder) ;
+			live.start() ;
+			// the first window and then five new trades a poll
+			awaitSize(recorder.trades,70) ;
+			Assert.assertTrue(recorder.trades.size() >= 70) ;
+			Assert.assertFalse(recorder.gap) ;
+			Assert.assertTrue(live.getDuplicateCount() > 0) ;
+			for(int i=1;i<recorder.trades.size();i++) {
+				long previous = Long.parseLong(recorder.trades.get(i-1).substring(3)) ;
+				Assert.assertEquals(previous+1,Long.parseLong(recorder.trades.get(i).substring(3))) ;
+			}
+		} finally {
+			if( live != null ) live.close() ;
+			exchange.close() ;
+		}
+	}
+}
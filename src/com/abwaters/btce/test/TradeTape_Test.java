@@ -0,0 +1,118 @@
+package com.abwaters.btce.test;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.abwaters.btce.BTCE.TradesDetail;
+import com.abwaters.btce.TradeTape;
+
+public class TradeTape_Test {
+
+	private File dir ;
+	
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("tape",null) ;
+		dir.delete() ;
+	}
+	
+	@After
+	public void tearDown() {
+		File[] files = dir.listFiles() ;
+		if( files != null ) for(File f:files) f.delete() ;
+		dir.delete() ;
+	}
+	
+	private static TradesDetail trade(long tid,long date,double price,String item,String type) {
+		TradesDetail trade = new TradesDetail() ;
+		trade.tid = tid ;
+		trade.date = date ;
+		trade.price = price ;
+		trade.amount = 1 ;
+		trade.item = item ;
+		trade.price_currency = "usd" ;
+		trade.trade_type = type ;
+		return trade ;
+	}
+	
+	@Test
+	public void testAppendSkipsDuplicates() throws Exception {
+		TradeTape tape = new TradeTape(dir) ;
+		// newest first, as the exchange returns them
+		Assert.assertEquals(2,tape.append(new TradesDetail[]{trade(2,200,10,"btc","bid"),trade(1,100,9,"btc","ask")})) ;
+		Assert.assertEquals(1,tape.append(new TradesDetail[]{trade(3,300,11,"btc","ask"),trade(2,200,10,"btc","bid")})) ;
+		// another pair has its own tids
+		Assert.assertEquals(1,tape.append(new TradesDetail[]{trade(1,150,5,"ltc","bid")})) ;
+		Assert.assertEquals(4,tape.size()) ;
+		Assert.assertEquals(1,tape.getTid(0)) ;
+		Assert.assertEquals(11.0,tape.getPrice(2),0) ;
+		Assert.assertEquals("ltc",tape.getItem(3)) ;
+		Assert.assertEquals("bid",tape.getTradeType(3)) ;
+		tape.close() ;
+	}
+	
+	@Test
+	public void testBackfill() throws Exception {
+		TradeTape tape = new TradeTape(dir) ;
+		Assert.assertEquals(2,tape.append(new TradesDetail[]{trade(10,1000,10,"btc","bid"),trade(20,2000,11,"btc","ask")})) ;
+		// older trades missed by the polls are added, the ones already stored are not
+		Assert.assertEquals(2,tape.append(new TradesDetail[]{trade(5,500,9,"btc","bid"),trade(10,1000,10,"btc","bid"),trade(15,1500,10,"btc","ask")})) ;
+		Assert.assertEquals(0,tape.append(new TradesDetail[]{trade(15,1500,10,"btc","ask"),trade(15,1500,10,"btc","ask")})) ;
+		Assert.assertEquals(4,tape.size()) ;
+		Assert.assertEquals(5,tape.getTid(2)) ;
+		tape.close() ;
+		
+		tape = new TradeTape(dir) ;
+		Assert.assertEquals(0,tape.append(new TradesDetail[]{trade(5,500,9,"btc","bid"),trade(20,2000,11,"btc","ask")})) ;
+		Assert.assertEquals(1,tape.append(new TradesDetail[]{trade(1,100,8,"btc","bid")})) ;
+		tape.close() ;
+	}
+	
+	@Test
+	public void testLostIndexIsRebuilt() throws Exception {
+		TradeTape tape = new TradeTape(dir) ;
+		// newest trades first, then older ones backfilled, over two pairs sharing tids
+		for(int batch=9;batch>=0;batch--) {
+			TradesDetail[] trades = new TradesDetail[200] ;
+			for(int i=0;i<trades.length;i++) trades[i] = trade(batch*100+i/2+1,1000+i,i,i%2 == 0 ? "btc" : "ltc","bid") ;
+			tape.append(trades) ;
+		}
+		Assert.assertEquals(2000,tape.size()) ;
+		tape.close() ;
+		Assert.assertTrue(new File(dir,"tid_index").delete()) ;
+		
+		tape = new TradeTape(dir) ;
+		Assert.assertEquals(2000,tape.size()) ;
+		Assert.assertEquals(0,tape.append(new TradesDetail[]{trade(1,1000,0,"btc","bid"),trade(555,1000,0,"ltc","bid"),trade(1000,1000,0,"btc","bid")})) ;
+		Assert.assertEquals(2,tape.append(new TradesDetail[]{trade(1001,1000,0,"btc","bid"),trade(555,1000,0,"eth","bid")})) ;
+		tape.close() ;
+	}
+	
+	@Test
+	public void testReopenAndScan() throws Exception {
+		TradeTape tape = new TradeTape(dir) ;
+		TradesDetail[] trades = new TradesDetail[100000] ;
+		for(int i=0;i<trades.length;i++) trades[i] = trade(i+1,1000+i,i,"btc",i%2==0?"bid":"ask") ;
+		Assert.assertEquals(trades.length,tape.append(trades)) ;
+		tape.close() ;
+		
+		tape = new TradeTape(dir) ;
+		Assert.assertEquals(trades.length,tape.size()) ;
+		Assert.assertEquals(0,tape.append(new TradesDetail[]{trades[5]})) ;
+		final long[] sum = new long[1] ;
+		int visited = tape.scan(51000,51009,new TradeTape.Visitor() {
+			public boolean trade(long tid,long date,double price,double amount,String item,String price_currency,String trade_type) {
+				sum[0] += tid ;
+				return true ;
+			}
+		}) ;
+		Assert.assertEquals(10,visited) ;
+		Assert.assertEquals(50001+50010,sum[0]/5) ;
+		tape.close() ;
+	}
+}